@@ -0,0 +1,99 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Directory of gzipped binary files, one per key, kept from one run to the next.
+ * <p>
+ * Files are written aside then moved, so that a concurrent or interrupted run never reads a partial file,
+ * and files of another format version are ignored.
+ */
+class CacheDirectory {
+    private final File directory;
+    private final int formatVersion;
+
+    CacheDirectory(File directory, int formatVersion) {
+        this.directory = directory;
+        this.formatVersion = formatVersion;
+    }
+
+    /**
+     * Returns what was stored for the key, or null when there is nothing valid
+     */
+    <T> T read(String key, Reader<T> reader) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (input.readInt() != formatVersion) {
+                return null;
+            }
+            return reader.read(input);
+        } catch (IOException e) {
+            System.err.println("Ignoring invalid cache file " + file + ": " + e);
+            return null;
+        }
+    }
+
+    void write(String key, Writer writer) {
+        File file = getFile(key);
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            File tmpFile = File.createTempFile(key, ".tmp", file.getParentFile());
+            try {
+                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                        new GZIPOutputStream(new FileOutputStream(tmpFile))))) {
+                    output.writeInt(formatVersion);
+                    writer.write(output);
+                }
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write cache file " + file + ": " + e);
+        }
+    }
+
+    static void writeStrings(DataOutput output, Collection<String> strings) throws IOException {
+        output.writeInt(strings.size());
+        for (String string : strings) {
+            output.writeUTF(string);
+        }
+    }
+
+    static void readStrings(DataInput input, Collection<String> strings) throws IOException {
+        int size = input.readInt();
+        for (int i = 0; i < size; i++) {
+            strings.add(input.readUTF());
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + ".bin.gz");
+    }
+
+    interface Reader<T> {
+        T read(DataInput input) throws IOException;
+    }
+
+    interface Writer {
+        void write(DataOutput output) throws IOException;
+    }
+}
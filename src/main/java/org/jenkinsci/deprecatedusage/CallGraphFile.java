@@ -0,0 +1,362 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import org.jenkinsci.deprecatedusage.symbol.IntObjectMap;
+import org.jenkinsci.deprecatedusage.symbol.IntSet;
+import org.jenkinsci.deprecatedusage.symbol.SymbolTable;
+
+/**
+ * Binary file of the calls found in the plugins, written once by a scan and memory mapped to run recursive queries
+ * without reading the plugins again.
+ * <p>
+ * Layout, with big endian ints:
+ * <ul>
+ * <li>magic and format version</li>
+ * <li>dictionary of the symbols (method and field keys, class names, plugin names) sorted by their UTF-8 bytes, so
+ * that a symbol or a prefix is found by a binary search: count, offset of each symbol, then the bytes padded to
+ * a multiple of 4</li>
+ * <li>three adjacency arrays in compressed sparse row form, indexed by symbol: the methods calling a method or
+ * field, the plugins defining a calling method, and the direct subtypes of a class</li>
+ * </ul>
+ * The file is mapped at once, so it is limited to 2 GB.
+ */
+final class CallGraphFile {
+    private static final int MAGIC = 0x43475246;
+    private static final int FORMAT_VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final int symbolCount;
+    private final int offsets;
+    private final int bytes;
+    private final Adjacency callers;
+    private final Adjacency plugins;
+    private final Adjacency subtypes;
+
+    private CallGraphFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a call graph file of version " + FORMAT_VERSION);
+        }
+        symbolCount = buffer.getInt(8);
+        offsets = 12;
+        bytes = offsets + 4 * (symbolCount + 1);
+        int byteCount = buffer.getInt(offsets + 4 * symbolCount);
+        callers = new Adjacency(bytes + align(byteCount));
+        plugins = new Adjacency(callers.end());
+        subtypes = new Adjacency(plugins.end());
+    }
+
+    static CallGraphFile open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid once the channel is closed
+            return new CallGraphFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the calls retained by the scan of the usages, with the hierarchy of their classes and the shared one of
+     * all the archives
+     */
+    static void write(File file, List<DeprecatedUsage> usages, ClassHierarchy classHierarchy) throws IOException {
+        SymbolTable symbols = SymbolTable.get();
+        IntObjectMap<IntSet> callersById = new IntObjectMap<>();
+        IntObjectMap<IntSet> pluginsById = new IntObjectMap<>();
+        IntObjectMap<IntSet> subtypesById = new IntObjectMap<>();
+        IntSet used = new IntSet();
+        for (DeprecatedUsage usage : usages) {
+            int plugin = symbols.intern(usage.getPlugin().artifactId);
+            used.add(plugin);
+            usage.getRetainedReferences().forEach((field, className, name, desc, callerClassName, callerName, callerDesc) -> {
+                int callee = field ? symbols.internFieldKey(className, name) : symbols.internMethodKey(className, name, desc);
+                int caller = symbols.internMethodKey(callerClassName, callerName, callerDesc);
+                callersById.computeIfAbsent(callee, k -> new IntSet()).add(caller);
+                pluginsById.computeIfAbsent(caller, k -> new IntSet()).add(plugin);
+                used.add(callee);
+                used.add(caller);
+            });
+            usage.getSuperClassAndInterfacesByClass().forEach((className, superClassAndInterfaces) ->
+                    addSubtype(className, superClassAndInterfaces, subtypesById, used));
+        }
+        // the types of the cores and of the plugins not written, through which a subclass can be called too
+        classHierarchy.forEach((className, superClassAndInterfaces) ->
+                addSubtype(className, superClassAndInterfaces, subtypesById, used));
+
+        int[] ids = used.toArray();
+        byte[][] symbolBytes = new byte[symbols.size()][];
+        for (int id : ids) {
+            symbolBytes[id] = symbols.symbol(id).getBytes(StandardCharsets.UTF_8);
+        }
+        Integer[] sorted = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            sorted[i] = ids[i];
+        }
+        Arrays.sort(sorted, (a, b) -> compare(symbolBytes[a], symbolBytes[b]));
+        IntObjectMap<Integer> indexById = new IntObjectMap<>();
+        for (int i = 0; i < sorted.length; i++) {
+            indexById.put(sorted[i], i);
+        }
+
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeInt(sorted.length);
+                int offset = 0;
+                for (Integer id : sorted) {
+                    output.writeInt(offset);
+                    offset += symbolBytes[id].length;
+                }
+                output.writeInt(offset);
+                for (Integer id : sorted) {
+                    output.write(symbolBytes[id]);
+                }
+                output.write(new byte[align(offset) - offset]);
+                writeAdjacency(output, sorted, callersById, indexById);
+                writeAdjacency(output, sorted, pluginsById, indexById);
+                writeAdjacency(output, sorted, subtypesById, indexById);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    private static void addSubtype(String className, List<String> superClassAndInterfaces,
+                                   IntObjectMap<IntSet> subtypesById, IntSet used) {
+        if (superClassAndInterfaces.isEmpty()) {
+            return;
+        }
+        SymbolTable symbols = SymbolTable.get();
+        int subtype = symbols.intern(className);
+        used.add(subtype);
+        for (String superClassOrInterface : superClassAndInterfaces) {
+            int supertype = symbols.intern(superClassOrInterface);
+            used.add(supertype);
+            subtypesById.computeIfAbsent(supertype, k -> new IntSet()).add(subtype);
+        }
+    }
+
+    private static void writeAdjacency(DataOutputStream output, Integer[] sorted, IntObjectMap<IntSet> targetsById,
+                                       IntObjectMap<Integer> indexById) throws IOException {
+        List<int[]> rows = new ArrayList<>(sorted.length);
+        int offset = 0;
+        for (Integer id : sorted) {
+            IntSet targets = targetsById.get(id);
+            int[] row = targets == null ? new int[0] : targets.toArray();
+            for (int i = 0; i < row.length; i++) {
+                row[i] = indexById.get(row[i]);
+            }
+            Arrays.sort(row);
+            rows.add(row);
+            output.writeInt(offset);
+            offset += row.length;
+        }
+        output.writeInt(offset);
+        for (int[] row : rows) {
+            for (int target : row) {
+                output.writeInt(target);
+            }
+        }
+    }
+
+    int size() {
+        return symbolCount;
+    }
+
+    String symbol(int index) {
+        int start = buffer.getInt(offsets + 4 * index);
+        byte[] symbol = new byte[buffer.getInt(offsets + 4 * index + 4) - start];
+        for (int i = 0; i < symbol.length; i++) {
+            symbol[i] = buffer.get(bytes + start + i);
+        }
+        return new String(symbol, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the index of the symbol, or -1 if it is not in the file
+     */
+    int find(String symbol) {
+        byte[] key = symbol.getBytes(StandardCharsets.UTF_8);
+        int index = lowerBound(key);
+        return index < symbolCount && compareAt(index, key, false) == 0 ? index : -1;
+    }
+
+    /**
+     * Indexes of the symbols starting with the prefix
+     */
+    IntSet findByPrefix(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        IntSet found = new IntSet();
+        for (int index = lowerBound(key); index < symbolCount && compareAt(index, key, true) == 0; index++) {
+            found.add(index);
+        }
+        return found;
+    }
+
+    /**
+     * Methods calling the method or field of the given index
+     */
+    void forEachCaller(int index, IntConsumer action) {
+        callers.forEach(index, action);
+    }
+
+    /**
+     * Plugins in which the method of the given index calls others
+     */
+    void forEachPlugin(int index, IntConsumer action) {
+        plugins.forEach(index, action);
+    }
+
+    /**
+     * Returns the class of the given name and its subtypes, direct or not, by name
+     */
+    List<String> getSubtypes(String className) {
+        List<String> classNames = new ArrayList<>();
+        classNames.add(className);
+        int index = find(className);
+        if (index >= 0) {
+            IntSet visited = new IntSet();
+            visited.add(index);
+            List<Integer> queue = new ArrayList<>();
+            queue.add(index);
+            for (int i = 0; i < queue.size(); i++) {
+                subtypes.forEach(queue.get(i), subtype -> {
+                    if (visited.add(subtype)) {
+                        queue.add(subtype);
+                        classNames.add(symbol(subtype));
+                    }
+                });
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * Returns, by level, the methods calling the given methods or fields: directly for the first level, then the
+     * methods calling the ones of the previous level. A call through a subtype of the class of a method counts.
+     * Each method is only in the first level it is found at.
+     */
+    List<IntSet> findCallersByLevel(IntSet providers, int maxDepth) {
+        List<IntSet> levels = new ArrayList<>();
+        IntSet found = new IntSet();
+        IntSet currentProviders = providers;
+        while (levels.size() < maxDepth) {
+            IntSet consumers = new IntSet();
+            currentProviders.forEach(provider -> forEachCallerThroughSubtypes(provider, consumer -> {
+                if (found.add(consumer)) {
+                    consumers.add(consumer);
+                }
+            }));
+            if (consumers.isEmpty()) {
+                break;
+            }
+            levels.add(consumers);
+            currentProviders = consumers;
+        }
+        return levels;
+    }
+
+    private void forEachCallerThroughSubtypes(int provider, IntConsumer action) {
+        String key = symbol(provider);
+        int separator = key.indexOf('#');
+        if (separator < 0) {
+            forEachCaller(provider, action);
+            return;
+        }
+        String member = key.substring(separator);
+        for (String className : getSubtypes(key.substring(0, separator))) {
+            int index = find(className + member);
+            if (index >= 0) {
+                forEachCaller(index, action);
+            }
+        }
+    }
+
+    private int lowerBound(byte[] key) {
+        int low = 0;
+        int high = symbolCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareAt(middle, key, false) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the symbol at the index with the key, as unsigned bytes
+     *
+     * @param prefix true to compare only the first bytes of the symbol, up to the length of the key
+     */
+    private int compareAt(int index, byte[] key, boolean prefix) {
+        int start = bytes + buffer.getInt(offsets + 4 * index);
+        int length = buffer.getInt(offsets + 4 * index + 4) - buffer.getInt(offsets + 4 * index);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return prefix && length >= key.length ? 0 : length - key.length;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static int align(int length) {
+        return (length + 3) & ~3;
+    }
+
+    /**
+     * Adjacency array in compressed sparse row form: the offset of the row of each symbol, then the targets
+     */
+    private final class Adjacency {
+        private final int rows;
+        private final int targets;
+
+        Adjacency(int rows) {
+            this.rows = rows;
+            this.targets = rows + 4 * (symbolCount + 1);
+        }
+
+        int end() {
+            return targets + 4 * buffer.getInt(rows + 4 * symbolCount);
+        }
+
+        void forEach(int index, IntConsumer action) {
+            int end = buffer.getInt(rows + 4 * index + 4);
+            for (int i = buffer.getInt(rows + 4 * index); i < end; i++) {
+                action.accept(buffer.getInt(targets + 4 * i));
+            }
+        }
+    }
+}
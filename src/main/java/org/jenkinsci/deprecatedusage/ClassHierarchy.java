@@ -0,0 +1,59 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Superclass and interfaces of the classes of the cores and of all the plugins, so that a call through a subclass of
+ * a type defined in another archive (core, dependency plugin) is resolved too.
+ * <p>
+ * Immutable once built, and read concurrently by the analysis of every plugin. A plugin resolves its calls with its
+ * own classes first, and with this index for the classes it does not define.
+ */
+public final class ClassHierarchy {
+    public static final ClassHierarchy EMPTY = new ClassHierarchy(Collections.emptyMap());
+
+    private final Map<String, List<String>> superClassAndInterfacesByClass;
+
+    private ClassHierarchy(Map<String, List<String>> superClassAndInterfacesByClass) {
+        this.superClassAndInterfacesByClass = superClassAndInterfacesByClass;
+    }
+
+    /**
+     * Returns the superclass and interfaces of the class, empty when it has none but java ones, or null when it is
+     * unknown
+     */
+    public List<String> getSuperClassAndInterfaces(String className) {
+        return superClassAndInterfacesByClass.get(className);
+    }
+
+    public void forEach(BiConsumer<String, List<String>> action) {
+        superClassAndInterfacesByClass.forEach(action);
+    }
+
+    public int size() {
+        return superClassAndInterfacesByClass.size();
+    }
+
+    /**
+     * Not thread safe, the archives are added in a stable order so that the index is the same from one run to another
+     */
+    public static final class Builder {
+        private final Map<String, List<String>> superClassAndInterfacesByClass = new HashMap<>();
+
+        /**
+         * Adds the classes of an archive. When a class is defined by several archives, the first one added wins.
+         */
+        public Builder addAll(Map<String, List<String>> superClassAndInterfaces) {
+            superClassAndInterfaces.forEach(superClassAndInterfacesByClass::putIfAbsent);
+            return this;
+        }
+
+        public ClassHierarchy build() {
+            return new ClassHierarchy(Collections.unmodifiableMap(new HashMap<>(superClassAndInterfacesByClass)));
+        }
+    }
+}
@@ -1,19 +1,33 @@
 package org.jenkinsci.deprecatedusage;
 
+import org.jenkinsci.deprecatedusage.symbol.SymbolTable;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 public class DeprecatedApi {
     // some plugins such as job-dsl has following code without using deprecated :
@@ -32,8 +46,22 @@ public class DeprecatedApi {
     private final Set<String> classes = new ConcurrentSkipListSet<>();
     private final Set<String> methods = new ConcurrentSkipListSet<>();
     private final Set<String> fields = new ConcurrentSkipListSet<>();
-    private final ClassVisitor classVisitor = new CalledClassVisitor();
+    private final Map<String, List<String>> superClassAndInterfacesByClass = new HashMap<>();
+    // classes added by the options and not found deprecated, which are not part of the API written by writeTo
+    private final Set<String> additionalClasses = new ConcurrentSkipListSet<>();
+    // the keys are interned, so that the plugins calling them look them up without building them
+    private final SymbolTable symbols;
 
+    public DeprecatedApi() {
+        this(SymbolTable.get());
+    }
+
+    /**
+     * @param symbols table in which the keys are interned, the one of the usages of the plugins
+     */
+    DeprecatedApi(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
 
     public static String getMethodKey(String className, String name, String desc) {
         return className + SEPARATOR + name + desc;
@@ -54,21 +82,50 @@ public class DeprecatedApi {
     }
 
     public void analyze(File coreFile) throws IOException {
-        Options options = Options.get();
-        try (WarReader warReader = new WarReader(coreFile, false)) {
-            String fileName = warReader.nextClass();
-            while (fileName != null) {
-                analyze(warReader.getInputStream());
-                fileName = warReader.nextClass();
-            }
+        IOException failure = analyze(Collections.singletonList(coreFile)).get(coreFile);
+        if (failure != null) {
+            throw failure;
         }
-        classes.removeAll(IGNORED_DEPRECATED_CLASSES);
     }
 
-    private void analyze(InputStream input) throws IOException {
-        final ClassReader classReader = new ClassReader(input);
-        classReader.accept(classVisitor,
-                ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    /**
+     * Analyzes the cores in parallel, the classes of each nested jar of a core being read by their own task. The result
+     * is the same as analyzing the cores one after the other, in the order given.
+     *
+     * @return the failure of each core which could not be read, none of its classes being added
+     */
+    public Map<File, IOException> analyze(List<File> coreFiles) {
+        List<CoreTask> tasks = new ArrayList<>();
+        for (File coreFile : coreFiles) {
+            tasks.add(new CoreTask(coreFile, symbols));
+        }
+        ForkJoinTask<?> task = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        };
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+
+        // merged in order, so that the superclass and interfaces of a class defined twice are the ones of the last core
+        Map<File, IOException> failures = new LinkedHashMap<>();
+        for (CoreTask coreTask : tasks) {
+            ApiScan scan = coreTask.join();
+            if (scan.failure != null) {
+                failures.put(coreTask.coreFile, scan.failure);
+            } else {
+                classes.addAll(scan.classes);
+                methods.addAll(scan.methods);
+                fields.addAll(scan.fields);
+                superClassAndInterfacesByClass.putAll(scan.superClassAndInterfacesByClass);
+            }
+        }
+        classes.removeAll(IGNORED_DEPRECATED_CLASSES);
+        return failures;
     }
 
     public Set<String> getClasses() {
@@ -83,21 +140,185 @@ public class DeprecatedApi {
         return fields;
     }
 
+    /**
+     * Hierarchy of the classes of the cores, to be shared with the plugins
+     */
+    public Map<String, List<String>> getSuperClassAndInterfacesByClass() {
+        return superClassAndInterfacesByClass;
+    }
+
+    /**
+     * Writes what the analysis of the cores found, to be restored by {@link #readFrom(DataInput)}
+     */
+    void writeTo(DataOutput output) throws IOException {
+        Set<String> deprecatedClasses = new TreeSet<>(classes);
+        deprecatedClasses.removeAll(additionalClasses);
+        CacheDirectory.writeStrings(output, deprecatedClasses);
+        CacheDirectory.writeStrings(output, methods);
+        CacheDirectory.writeStrings(output, fields);
+        output.writeInt(superClassAndInterfacesByClass.size());
+        for (Map.Entry<String, List<String>> entry : superClassAndInterfacesByClass.entrySet()) {
+            output.writeUTF(entry.getKey());
+            CacheDirectory.writeStrings(output, entry.getValue());
+        }
+    }
+
+    void readFrom(DataInput input) throws IOException {
+        CacheDirectory.readStrings(input, classes);
+        List<String> keys = new ArrayList<>();
+        CacheDirectory.readStrings(input, keys);
+        // interned as by the analysis
+        keys.forEach(key -> methods.add(symbols.symbol(symbols.intern(key))));
+        keys.clear();
+        CacheDirectory.readStrings(input, keys);
+        keys.forEach(key -> fields.add(symbols.symbol(symbols.intern(key))));
+        int size = input.readInt();
+        for (int i = 0; i < size; i++) {
+            String className = input.readUTF();
+            List<String> superClassAndInterfaces = new ArrayList<>();
+            CacheDirectory.readStrings(input, superClassAndInterfaces);
+            superClassAndInterfacesByClass.put(className,
+                    superClassAndInterfaces.isEmpty() ? Collections.emptyList() : superClassAndInterfaces);
+        }
+    }
+
+    /**
+     * Adds what another analysis of the cores found
+     */
+    void addAll(DeprecatedApi other) {
+        classes.addAll(other.classes);
+        methods.addAll(other.methods);
+        fields.addAll(other.fields);
+        other.superClassAndInterfacesByClass.forEach(superClassAndInterfacesByClass::putIfAbsent);
+    }
+
+    /**
+     * Adds classes to look for, to be called once the cores are analyzed
+     */
     public void addClasses(Collection<String> additionalClasses) {
-        classes.addAll(additionalClasses);
+        for (String className : additionalClasses) {
+            if (classes.add(className)) {
+                this.additionalClasses.add(className);
+            }
+        }
+    }
+
+    /**
+     * What the analysis of a core, or of a part of it, found
+     */
+    private static final class ApiScan {
+        private final Set<String> classes = new HashSet<>();
+        private final Set<String> methods = new HashSet<>();
+        private final Set<String> fields = new HashSet<>();
+        private final Map<String, List<String>> superClassAndInterfacesByClass = new LinkedHashMap<>();
+        private final ClassVisitor classVisitor;
+        private IOException failure;
+
+        ApiScan(SymbolTable symbols) {
+            classVisitor = new CalledClassVisitor(this, symbols);
+        }
+
+        void merge(ApiScan other) {
+            classes.addAll(other.classes);
+            methods.addAll(other.methods);
+            fields.addAll(other.fields);
+            superClassAndInterfacesByClass.putAll(other.superClassAndInterfacesByClass);
+        }
+
+        void analyze(byte[] data) {
+            final ClassReader classReader = new ClassReader(data);
+            classReader.accept(classVisitor,
+                    ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        }
     }
 
     /**
-     * Record the methods that are deprecated and public/protected.
+     * Analyzes a core, with a subtask per part of the war
      */
-    private class CalledClassVisitor extends ClassVisitor {
+    private static final class CoreTask extends RecursiveTask<ApiScan> {
+        private final File coreFile;
+        private final SymbolTable symbols;
+
+        CoreTask(File coreFile, SymbolTable symbols) {
+            this.coreFile = coreFile;
+            this.symbols = symbols;
+        }
+
+        @Override
+        protected ApiScan compute() {
+            ApiScan scan = new ApiScan(symbols);
+            try (WarReader warReader = new WarReader(coreFile, false)) {
+                List<WarReader.Part> parts = warReader.getParts();
+                if (parts == null) {
+                    String fileName = warReader.nextClass();
+                    while (fileName != null) {
+                        scan.analyze(warReader.readClass());
+                        fileName = warReader.nextClass();
+                    }
+                    return scan;
+                }
+                List<PartTask> tasks = new ArrayList<>();
+                for (WarReader.Part part : parts) {
+                    tasks.add(new PartTask(part, symbols));
+                }
+                invokeAll(tasks);
+                // in the order of the war, as a sequential read
+                for (PartTask task : tasks) {
+                    scan.merge(task.join());
+                }
+            } catch (IOException e) {
+                scan = new ApiScan(symbols);
+                scan.failure = e;
+            } catch (UncheckedIOException e) {
+                scan = new ApiScan(symbols);
+                scan.failure = e.getCause();
+            }
+            return scan;
+        }
+    }
+
+    private static final class PartTask extends RecursiveTask<ApiScan> {
+        private final WarReader.Part part;
+        private final SymbolTable symbols;
+
+        PartTask(WarReader.Part part, SymbolTable symbols) {
+            this.part = part;
+            this.symbols = symbols;
+        }
+
+        @Override
+        protected ApiScan compute() {
+            ApiScan scan = new ApiScan(symbols);
+            try {
+                part.open().forEachClass((fileName, content) -> {
+                    try {
+                        scan.analyze(content.read());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return scan;
+        }
+    }
+
+    /**
+     * Record the methods that are deprecated and public/protected, each task having its own visitor.
+     */
+    private static class CalledClassVisitor extends ClassVisitor {
         private static final int OPCODE_PUBLIC = Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED;
         private static final int OPCODE_DEPRECATED = Opcodes.ACC_DEPRECATED;
 
+        private final ApiScan scan;
+        private final SymbolTable symbols;
         private String currentClass;
 
-        CalledClassVisitor() {
+        CalledClassVisitor(ApiScan scan, SymbolTable symbols) {
             super(Opcodes.ASM9);
+            this.scan = scan;
+            this.symbols = symbols;
         }
 
         private boolean isPublic(int asmAccess) {
@@ -112,21 +333,27 @@ public class DeprecatedApi {
         public void visit(int version, int access, String name, String signature, String superName,
                 String[] interfaces) {
             // log(name + " extends " + superName + " {");
+            indexHierarchy(name, superName, interfaces);
             if (isPublic(access)) {
                 currentClass = name;
                 if (isDeprecated(access)) {
-                    classes.add(name);
+                    scan.classes.add(name);
                 }
             } else {
                 currentClass = null;
             }
         }
 
+        private void indexHierarchy(String name, String superName, String[] interfaces) {
+            // even without supertypes, so that a plugin class of the same name does not win over it
+            scan.superClassAndInterfacesByClass.put(name, DeprecatedUsage.getSuperClassAndInterfaces(superName, interfaces));
+        }
+
         @Override
         public MethodVisitor visitMethod(int access, String name, String desc, String signature,
                 String[] exceptions) {
             if (currentClass != null && isDeprecated(access) && isPublic(access)) {
-                methods.add(getMethodKey(currentClass, name, desc));
+                scan.methods.add(symbols.symbol(symbols.internMethodKey(currentClass, name, desc)));
             }
             return null;
         }
@@ -135,7 +362,7 @@ public class DeprecatedApi {
         public FieldVisitor visitField(int access, String name, String desc, String signature,
                 Object value) {
             if (currentClass != null && isDeprecated(access) && isPublic(access)) {
-                fields.add(getFieldKey(currentClass, name, desc));
+                scan.fields.add(symbols.symbol(symbols.internFieldKey(currentClass, name)));
             }
             return null;
         }
@@ -1,10 +1,14 @@
 package org.jenkinsci.deprecatedusage;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -12,9 +16,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import org.apache.commons.io.IOUtils;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
+import org.jenkinsci.deprecatedusage.search.ClassNameMatcher;
 import org.jenkinsci.deprecatedusage.search.SearchCriteria;
+import org.jenkinsci.deprecatedusage.symbol.IntObjectMap;
+import org.jenkinsci.deprecatedusage.symbol.IntSet;
+import org.jenkinsci.deprecatedusage.symbol.SymbolTable;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Handle;
@@ -23,18 +33,33 @@ import org.objectweb.asm.Opcodes;
 
 //TODO rename to remove the Deprecated as it was generalized over time to look for any calls
 public class DeprecatedUsage {
+    /**
+     * Archives above that size are scanned by several fork/join tasks
+     */
+    private static final long PARALLEL_SCAN_THRESHOLD = 20 * 1024 * 1024;
+    /**
+     * Uncompressed size of the classes below which a task does not split its parts anymore
+     */
+    private static final long SCAN_TASK_SIZE = 4 * 1024 * 1024;
+
     // python-wrapper has wrappers for all extension points and descriptors,
     // they are just wrappers and not real usage
     public static final Set<String> IGNORED_PLUGINS = new HashSet<>(
             Arrays.asList("python-wrapper.hpi"));
 
+    private static final Owner NOT_ANALYZED = new Owner("", false);
+
     private final Plugin plugin;
     private final boolean includePluginLibraries;
     private final SearchCriteria searchCriteria;
+    private final ClassNameMatcher classNameMatcher;
 
-    private final Set<String> classes = new LinkedHashSet<>();
-    private final Set<String> methods = new LinkedHashSet<>();
-    private final Set<String> fields = new LinkedHashSet<>();
+    private final SymbolTable symbols;
+
+    // ids of the SymbolTable
+    private final IntSet classes = new IntSet();
+    private final IntSet methods = new IntSet();
+    private final IntSet fields = new IntSet();
 
     /**
      * Provider = methods we look for
@@ -43,7 +68,7 @@ public class DeprecatedUsage {
      * 
      * For a given provider method, returns the consumers methods that calls it inside their bodies
      */
-    private final Map<String, Set<String>> providerToConsumers = new HashMap<>();
+    private final IntObjectMap<IntSet> providerToConsumers = new IntObjectMap<>();
 
     /**
      * Provider = methods we look for
@@ -52,122 +77,648 @@ public class DeprecatedUsage {
      * 
      * For a given consumer method, returns the provider methods it calls inside its body
      */
-    private final Map<String, Set<String>> consumerToProviders = new HashMap<>();
+    private final IntObjectMap<IntSet> consumerToProviders = new IntObjectMap<>();
 
-    private final ClassVisitor indexerClassVisitor = new IndexerClassVisitor();
-    private final ClassVisitor classVisitor = new CallersClassVisitor();
     private final Map<String, List<String>> superClassAndInterfacesByClass = new HashMap<>();
+    /**
+     * Classes mentioned by the constant pools of the plugin
+     */
+    private final IntSet referencedClasses = new IntSet();
+
+    /**
+     * Hierarchy of the classes of all the archives, for the classes not defined by the plugin
+     */
+    private ClassHierarchy classHierarchy = ClassHierarchy.EMPTY;
+    /**
+     * Classes looked up in the shared hierarchy, with the supertypes found
+     */
+    private final Map<String, List<String>> classHierarchyDependencies = new HashMap<>();
+
+    // calls found by the scan, until they are resolved
+    private Collection<ScanResult.Reference> pendingReferences;
+    private boolean resolved;
+    // all the calls found by the scan, kept for the recursive search
+    private boolean retainReferences;
+    private ReferenceList retainedReferences;
+    // constant strings found by the scan which can be class names, kept for the reference index until it is written
+    private boolean retainConstants;
+    private Collection<String> constants;
+    // the ones read from the reference index, as ids of the SymbolTable, matched again by each replay
+    private IntSet constantIds;
+
+    // used when resolving the references, once the hierarchy is known
+    private final Map<String, Owner> owners = new HashMap<>();
+    private final Map<String, Owner[]> analyzedSupertypesByClass = new HashMap<>();
+
+    private int classCount;
+    private int skippedClassCount;
 
     public DeprecatedUsage(String pluginName, String pluginVersion, SearchCriteria searchCriteria, boolean includePluginLibraries) {
+        this(pluginName, pluginVersion, searchCriteria, includePluginLibraries, SymbolTable.get());
+    }
+
+    /**
+     * @param symbols table of the ids of the usage, the one shared by the whole run for the command line
+     */
+    DeprecatedUsage(String pluginName, String pluginVersion, SearchCriteria searchCriteria, boolean includePluginLibraries,
+                    SymbolTable symbols) {
         super();
         this.plugin = new Plugin(pluginName, pluginVersion);
         this.includePluginLibraries = includePluginLibraries;
         this.searchCriteria = searchCriteria;
+        this.classNameMatcher = ClassNameMatcher.of(searchCriteria);
+        this.symbols = symbols;
     }
 
+    /**
+     * Scans the plugin and resolves the calls with its own classes only
+     */
     public void analyze(File pluginFile) throws IOException {
+        scan(pluginFile);
+        resolve(ClassHierarchy.EMPTY);
+    }
+
+    /**
+     * Keeps all the calls found by the next scan, whatever the criteria, so that they can be resolved again by
+     * {@link #replay(SearchCriteria, ClassHierarchy)} without scanning the plugin again
+     */
+    public void retainReferences() {
+        this.retainReferences = true;
+    }
+
+    /**
+     * Keeps the constant strings found by the next scan, to be written to the reference index, or the ones read by
+     * {@link #readIndexEntry(DataInput)}, to be matched again by {@link #replay(SearchCriteria, ClassHierarchy)}
+     */
+    public void retainConstants() {
+        this.retainConstants = true;
+    }
+
+    /**
+     * Reads the classes of the plugin. The calls found are resolved by {@link #resolve(ClassHierarchy)}, once the
+     * hierarchy of the classes of all the archives is known.
+     */
+    public void scan(File pluginFile) throws IOException {
         if (IGNORED_PLUGINS.contains(pluginFile.getName())) {
             return;
         }
 
+        long fileSize = pluginFile.length();
         if (this.includePluginLibraries) {
-            long fileSize = pluginFile.length();
             if (fileSize > 50 * 1024 * 1024) {
                 System.out.println(pluginFile.getName() + ": " + fileSize / 1024 / 1024 + " MB");
             }
         }
 
-        analyzeWithClassVisitor(pluginFile, indexerClassVisitor);
-        analyzeWithClassVisitor(pluginFile, classVisitor);
+        // a single sweep indexes the hierarchy and collects the references,
+        // the references are resolved afterwards as a call may target a class visited later
+        ScanResult scanResult = scan(pluginFile, fileSize);
+        for (String className : scanResult.classes) {
+            classes.add(symbols.intern(className));
+        }
+        superClassAndInterfacesByClass.putAll(scanResult.superClassAndInterfacesByClass);
+        for (String className : scanResult.referencedClasses) {
+            referencedClasses.add(symbols.intern(className));
+        }
+        classCount += scanResult.classCount;
+        skippedClassCount += scanResult.skippedClassCount;
+        pendingReferences = scanResult.references;
+        if (retainReferences) {
+            retainedReferences = ReferenceList.of(scanResult.references, symbols);
+        }
+        if (retainConstants) {
+            constants = scanResult.constants;
+        }
+    }
+
+    public boolean hasRetainedReferences() {
+        return retainedReferences != null;
+    }
+
+    ReferenceList getRetainedReferences() {
+        return retainedReferences != null ? retainedReferences : ReferenceList.EMPTY;
+    }
+
+    /**
+     * Resolves the calls retained by the scan of this plugin with another criteria, as a scan of the plugin with it
+     * would, and returns the result as a new usage
+     */
+    public DeprecatedUsage replay(SearchCriteria searchCriteria, ClassHierarchy classHierarchy) {
+        DeprecatedUsage replayed = new DeprecatedUsage(plugin.artifactId, plugin.version, searchCriteria, includePluginLibraries,
+                symbols);
+        replayed.superClassAndInterfacesByClass.putAll(superClassAndInterfacesByClass);
+        replayed.referencedClasses.addAll(referencedClasses);
+        replayed.classCount = classCount;
+        replayed.skippedClassCount = skippedClassCount;
+        replayed.retainedReferences = retainedReferences;
+        if (constants != null) {
+            replayed.addClassesOfConstants(constants);
+        }
+        if (constantIds != null) {
+            replayed.addClassesOfConstants(constantIds);
+        }
+        replayed.resolve(classHierarchy);
+        return replayed;
+    }
+
+    /**
+     * Resolves the calls found by {@link #scan(File)}, or the ones left by {@link #resolveLocalReferences()}, the
+     * classes not defined by the plugin being looked up in the given hierarchy
+     */
+    public void resolve(ClassHierarchy classHierarchy) {
+        this.classHierarchy = classHierarchy;
+        if (pendingReferences != null) {
+            resolveReferences(pendingReferences);
+            pendingReferences = null;
+        } else if (retainedReferences != null && !resolved) {
+            // replayed, or read from the reference index
+            retainedReferences.forEach((field, className, name, desc, callerClassName, callerName, callerDesc) -> {
+                if (field) {
+                    fieldCalled(className, name, desc, callerClassName, callerName, callerDesc);
+                } else {
+                    methodCalled(className, name, desc, callerClassName, callerName, callerDesc);
+                }
+            });
+        }
+        owners.clear();
+        analyzedSupertypesByClass.clear();
+        resolved = true;
+    }
+
+    /**
+     * Resolves the calls found by {@link #scan(File)} which only go through classes defined by the plugin, so that
+     * only the ones through a class of another archive are kept until {@link #resolve(ClassHierarchy)} is given the
+     * hierarchy of all of them
+     */
+    public void resolveLocalReferences() {
+        if (pendingReferences == null) {
+            return;
+        }
+        List<ScanResult.Reference> deferredReferences = new ArrayList<>();
+        Map<String, Boolean> dependentClasses = new HashMap<>();
+        for (ScanResult.Reference reference : pendingReferences) {
+            if (dependsOnOtherArchives(reference.className, dependentClasses)) {
+                deferredReferences.add(reference);
+            } else {
+                resolveReference(reference);
+            }
+        }
+        pendingReferences = deferredReferences;
+    }
+
+    /**
+     * Whether {@link #getAnalyzedSupertypes(String)} would look up the class or one of its supertypes in the shared
+     * hierarchy
+     */
+    private boolean dependsOnOtherArchives(String className, Map<String, Boolean> dependentClasses) {
+        Boolean dependent = dependentClasses.get(className);
+        if (dependent != null) {
+            return dependent;
+        }
+        if (!shouldAnalyze(className)) {
+            dependent = false;
+        } else {
+            List<String> superClassAndInterfaces = superClassAndInterfacesByClass.get(className);
+            // an invalid cyclic hierarchy is left to the resolution with the shared one
+            dependentClasses.put(className, true);
+            dependent = superClassAndInterfaces == null;
+            for (int i = 0; !dependent && i < superClassAndInterfaces.size(); i++) {
+                dependent = dependsOnOtherArchives(superClassAndInterfaces.get(i), dependentClasses);
+            }
+        }
+        dependentClasses.put(className, dependent);
+        return dependent;
+    }
+
+    public boolean isResolved() {
+        return resolved;
+    }
+
+    /**
+     * Whether the classes looked up in the shared hierarchy while resolving have the same supertypes in the given one,
+     * in which case resolving again with it would give the same result
+     */
+    public boolean isResolvedWith(ClassHierarchy classHierarchy) {
+        for (Map.Entry<String, List<String>> entry : classHierarchyDependencies.entrySet()) {
+            List<String> superClassAndInterfaces = classHierarchy.getSuperClassAndInterfaces(entry.getKey());
+            if (!entry.getValue().equals(superClassAndInterfaces == null ? Collections.emptyList() : superClassAndInterfaces)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ids of the {@link SymbolTable} of the classes mentioned by the constant pools of the plugin, which include the
+     * owners of all the methods and fields it calls
+     */
+    public IntSet getReferencedClasses() {
+        return referencedClasses;
+    }
+
+    /**
+     * Superclass and interfaces of the classes defined by the plugin, empty for the ones with only java supertypes
+     */
+    public Map<String, List<String>> getSuperClassAndInterfacesByClass() {
+        return superClassAndInterfacesByClass;
+    }
+
+    private void resolveReferences(Collection<ScanResult.Reference> references) {
+        for (ScanResult.Reference reference : references) {
+            resolveReference(reference);
+        }
+    }
+
+    private void resolveReference(ScanResult.Reference reference) {
+        if (reference.field) {
+            fieldCalled(reference.className, reference.name, reference.desc,
+                    reference.callerClassName, reference.callerName, reference.callerDesc);
+        } else {
+            methodCalled(reference.className, reference.name, reference.desc,
+                    reference.callerClassName, reference.callerName, reference.callerDesc);
+        }
     }
 
-    
-    public void analyzeWithClassVisitor(File pluginFile, ClassVisitor aClassVisitor)
-            throws IOException {
+    private ScanResult scan(File pluginFile, long fileSize) throws IOException {
         // recent plugins package their classes as a jar file with the same name as the war file in
         // WEB-INF/lib/ while older plugins were packaging their classes in WEB-INF/classes/
         try (WarReader warReader = new WarReader(pluginFile, !includePluginLibraries)) {
+            List<WarReader.Part> parts = warReader.getParts();
+            if (parts != null) {
+                if (fileSize > PARALLEL_SCAN_THRESHOLD) {
+                    // huge plugins or cores would otherwise set the duration of the whole run
+                    ScanTask task = new ScanTask(pluginFile, parts);
+                    try {
+                        return ForkJoinTask.inForkJoinPool() ? task.invoke() : ForkJoinPool.commonPool().invoke(task);
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                }
+                ScanResult scanResult = new ScanResult();
+                for (WarReader.Part part : parts) {
+                    scanResult.merge(scanCachedPart(pluginFile, part, false));
+                }
+                return scanResult;
+            }
+
+            ScanResult scanResult = new ScanResult();
+            ClassVisitor classVisitor = newClassVisitor(scanResult);
             String fileName = warReader.nextClass();
             while (fileName != null) {
                 try {
-                    @SuppressWarnings("resource") // handled by warReader.nextClass()
-                    InputStream is = warReader.getInputStream();
-                    analyze(is, aClassVisitor);
+                    analyze(warReader.readClass(), classVisitor, scanResult);
                 } catch (Exception e) {
                     System.err.println("Failed to fully analyze " + pluginFile + ".  " + fileName + " not scanned due to " + e.getMessage());
                 }
                 fileName = warReader.nextClass();
             }
+            return scanResult;
         }
     }
 
+    /**
+     * Scans a part, reusing the result of a previous scan of the same nested jar when there is one.
+     * The result may be shared and must not be modified.
+     *
+     * @param split true to split the part in fork/join tasks when it is big
+     */
+    private ScanResult scanCachedPart(File pluginFile, WarReader.Part part, boolean split) throws IOException {
+        LibraryScanCache cache = LibraryScanCache.get();
+        if (part.isOpened() || cache == null) {
+            return scanOpenedPart(pluginFile, part.open(), split);
+        }
+        // the scan keeping all the references does not depend on the criteria for them
+        String key = LibraryScanCache.getKey(part.getDigest(), searchCriteria.getFingerprint()
+                + (retainReferences ? "+references" : "") + (retainConstants ? "+constants" : ""));
+        return cache.get(key, () -> scanOpenedPart(pluginFile, part.open(), split));
+    }
+
+    private ScanResult scanOpenedPart(File pluginFile, WarReader.Part part, boolean split) throws IOException {
+        if (split && part.getSize() > SCAN_TASK_SIZE) {
+            List<WarReader.Part> halves = part.split();
+            if (halves.size() > 1) {
+                return new ScanTask(pluginFile, halves).invoke();
+            }
+        }
+        ScanResult scanResult = new ScanResult();
+        ClassVisitor classVisitor = newClassVisitor(scanResult);
+        part.forEachClass((fileName, content) -> {
+            try {
+                analyze(content.read(), classVisitor, scanResult);
+            } catch (Exception e) {
+                System.err.println("Failed to fully analyze " + pluginFile + ".  " + fileName + " not scanned due to " + e.getMessage());
+            }
+        });
+        return scanResult;
+    }
+
+    /**
+     * Scans parts of an archive, splitting them in subtasks until they are small enough
+     */
+    private class ScanTask extends RecursiveTask<ScanResult> {
+        private final File pluginFile;
+        private final List<WarReader.Part> parts;
+
+        ScanTask(File pluginFile, List<WarReader.Part> parts) {
+            this.pluginFile = pluginFile;
+            this.parts = parts;
+        }
+
+        @Override
+        protected ScanResult compute() {
+            try {
+                if (parts.size() == 1) {
+                    return scanCachedPart(pluginFile, parts.get(0), true);
+                }
+                // results are merged in order into a new one, so that it is the same as a sequential scan
+                // and the results shared by the cache are not modified
+                ScanResult scanResult = new ScanResult();
+                if (parts.stream().mapToLong(WarReader.Part::getSize).sum() <= SCAN_TASK_SIZE) {
+                    for (WarReader.Part part : parts) {
+                        scanResult.merge(scanCachedPart(pluginFile, part, false));
+                    }
+                    return scanResult;
+                }
+                int middle = parts.size() / 2;
+                ScanTask first = new ScanTask(pluginFile, parts.subList(0, middle));
+                ScanTask second = new ScanTask(pluginFile, parts.subList(middle, parts.size()));
+                invokeAll(first, second);
+                scanResult.merge(first.join());
+                scanResult.merge(second.join());
+                return scanResult;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private ClassVisitor newClassVisitor(ScanResult scanResult) {
+        return new IndexerClassVisitor(scanResult, new CallersClassVisitor(scanResult));
+    }
+
     private static final ThreadLocal<char[]> bufs = ThreadLocal.withInitial(() -> new char[99999]);
 
-    private void analyze(InputStream input, ClassVisitor aClassVisitor) throws IOException {
-        byte[] data = IOUtils.toByteArray(input);
+    private void analyze(byte[] data, ClassVisitor aClassVisitor, ScanResult scanResult) {
         final ClassReader classReader = new ClassReader(data);
         char[] buf = bufs.get();
+        // every owner of a method or field instruction is a CONSTANT_Class entry of the pool,
+        // if none of them is to be analyzed, the bytecode cannot contribute anything
+        boolean hasOwnerToAnalyze = false;
         for (int i = 0; i < classReader.getItemCount(); i++) {
             int offset = classReader.getItem(i);
             if (offset == 0) {
                 continue;
             }
             int kind = data[offset - 1];
+            if (kind == 7) {
+                String className = classReader.readUTF8(offset, buf);
+                scanResult.referencedClasses.add(className);
+                if (!hasOwnerToAnalyze && shouldScan(className)) {
+                    hasOwnerToAnalyze = true;
+                }
+                continue;
+            }
             if (kind == 1) {
                 int length = classReader.readUnsignedShort(offset);
-                // Adapted from ClassReader.readUtf, which is private:
-                int currentOffset = offset + 2;
-                int endOffset = currentOffset + length;
-                int strLength = 0;
-                while (currentOffset < endOffset) {
-                    int currentByte = data[currentOffset++];
-                    if ((currentByte & 0x80) == 0) {
-                        buf[strLength++] = (char) (currentByte & 0x7F);
-                    } else if ((currentByte & 0xE0) == 0xC0) {
-                        buf[strLength++] = (char) (((currentByte & 0x1F) << 6) + (data[currentOffset++] & 0x3F));
-                    } else {
-                        buf[strLength++] = (char) (((currentByte & 0xF) << 12) + ((data[currentOffset++] & 0x3F) << 6) + (data[currentOffset++] & 0x3F));
+                int start = offset + 2;
+                int end = start + length;
+                boolean descriptor = length > 2 && data[start] == 'L' && data[end - 1] == ';';
+                if (retainConstants) {
+                    // only the strings which can be class names are indexed, the inner name of a descriptor too
+                    if (ClassNameMatcher.isClassName(data, start, end)) {
+                        scanResult.constants.add(readUtf(data, start, end, buf));
+                    } else if (descriptor && ClassNameMatcher.isClassName(data, start + 1, end - 1)) {
+                        scanResult.constants.add(readUtf(data, start + 1, end - 1, buf));
+                    }
+                }
+                // the String is only decoded when the raw bytes look like a class we are looking for
+                if (classNameMatcher.matches(data, start, end)) {
+                    String s = readUtf(data, start, end, buf);
+                    if (searchCriteria.isLookingForClass(s)) {
+                        scanResult.classes.add(s);
+                        continue;
                     }
                 }
-                String s = new String(buf, 0, strLength);
-                if (searchCriteria.isLookingForClass(s)) {
-                    classes.add(s);
-                } else if (s.length() > 2 && s.charAt(0) == 'L' && s.charAt(s.length() - 1) == ';') {
-                    String name = s.substring(1, s.length() - 1);
+                if (descriptor && classNameMatcher.matches(data, start + 1, end - 1)) {
+                    String name = readUtf(data, start + 1, end - 1, buf);
                     if (searchCriteria.isLookingForClass(name)) {
-                        classes.add(name);
+                        scanResult.classes.add(name);
                     }
                 }
                 continue;
             }
         }
-        classReader.accept(aClassVisitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        if (hasOwnerToAnalyze) {
+            classReader.accept(aClassVisitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        } else {
+            // the hierarchy is still needed to resolve the calls made by other classes
+            indexHierarchy(scanResult, classReader.getClassName(), classReader.getSuperName(), classReader.getInterfaces());
+            scanResult.skippedClassCount++;
+        }
+        scanResult.classCount++;
+    }
+
+    private static String readUtf(byte[] data, int start, int end, char[] buf) {
+        // Adapted from ClassReader.readUtf, which is private:
+        int currentOffset = start;
+        int strLength = 0;
+        while (currentOffset < end) {
+            int currentByte = data[currentOffset++];
+            if ((currentByte & 0x80) == 0) {
+                buf[strLength++] = (char) (currentByte & 0x7F);
+            } else if ((currentByte & 0xE0) == 0xC0) {
+                buf[strLength++] = (char) (((currentByte & 0x1F) << 6) + (data[currentOffset++] & 0x3F));
+            } else {
+                buf[strLength++] = (char) (((currentByte & 0xF) << 12) + ((data[currentOffset++] & 0x3F) << 6) + (data[currentOffset++] & 0x3F));
+            }
+        }
+        return new String(buf, 0, strLength);
+    }
+
+    /**
+     * Writes what the reports use, to be restored by {@link #readFrom(DataInput)}
+     */
+    void writeTo(DataOutput output) throws IOException {
+        output.writeInt(classCount);
+        output.writeInt(skippedClassCount);
+        CacheDirectory.writeStrings(output, symbols.symbols(classes));
+        CacheDirectory.writeStrings(output, symbols.symbols(methods));
+        CacheDirectory.writeStrings(output, symbols.symbols(fields));
+        writeMultimap(output, providerToConsumers);
+        writeMultimap(output, consumerToProviders);
+        writeHierarchy(output, superClassAndInterfacesByClass);
+        writeHierarchy(output, classHierarchyDependencies);
+        CacheDirectory.writeStrings(output, symbols.symbols(referencedClasses));
+    }
+
+    void readFrom(DataInput input) throws IOException {
+        classCount = input.readInt();
+        skippedClassCount = input.readInt();
+        readSymbols(input, classes);
+        readSymbols(input, methods);
+        readSymbols(input, fields);
+        readMultimap(input, providerToConsumers);
+        readMultimap(input, consumerToProviders);
+        readHierarchy(input, superClassAndInterfacesByClass);
+        readHierarchy(input, classHierarchyDependencies);
+        readSymbols(input, referencedClasses);
+        resolved = true;
+    }
+
+    private static void writeHierarchy(DataOutput output, Map<String, List<String>> hierarchy) throws IOException {
+        output.writeInt(hierarchy.size());
+        for (Map.Entry<String, List<String>> entry : hierarchy.entrySet()) {
+            output.writeUTF(entry.getKey());
+            CacheDirectory.writeStrings(output, entry.getValue());
+        }
+    }
+
+    private static void readHierarchy(DataInput input, Map<String, List<String>> hierarchy) throws IOException {
+        int size = input.readInt();
+        for (int i = 0; i < size; i++) {
+            String className = input.readUTF();
+            List<String> superClassAndInterfaces = new ArrayList<>();
+            CacheDirectory.readStrings(input, superClassAndInterfaces);
+            hierarchy.put(className, superClassAndInterfaces.isEmpty() ? Collections.emptyList() : superClassAndInterfaces);
+        }
+    }
+
+    private void writeMultimap(DataOutput output, IntObjectMap<IntSet> map) throws IOException {
+        output.writeInt(map.size());
+        for (int key : map.keySet().toArray()) {
+            output.writeUTF(symbols.symbol(key));
+            CacheDirectory.writeStrings(output, symbols.symbols(map.get(key)));
+        }
+    }
+
+    private void readMultimap(DataInput input, IntObjectMap<IntSet> map) throws IOException {
+        int size = input.readInt();
+        for (int i = 0; i < size; i++) {
+            int key = symbols.intern(input.readUTF());
+            IntSet values = new IntSet();
+            readSymbols(input, values);
+            map.put(key, values);
+        }
+    }
+
+    private void readSymbols(DataInput input, IntSet ids) throws IOException {
+        int size = input.readInt();
+        for (int i = 0; i < size; i++) {
+            ids.add(symbols.intern(input.readUTF()));
+        }
+    }
+
+    /**
+     * Writes what the scan found, whatever the criteria, to be restored by {@link #readIndexEntry(DataInput)} and
+     * resolved with another criteria. The constant strings are dropped afterwards.
+     */
+    void writeIndexEntry(DataOutput output) throws IOException {
+        output.writeInt(classCount);
+        output.writeInt(skippedClassCount);
+        writeHierarchy(output, superClassAndInterfacesByClass);
+        CacheDirectory.writeStrings(output, symbols.symbols(referencedClasses));
+        CacheDirectory.writeStrings(output, constants != null ? constants : Collections.emptySet());
+        getRetainedReferences().writeTo(output);
+        constants = null;
+    }
+
+    /**
+     * Restores a scan written by {@link #writeIndexEntry(DataOutput)}, into a new usage to be resolved with
+     * {@link #resolve(ClassHierarchy)}
+     */
+    void readIndexEntry(DataInput input) throws IOException {
+        classCount = input.readInt();
+        skippedClassCount = input.readInt();
+        readHierarchy(input, superClassAndInterfacesByClass);
+        readSymbols(input, referencedClasses);
+        List<String> constantList = new ArrayList<>();
+        CacheDirectory.readStrings(input, constantList);
+        addClassesOfConstants(constantList);
+        if (retainConstants) {
+            // interned, so that the strings shared by the plugins are only kept once
+            constantIds = new IntSet(constantList.size());
+            for (String constant : constantList) {
+                constantIds.add(symbols.intern(constant));
+            }
+        }
+        retainedReferences = ReferenceList.readFrom(input, symbols);
+    }
+
+    /**
+     * Reads only the hierarchy of an entry written by {@link #writeIndexEntry(DataOutput)}, which comes first
+     */
+    static Map<String, List<String>> readIndexHierarchy(DataInput input) throws IOException {
+        // class counts
+        input.readInt();
+        input.readInt();
+        Map<String, List<String>> hierarchy = new HashMap<>();
+        readHierarchy(input, hierarchy);
+        return hierarchy;
+    }
+
+    private void addClassesOfConstants(Collection<String> constants) {
+        for (String constant : constants) {
+            // same checks as the scan of the constant pool, the descriptors being already unwrapped
+            if (classNameMatcher.matches(constant) && searchCriteria.isLookingForClass(constant)) {
+                classes.add(symbols.intern(constant));
+            }
+        }
+    }
+
+    private void addClassesOfConstants(IntSet constantIds) {
+        constantIds.forEach(id -> {
+            String constant = symbols.symbol(id);
+            if (classNameMatcher.matches(constant) && searchCriteria.isLookingForClass(constant)) {
+                classes.add(id);
+            }
+        });
     }
 
     public Plugin getPlugin() { return plugin; }
 
+    /**
+     * Number of classes read in the plugin
+     */
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * Number of classes for which the bytecode was not visited, as no class referenced in their
+     * constant pool is to be analyzed
+     */
+    public int getSkippedClassCount() {
+        return skippedClassCount;
+    }
+
     public Set<String> getClasses() {
-        return new TreeSet<>(classes);
+        return new TreeSet<>(symbols.symbols(classes));
     }
 
     public Set<String> getMethods() {
-        return new TreeSet<>(methods);
+        return new TreeSet<>(symbols.symbols(methods));
     }
 
     public Set<String> getFields() {
-        return new TreeSet<>(fields);
+        return new TreeSet<>(symbols.symbols(fields));
     }
 
-    public Map<String, Set<String>> getProviderToConsumers() {
+    /**
+     * Ids of the {@link SymbolTable} of the methods or fields found, to the methods calling them
+     */
+    public IntObjectMap<IntSet> getProviderToConsumers() {
         return providerToConsumers;
     }
 
-    public Map<String, Set<String>> getConsumerToProviders() {
+    /**
+     * Ids of the {@link SymbolTable} of the calling methods, to the methods or fields found in their body
+     */
+    public IntObjectMap<IntSet> getConsumerToProviders() {
         return consumerToProviders;
     }
 
-    public Set<String> getNewSignatures() {
-        return new HashSet<>(consumerToProviders.keySet());
+    public IntSet getNewSignatures() {
+        return consumerToProviders.keySet();
     }
 
     public boolean hasDeprecatedUsage() {
@@ -175,32 +726,32 @@ public class DeprecatedUsage {
     }
 
     void methodCalled(String className, String name, String desc, String callerClassName, String callerName, String callerDesc) {
-        if (!shouldAnalyze(className)) {
-            return;
-        }
-
-        String methodKey = DeprecatedApi.getMethodKey(className, name, desc);
-
-        boolean lookingForClass = searchCriteria.isLookingForClass(className);
-        boolean lookingForMethodKey = searchCriteria.isLookingForMethod(methodKey, className, name);
-        if (lookingForClass || lookingForMethodKey) {
-            if (lookingForClass) {
-                classes.add(className);
-            }
-            if (lookingForMethodKey) {
-                methods.add(methodKey);
+        int callerSignature = -1;
+        for (Owner owner : getAnalyzedSupertypes(className)) {
+            if (!owner.lookingForClass && !searchCriteria.mayLookForMethod(owner.className, name, desc)) {
+                continue;
             }
+            // the key is only built when it is not known yet, which is the case of the keys looked for
+            int methodKeyId = symbols.findMethodKey(owner.className, name, desc);
+            String methodKey = methodKeyId >= 0 ? symbols.symbol(methodKeyId) : DeprecatedApi.getMethodKey(owner.className, name, desc);
+
+            boolean lookingForMethodKey = searchCriteria.isLookingForMethod(methodKey, owner.className, name);
+            if (owner.lookingForClass || lookingForMethodKey) {
+                if (methodKeyId < 0) {
+                    methodKeyId = symbols.intern(methodKey);
+                }
+                if (owner.lookingForClass) {
+                    classes.add(owner.getId(symbols));
+                }
+                if (lookingForMethodKey) {
+                    methods.add(methodKeyId);
+                }
+                if (callerSignature < 0) {
+                    callerSignature = symbols.internMethodKey(callerClassName, callerName, callerDesc);
+                }
 
-            String callerSignature = DeprecatedApi.getMethodKey(callerClassName, callerName, callerDesc);
-            
-            providerToConsumers.computeIfAbsent(methodKey, s -> new HashSet<>()).add(callerSignature);
-            consumerToProviders.computeIfAbsent(callerSignature, s -> new HashSet<>()).add(methodKey);
-        }
-
-        final List<String> superClassAndInterfaces = superClassAndInterfacesByClass.get(className);
-        if (superClassAndInterfaces != null) {
-            for (final String superClassOrInterface : superClassAndInterfaces) {
-                methodCalled(superClassOrInterface, name, desc, callerClassName, callerName, callerDesc);
+                providerToConsumers.computeIfAbsent(methodKeyId, k -> new IntSet()).add(callerSignature);
+                consumerToProviders.computeIfAbsent(callerSignature, k -> new IntSet()).add(methodKeyId);
             }
         }
     }
@@ -211,43 +762,120 @@ public class DeprecatedUsage {
      * @see Options
      */
     private boolean shouldAnalyze(String className)  {
-        if (className.endsWith("DefaultTypeTransformation")) {
-            // various DefaultTypeTransformation#box signatures seem false positive in plugins written in Groovy
+        if (isIgnored(className)) {
             return false;
         }
 
         return searchCriteria.shouldAnalyzeClass(className);
     }
 
+    /**
+     * Returns true if the calls to given class are to be kept by the scan
+     */
+    private boolean shouldScan(String className) {
+        return retainReferences ? !isIgnored(className) : shouldAnalyze(className);
+    }
+
+    private static boolean isIgnored(String className) {
+        // various DefaultTypeTransformation#box signatures seem false positive in plugins written in Groovy
+        return className.endsWith("DefaultTypeTransformation");
+    }
+
     void fieldCalled(String className, String name, String desc, String callerClassName, String callerName, String callerDesc) {
-        if (!shouldAnalyze(className)) {
-            return;
-        }
+        int callerSignature = -1;
+        for (Owner owner : getAnalyzedSupertypes(className)) {
+            if (!owner.lookingForClass && !searchCriteria.mayLookForField(owner.className, name)) {
+                continue;
+            }
+            int fieldKeyId = symbols.findFieldKey(owner.className, name);
+            String fieldKey = fieldKeyId >= 0 ? symbols.symbol(fieldKeyId) : DeprecatedApi.getFieldKey(owner.className, name, desc);
 
-        String fieldKey = DeprecatedApi.getFieldKey(className, name, desc);
-        
-        boolean lookingForClass = searchCriteria.isLookingForClass(className);
-        boolean lookingForFieldKey = searchCriteria.isLookingForField(fieldKey, className, name);
-        if (lookingForClass || lookingForFieldKey) {
-            if (lookingForClass) {
-                classes.add(className);
+            boolean lookingForFieldKey = searchCriteria.isLookingForField(fieldKey, owner.className, name);
+            if (owner.lookingForClass || lookingForFieldKey) {
+                if (fieldKeyId < 0) {
+                    fieldKeyId = symbols.intern(fieldKey);
+                }
+                if (owner.lookingForClass) {
+                    classes.add(owner.getId(symbols));
+                }
+                if (lookingForFieldKey) {
+                    fields.add(fieldKeyId);
+                }
+                if (callerSignature < 0) {
+                    callerSignature = symbols.internMethodKey(callerClassName, callerName, callerDesc);
+                }
+
+                // the first pass will be done with fieldKey, but then, they are going to regular recursive method search
+                providerToConsumers.computeIfAbsent(fieldKeyId, k -> new IntSet()).add(callerSignature);
+                consumerToProviders.computeIfAbsent(callerSignature, k -> new IntSet()).add(fieldKeyId);
             }
-            if (lookingForFieldKey) {
-                fields.add(fieldKey);
+        }
+    }
+
+    /**
+     * Returns the class and its supertypes to analyze, without duplicates. A supertype is only included when the
+     * classes between it and the class are to be analyzed too, as a call is not looked for further up otherwise.
+     * <p>
+     * Computed once per class, once the supertypes it depends on are known.
+     */
+    private Owner[] getAnalyzedSupertypes(String className) {
+        Owner[] supertypes = analyzedSupertypesByClass.get(className);
+        if (supertypes != null) {
+            return supertypes;
+        }
+        Owner owner = owners.computeIfAbsent(className,
+                c -> shouldAnalyze(c) ? new Owner(c, searchCriteria.isLookingForClass(c)) : NOT_ANALYZED);
+        if (owner == NOT_ANALYZED) {
+            supertypes = new Owner[0];
+        } else {
+            final List<String> superClassAndInterfaces = lookupSuperClassAndInterfaces(className);
+            if (superClassAndInterfaces == null) {
+                supertypes = new Owner[] {owner};
+            } else {
+                // stops an invalid cyclic hierarchy
+                analyzedSupertypesByClass.put(className, new Owner[] {owner});
+                // same order as a depth first walk, diamonds being visited once
+                Set<Owner> closure = new LinkedHashSet<>();
+                closure.add(owner);
+                for (final String superClassOrInterface : superClassAndInterfaces) {
+                    closure.addAll(Arrays.asList(getAnalyzedSupertypes(superClassOrInterface)));
+                }
+                supertypes = closure.toArray(new Owner[0]);
             }
+        }
+        analyzedSupertypesByClass.put(className, supertypes);
+        return supertypes;
+    }
 
-            String callerSignature = DeprecatedApi.getMethodKey(callerClassName, callerName, callerDesc);
+    private List<String> lookupSuperClassAndInterfaces(String className) {
+        List<String> superClassAndInterfaces = superClassAndInterfacesByClass.get(className);
+        if (superClassAndInterfaces == null) {
+            // not defined by the plugin
+            superClassAndInterfaces = classHierarchy.getSuperClassAndInterfaces(className);
+            classHierarchyDependencies.put(className,
+                    superClassAndInterfaces == null ? Collections.emptyList() : superClassAndInterfaces);
+        }
+        return superClassAndInterfaces;
+    }
+
+    /**
+     * Class owning a method or field called, with the verdicts of the criteria about it
+     */
+    private static final class Owner {
+        final String className;
+        final boolean lookingForClass;
+        private int id = -1;
 
-            // the first pass will be done with fieldKey, but then, they are going to regular recursive method search
-            providerToConsumers.computeIfAbsent(fieldKey, s -> new HashSet<>()).add(callerSignature);
-            consumerToProviders.computeIfAbsent(callerSignature, s -> new HashSet<>()).add(fieldKey);
+        Owner(String className, boolean lookingForClass) {
+            this.className = className;
+            this.lookingForClass = lookingForClass;
         }
 
-        final List<String> superClassAndInterfaces = superClassAndInterfacesByClass.get(className);
-        if (superClassAndInterfaces != null) {
-            for (final String superClassOrInterface : superClassAndInterfaces) {
-                fieldCalled(superClassOrInterface, name, desc, callerClassName, callerName, callerDesc);
+        int getId(SymbolTable symbols) {
+            if (id < 0) {
+                id = symbols.intern(className);
             }
+            return id;
         }
     }
 
@@ -256,35 +884,57 @@ public class DeprecatedUsage {
         return asmClassName.startsWith("java/") || asmClassName.startsWith("javax/");
     }
 
+    private void deferReference(ScanResult scanResult, boolean field, String className, String name, String desc,
+                                String callerClassName, String callerName, String callerDesc) {
+        // methodCalled and fieldCalled stop right away for such classes, so no need to keep them
+        if (shouldScan(className)) {
+            scanResult.references.add(new ScanResult.Reference(field, className, name, desc, callerClassName, callerName, callerDesc));
+        }
+    }
+
+    private static void indexHierarchy(ScanResult scanResult, String name, String superName, String[] interfaces) {
+        // even without supertypes, so that the class is known to be defined by the plugin
+        scanResult.superClassAndInterfacesByClass.put(name, getSuperClassAndInterfaces(superName, interfaces));
+    }
+
+    /**
+     * Returns the superclass and interfaces of a class, without the java ones, or an immutable empty list
+     */
+    static List<String> getSuperClassAndInterfaces(String superName, String[] interfaces) {
+        final List<String> superClassAndInterfaces = new ArrayList<>();
+        // superClass may be null for java.lang.Object and module-info.class
+        // Object would have been filtered but we see lots of module-info classes
+        if (superName != null && !isJavaClass(superName)) {
+            superClassAndInterfaces.add(superName);
+        }
+        if (interfaces != null) {
+            for (final String anInterface : interfaces) {
+                if (!isJavaClass(anInterface)) {
+                    superClassAndInterfaces.add(anInterface);
+                }
+            }
+        }
+        // most classes have none, the empty list is shared
+        return superClassAndInterfaces.isEmpty() ? Collections.emptyList() : superClassAndInterfaces;
+    }
+
     /**
      * Discover the class hierarchy (SuperClass + Interfaces)
      */
-    private class IndexerClassVisitor extends ClassVisitor {
-        IndexerClassVisitor() {
-            super(Opcodes.ASM9);
+    private static class IndexerClassVisitor extends ClassVisitor {
+        private final ScanResult scanResult;
+
+        IndexerClassVisitor(ScanResult scanResult, ClassVisitor classVisitor) {
+            super(Opcodes.ASM9, classVisitor);
+            this.scanResult = scanResult;
         }
 
         @Override
         public void visit(int version, int access, String name, String signature, String superName,
                 String[] interfaces) {
             // log(name + " extends " + superName + " {");
-            
-            final List<String> superClassAndInterfaces = new ArrayList<>();
-            // superClass may be null for java.lang.Object and module-info.class
-            // Object would have been filtered but we see lots of module-info classes
-            if (superName != null && !isJavaClass(superName)) {
-                superClassAndInterfaces.add(superName);
-            }
-            if (interfaces != null) {
-                for (final String anInterface : interfaces) {
-                    if (!isJavaClass(anInterface)) {
-                        superClassAndInterfaces.add(anInterface);
-                    }
-                }
-            }
-            if (!superClassAndInterfaces.isEmpty()) {
-                superClassAndInterfacesByClass.put(name, superClassAndInterfaces);
-            }
+            indexHierarchy(scanResult, name, superName, interfaces);
+            super.visit(version, access, name, signature, superName, interfaces);
         }
     }
 
@@ -292,11 +942,12 @@ public class DeprecatedUsage {
      * ClassVisitor that delegates method visit to CallersMethodVisitor
      */
     private class CallersClassVisitor extends ClassVisitor {
-        //TODO check if ThreadLocal is really required
+        private final ScanResult scanResult;
         private String currentClassName = null;
         
-        CallersClassVisitor() {
+        CallersClassVisitor(ScanResult scanResult) {
             super(Opcodes.ASM9);
+            this.scanResult = scanResult;
         }
 
         @Override 
@@ -309,7 +960,7 @@ public class DeprecatedUsage {
         public MethodVisitor visitMethod(int access, String name, String desc, String signature,
                 String[] exceptions) {
             // asm javadoc says to return a new instance each time
-            return new CallersMethodVisitor(currentClassName, name, desc, signature);
+            return new CallersMethodVisitor(scanResult, currentClassName, name, desc, signature);
         }
     }
 
@@ -317,13 +968,15 @@ public class DeprecatedUsage {
      * Visit every methods and fields
      */
     private class CallersMethodVisitor extends MethodVisitor {
+        final ScanResult scanResult;
         String className;
         String name;
         String desc;
         String signature;
         
-        CallersMethodVisitor(String className, String name, String desc, String signature) {
+        CallersMethodVisitor(ScanResult scanResult, String className, String name, String desc, String signature) {
             super(Opcodes.ASM9);
+            this.scanResult = scanResult;
             this.className = className;
             this.name = name;
             this.desc = desc;
@@ -333,13 +986,13 @@ public class DeprecatedUsage {
         @Deprecated
         @Override
         public void visitMethodInsn(int opcode, String owner, String name, String desc) {
-            methodCalled(owner, name, desc, this.className, this.name, this.desc);
+            deferReference(scanResult, false, owner, name, desc, this.className, this.name, this.desc);
         }
 
         @Override
         public void visitMethodInsn(int opcode, String owner, String name, String desc,
                 boolean itf) {
-            methodCalled(owner, name, desc, this.className, this.name, this.desc);
+            deferReference(scanResult, false, owner, name, desc, this.className, this.name, this.desc);
         }
 
         @Override
@@ -347,14 +1000,14 @@ public class DeprecatedUsage {
                                            Object... bootstrapMethodArguments) {
             if (bootstrapMethodArguments.length > 1 && bootstrapMethodArguments[1] instanceof Handle) {
                 Handle methodArgument = (Handle) bootstrapMethodArguments[1];
-                methodCalled(methodArgument.getOwner(), methodArgument.getName(), methodArgument.getDesc(),
+                deferReference(scanResult, false, methodArgument.getOwner(), methodArgument.getName(), methodArgument.getDesc(),
                         this.className, this.name, this.desc);
             }
         }
 
         @Override
         public void visitFieldInsn(int opcode, String owner, String name, String desc) {
-            fieldCalled(owner, name, desc, this.className, this.name, this.desc);
+            deferReference(scanResult, true, owner, name, desc, this.className, this.name, this.desc);
         }
     }
 }
@@ -8,88 +8,164 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UncheckedIOException;
-import java.net.HttpURLConnection;
-import java.net.SocketException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.DigestException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Downloads the files with an asynchronous HTTP client, so that no thread of the executor waits for the network: the
+ * downloads beyond the maximum wait in a queue rather than on a lock, and a failed download is retried by a timer,
+ * from where it stopped when the server supports ranges.
+ */
 public class Downloader {
+    private static final long RETRY_DELAY_MILLIS = 7500;
+
     private final ExecutorService executor;
-    private final Semaphore concurrentDownloadsPermit;
+    private final int maxConcurrentDownloads;
+    private final long retryDelayMillis;
+    private final HttpClient httpClient = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).build();
+    // downloads waiting for a running one to finish, guarded by itself with the number of running ones
+    private final Deque<Retryable> waiting = new ArrayDeque<>();
+    private int running;
 
     public Downloader(ExecutorService executor, int maxConcurrentDownloads) {
+        this(executor, maxConcurrentDownloads, RETRY_DELAY_MILLIS);
+    }
+
+    Downloader(ExecutorService executor, int maxConcurrentDownloads, long retryDelayMillis) {
         this.executor = executor;
-        concurrentDownloadsPermit = new Semaphore(maxConcurrentDownloads);
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+        this.retryDelayMillis = retryDelayMillis;
     }
 
-    public Collection<JenkinsFile> useExistingFiles(Collection<JenkinsFile> files){
-        final Collection<JenkinsFile> synced = ConcurrentHashMap.newKeySet(files.size());
+    /**
+     * Uses the files already downloaded, without downloading the missing or different ones, the digest of each file
+     * being checked in the executor
+     *
+     * @return per file, in the order of the files, a future completed with whether it is available
+     */
+    public Map<JenkinsFile, CompletableFuture<Boolean>> useExistingFilesEach(Collection<JenkinsFile> files) {
+        Map<JenkinsFile, CompletableFuture<Boolean>> available = new LinkedHashMap<>();
         for (JenkinsFile file : files) {
-            if (file.isFileSynchronized()) {
-                synced.add(file);
-            }
+            available.put(file, CompletableFuture.supplyAsync(file::isFileSynchronized, executor));
         }
-        return synced;
+        return available;
     }
-    
-    public Future<Collection<JenkinsFile>> synchronize(Collection<JenkinsFile> files) {
-        final Collection<JenkinsFile> synced = ConcurrentHashMap.newKeySet(files.size());
-        final CountDownLatch latch = new CountDownLatch(files.size());
-        for (JenkinsFile file : files) {
-            if (file.isFileSynchronized()) {
-                synced.add(file);
-                latch.countDown();
-            } else {
-                Path path = file.getFile().toPath();
-                Path parent = path.getParent();
-                if (Files.notExists(parent)) {
-                    try {
-                        Files.createDirectories(parent);
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
-                    }
+
+    /**
+     * Returns the files once all of them are synchronized or failed, with only the available ones
+     *
+     * @param available per file, whether it is available, as returned by {@link #synchronizeEach(Collection)}
+     */
+    public static CompletableFuture<Collection<JenkinsFile>> getAvailableFiles(
+            Map<JenkinsFile, CompletableFuture<Boolean>> available) {
+        return CompletableFuture.allOf(available.values().toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Collection<JenkinsFile> synced = new ArrayList<>();
+            available.forEach((file, isAvailable) -> {
+                if (isAvailable.join()) {
+                    synced.add(file);
                 }
-                download(file).handle((success, failure) -> {
-                    if (failure != null) {
-                        // do not throw away the message!
-                        StringWriter sw = new StringWriter();
-                        PrintWriter pw = new PrintWriter(sw);
-                        pw.println("failure synching " + file.getName());
-                        pw.println(failure.getMessage());
-                        failure.printStackTrace(pw);
-                        pw.flush();
-                        System.err.println(sw.toString());
-                    } else {
-                        synced.add(file);
-                    }
-                    latch.countDown();
-                    return null;
-                });
-            }
-        }
-        return executor.submit(() -> {
-            latch.await();
+            });
             return synced;
         });
     }
 
+    /**
+     * Starts checking the digest of the files, and downloading the ones missing or different, so that each one can be
+     * used as soon as it is available rather than once all of them are
+     *
+     * @return per file, in the order of the files, a future completed with true once it is available with the expected
+     * digest, or with false when it could not be downloaded, the failure being logged
+     */
+    public Map<JenkinsFile, CompletableFuture<Boolean>> synchronizeEach(Collection<JenkinsFile> files) {
+        Map<JenkinsFile, CompletableFuture<Boolean>> available = new LinkedHashMap<>();
+        for (JenkinsFile file : files) {
+            available.put(file, CompletableFuture.supplyAsync(file::isFileSynchronized, executor)
+                    .thenCompose(synced -> synced ? CompletableFuture.completedFuture(true) : synchronize(file)));
+        }
+        return available;
+    }
+
+    private CompletableFuture<Boolean> synchronize(JenkinsFile file) {
+        CompletableFuture<Void> download;
+        Path parent = file.getFile().toPath().getParent();
+        try {
+            Files.createDirectories(parent);
+            download = download(file);
+        } catch (IOException e) {
+            download = new CompletableFuture<>();
+            download.completeExceptionally(e);
+        }
+        return download.handle((success, failure) -> {
+            if (failure != null) {
+                // do not throw away the message!
+                StringWriter sw = new StringWriter();
+                PrintWriter pw = new PrintWriter(sw);
+                pw.println("failure synching " + file.getName());
+                pw.println(failure.getMessage());
+                failure.printStackTrace(pw);
+                pw.flush();
+                System.err.println(sw.toString());
+                return false;
+            }
+            return true;
+        });
+    }
+
     private CompletableFuture<Void> download(JenkinsFile file) {
         Retryable retryable = new Retryable(file);
-        retryable.run();
+        start(retryable);
         return retryable.result;
     }
 
+    /**
+     * Starts the download, or queues it until a running one finishes
+     */
+    private void start(Retryable retryable) {
+        synchronized (waiting) {
+            if (running >= maxConcurrentDownloads) {
+                waiting.add(retryable);
+                return;
+            }
+            running++;
+        }
+        retryable.run();
+    }
+
+    private void finished() {
+        Retryable next;
+        synchronized (waiting) {
+            next = waiting.poll();
+            if (next == null) {
+                running--;
+                return;
+            }
+        }
+        // not started from the callback of the previous download, which may be completed by this thread
+        executor.execute(next::run);
+    }
+
     private class Retryable implements Runnable {
         private final AtomicInteger retriesRemaining = new AtomicInteger(2);
         private final CompletableFuture<Void> result = new CompletableFuture<>();
@@ -101,75 +177,215 @@ public class Downloader {
 
         @Override
         public void run() {
-            executor.execute(() -> {
-                try {
-                    concurrentDownloadsPermit.acquire();
-                    doRun();
+            CompletableFuture<Long> attempt;
+            try {
+                attempt = attempt();
+            } catch (IOException e) {
+                // the URL cannot be used, there is nothing to retry
+                finished();
+                result.completeExceptionally(e);
+                return;
+            }
+            attempt.whenComplete((fileSize, failure) -> {
+                // the next download does not wait for the backoff
+                finished();
+                if (failure == null) {
+                    System.out.printf("Downloaded %s @ %.2f kiB%n", file.getUrl(), (fileSize / 1024.0));
                     result.complete(null);
-                } catch (IOException | DigestException e) {
-                    result.completeExceptionally(e);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    result.completeExceptionally(e);
-                } finally {
-                    concurrentDownloadsPermit.release();
+                    return;
+                }
+                Throwable cause = unwrap(failure);
+                if (shouldRetryForException(cause) && retriesRemaining.getAndDecrement() > 0) {
+                    System.out.printf("Failed to download %s due to %s, will retry in %d ms%n", file.getUrl(),
+                            StringUtils.isEmpty(cause.getMessage()) ? cause.getClass().getName() : cause.getMessage(),
+                            retryDelayMillis);
+                    CompletableFuture.delayedExecutor(retryDelayMillis, TimeUnit.MILLISECONDS, executor)
+                            .execute(() -> start(this));
+                } else {
+                    result.completeExceptionally(cause);
                 }
             });
         }
 
-        private void doRun() throws IOException, DigestException {
-            URL url = new URL(file.getUrl());
+        /**
+         * @return the size of the file downloaded, once its digest is checked
+         */
+        private CompletableFuture<Long> attempt() throws IOException {
+            URI uri;
             try {
-                URLConnection con = url.openConnection();
-                if (url.getProtocol().equalsIgnoreCase("https") || url.getProtocol().equalsIgnoreCase("http")) {
-                    HttpURLConnection request = (HttpURLConnection) url.openConnection();
-                    int responseCode = request.getResponseCode();
-                    if (responseCode == 502) {
-                        throw new IOException("Flaky Update Center returned HTTP 502");
-                    } else if (responseCode >= 400) {
-                        throw new HttpResponseException(responseCode, request.getResponseMessage());
+                uri = new URI(file.getUrl());
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+            CompletableFuture<Long> download;
+            if ("file".equalsIgnoreCase(uri.getScheme())) {
+                // a local copy, which does not wait for the network
+                download = CompletableFuture.supplyAsync(() -> {
+                    try (InputStream in = uri.toURL().openStream();
+                         OutputStream out = file.getFileOutputStream()) {
+                        return IOUtils.copyLarge(in, out);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
-                } else if (!url.getProtocol().equalsIgnoreCase("file")) {
-                    throw new IOException("Only http(s) and file URLs are supported");
+                }, executor);
+            } else if ("https".equalsIgnoreCase(uri.getScheme()) || "http".equalsIgnoreCase(uri.getScheme())) {
+                // a previous attempt which failed in the middle of the file is resumed
+                download = send(uri, file.getResumableBytes());
+            } else {
+                throw new IOException("Only http(s) and file URLs are supported");
+            }
+            return download.thenApply(fileSize -> {
+                if (!file.isFileMessageDigestValid()) {
+                    throw new CompletionException(new DigestException(
+                            "Downloaded file message digest does not match update center for " + uri));
                 }
-                long fileSize;
-                try (InputStream in = con.getInputStream();
-                     OutputStream out = file.getFileOutputStream()) {
-                    fileSize = IOUtils.copyLarge(in, out);
+                return fileSize;
+            });
+        }
+
+        /**
+         * Requests the file from the offset, with a range request when it is not 0. A server which does not support
+         * ranges sends the whole file, which is written again from the start.
+         *
+         * @return the size of the file
+         */
+        private CompletableFuture<Long> send(URI uri, long offset) {
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri).GET();
+            if (offset > 0) {
+                System.out.printf("Resuming download of %s from %d bytes%n", uri, offset);
+                request.header("Range", "bytes=" + offset + "-");
+            }
+            return httpClient.sendAsync(request.build(), responseInfo -> {
+                int statusCode = responseInfo.statusCode();
+                if (statusCode == 206) {
+                    return offset > 0 && getRangeStart(responseInfo.headers()) == offset
+                            ? new FileSubscriber(file, offset) : HttpResponse.BodySubscribers.replacing(-1L);
                 }
-                if (file.isFileMessageDigestValid()) {
-                    System.out.printf("Downloaded %s @ %.2f kiB%n", file.getUrl(), (fileSize / 1024.0));
-                } else {
-                    throw new DigestException("Downloaded file message digest does not match update center for " + url);
+                return isSuccessful(statusCode) ? new FileSubscriber(file, 0) : HttpResponse.BodySubscribers.replacing(-1L);
+            }).thenCompose(response -> {
+                if (response.body() >= 0) {
+                    return CompletableFuture.completedFuture(response.body());
                 }
-            } catch (IOException ioEx) {
-                if (shouldRetryForException(ioEx) && retriesRemaining.getAndDecrement() > 0) {
-                    try {
-                        System.out.printf("Failed to download %s due to %s, will retry in 750ms%n", StringUtils.isEmpty(ioEx.getMessage()) ? ioEx.getClass().getName() : ioEx.getMessage() , file.getUrl());
-                        Thread.sleep(7500L);
-                    } catch (InterruptedException ex) {
-                        IOException toThrow = new IOException("InterruptedException in sleep backoff", ex);
-                        toThrow.addSuppressed(ioEx);
-                        throw toThrow;
-                    }
-                    doRun();
-                } else {
-                    throw ioEx;
+                if (offset > 0 && (response.statusCode() == 206 || response.statusCode() == 416)) {
+                    // the range sent or the partial file do not match, it is downloaded again from the start
+                    return send(uri, 0);
                 }
+                throw new CompletionException(new HttpResponseException(response.statusCode(), "for " + uri));
+            });
+        }
+
+        /**
+         * Returns the first byte of the range of a partial response, or -1
+         */
+        private long getRangeStart(HttpHeaders headers) {
+            // bytes first-last/length
+            String contentRange = headers.firstValue("Content-Range").orElse("");
+            int dash = contentRange.indexOf('-');
+            if (!contentRange.startsWith("bytes ") || dash < 0) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+            } catch (NumberFormatException e) {
+                return -1;
             }
         }
 
-        private boolean shouldRetryForException(IOException ioEx) {
-            if (ioEx instanceof SocketException) {
-                return true;
+        private boolean isSuccessful(int statusCode) {
+            return statusCode / 100 == 2;
+        }
+
+        private Throwable unwrap(Throwable failure) {
+            while ((failure instanceof CompletionException || failure instanceof UncheckedIOException)
+                    && failure.getCause() != null) {
+                failure = failure.getCause();
             }
-            if ("Premature EOF".equals(ioEx.getMessage())) {
-                return true;
+            return failure;
+        }
+
+        private boolean shouldRetryForException(Throwable failure) {
+            if (failure instanceof HttpResponseException) {
+                // flaky update center
+                return ((HttpResponseException) failure).getStatusCode() == 502;
             }
-            if ("Flaky Update Center returned HTTP 502".equals(ioEx.getMessage())) {
-                return true;
+            // connection reset, refused or closed before the end of the response
+            return failure instanceof IOException && !file.getUrl().startsWith("file:");
+        }
+    }
+
+    /**
+     * Writes the body of a response to the file as it is received, updating its digest
+     */
+    private static final class FileSubscriber implements HttpResponse.BodySubscriber<Long> {
+        private final JenkinsFile file;
+        private final long offset;
+        private final CompletableFuture<Long> body = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+        private OutputStream out;
+        private long size;
+
+        /**
+         * @param offset position in the file of the first byte of the body
+         */
+        FileSubscriber(JenkinsFile file, long offset) {
+            this.file = file;
+            this.offset = offset;
+            this.size = offset;
+        }
+
+        @Override
+        public CompletionStage<Long> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            try {
+                out = file.getFileOutputStream(offset);
+            } catch (IOException e) {
+                subscription.cancel();
+                body.completeExceptionally(e);
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            try {
+                for (ByteBuffer buffer : buffers) {
+                    size += buffer.remaining();
+                    if (buffer.hasArray()) {
+                        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    } else {
+                        byte[] bytes = new byte[buffer.remaining()];
+                        buffer.get(bytes);
+                        out.write(bytes);
+                    }
+                }
+            } catch (IOException e) {
+                subscription.cancel();
+                onError(e);
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            IOUtils.closeQuietly(out);
+            body.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                out.close();
+                body.complete(size);
+            } catch (IOException e) {
+                body.completeExceptionally(e);
             }
-            return false;
         }
     }
 }
@@ -6,7 +6,14 @@ public class HttpResponseException extends IOException {
 
     private static final long serialVersionUID = 1L;
 
+    private final int statusCode;
+
     public HttpResponseException(int statusCode, String responseMessage) {
         super("HTTP " + statusCode + " " + responseMessage);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
     }
 }
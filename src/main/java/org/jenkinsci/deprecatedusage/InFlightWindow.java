@@ -0,0 +1,146 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Runs a task per input on an executor, with at most a number of tasks and an estimated number of bytes in flight,
+ * and hands the results over in completion order.
+ * <p>
+ * Only the tasks which can run are submitted, rather than all of them up front, and a result is consumed as soon as it
+ * is available rather than after the ones of the previous inputs.
+ */
+final class InFlightWindow {
+    private final Executor executor;
+    private final int maxTasks;
+    private final long maxBytes;
+
+    /**
+     * @param maxBytes a task weighing more is still run, alone
+     */
+    InFlightWindow(Executor executor, int maxTasks, long maxBytes) {
+        if (maxTasks < 1) {
+            throw new IllegalArgumentException("At least one task must be in flight: " + maxTasks);
+        }
+        this.executor = executor;
+        this.maxTasks = maxTasks;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Window configured by the options
+     */
+    static InFlightWindow of(Executor executor) {
+        Options options = Options.get();
+        return new InFlightWindow(executor, options.maxTasksInFlight, options.maxMegabytesInFlight * 1024 * 1024);
+    }
+
+    /**
+     * Runs the task for each input, and gives each result to the consumer from the calling thread as soon as it is
+     * available. An input is only read when its task is submitted, so that the consumer may release it from the list.
+     *
+     * @param weight estimated bytes held by the task of an input while it runs
+     * @throws ExecutionException when a task failed, the tasks in flight being left to complete
+     */
+    <I, R> void forEachCompleted(List<I> inputs, ToLongFunction<? super I> weight, Function<? super I, R> task,
+                                 Consumer<R> consumer) throws InterruptedException, ExecutionException {
+        forEachCompleted(inputs, null, weight, task, consumer);
+    }
+
+    /**
+     * Same as {@link #forEachCompleted(List, ToLongFunction, Function, Consumer)}, but the task of an input is only
+     * submitted once the input is available, in the order the inputs become available. An input completing with false
+     * has no task, and is not given to the consumer.
+     *
+     * @param available whether the input can be processed, typically once its file is downloaded
+     * @throws ExecutionException when a task or the availability of an input failed
+     */
+    <I, R> void forEachCompleted(List<I> inputs, Function<? super I, ? extends CompletionStage<Boolean>> available,
+                                 ToLongFunction<? super I> weight, Function<? super I, R> task,
+                                 Consumer<R> consumer) throws InterruptedException, ExecutionException {
+        BlockingQueue<Event<R>> events = new LinkedBlockingQueue<>();
+        Deque<Integer> ready = new ArrayDeque<>(inputs.size());
+        int pending = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            if (available == null) {
+                ready.add(i);
+            } else {
+                int index = i;
+                available.apply(inputs.get(i)).whenComplete((isAvailable, failure) -> events.add(
+                        new Event<>(index, true, Boolean.TRUE.equals(isAvailable), null, failure)));
+                pending++;
+            }
+        }
+
+        long[] weights = new long[inputs.size()];
+        int tasksInFlight = 0;
+        long bytesInFlight = 0;
+        while (pending > 0 || !ready.isEmpty() || tasksInFlight > 0) {
+            while (!ready.isEmpty()) {
+                int index = ready.peek();
+                I input = inputs.get(index);
+                weights[index] = weight.applyAsLong(input);
+                if (tasksInFlight > 0 && (tasksInFlight >= maxTasks || bytesInFlight + weights[index] > maxBytes)) {
+                    break;
+                }
+                ready.remove();
+                CompletableFuture.supplyAsync(() -> task.apply(input), executor)
+                        .whenComplete((result, failure) -> events.add(new Event<>(index, false, false, result, failure)));
+                tasksInFlight++;
+                bytesInFlight += weights[index];
+            }
+
+            Event<R> event = events.take();
+            if (event.failure != null) {
+                throw new ExecutionException(event.failure instanceof CompletionException
+                        && event.failure.getCause() != null ? event.failure.getCause() : event.failure);
+            }
+            if (event.arrival) {
+                pending--;
+                if (event.available) {
+                    ready.add(event.index);
+                }
+                continue;
+            }
+            tasksInFlight--;
+            bytesInFlight -= weights[event.index];
+            consumer.accept(event.index, event.result);
+        }
+    }
+
+    interface Consumer<R> {
+        /**
+         * @param index index of the input of the task
+         */
+        void accept(int index, R result);
+    }
+
+    /**
+     * Input becoming available, or task completing
+     */
+    private static final class Event<R> {
+        private final int index;
+        private final boolean arrival;
+        private final boolean available;
+        private final R result;
+        private final Throwable failure;
+
+        Event(int index, boolean arrival, boolean available, R result, Throwable failure) {
+            this.index = index;
+            this.arrival = arrival;
+            this.available = available;
+            this.result = result;
+            this.failure = failure;
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package org.jenkinsci.deprecatedusage;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -10,7 +12,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.util.Objects;
 
@@ -22,6 +23,8 @@ public class JenkinsFile {
     private Path file;
     private final MessageDigest messageDigest;
     private final byte[] expectedDigest;
+    // bytes of the file written by the current download, and included in the state of the message digest
+    private long downloadedBytes;
 
     public JenkinsFile(String name, String version, String url, String wiki, MessageDigest messageDigest, byte[] expectedDigest) {
         super();
@@ -47,6 +50,16 @@ public class JenkinsFile {
         return wiki;
     }
 
+    /**
+     * Returns the digest published by the update center, prefixed by its algorithm, or null if there is none
+     */
+    public String getExpectedDigest() {
+        if (messageDigest == null) {
+            return null;
+        }
+        return messageDigest.getAlgorithm() + ':' + Hex.encodeHexString(expectedDigest);
+    }
+
     public File getFile() {
         return file.toFile();
     }
@@ -72,6 +85,7 @@ public class JenkinsFile {
         }
         try (InputStream in = Files.newInputStream(file)) {
             messageDigest.reset();
+            downloadedBytes = 0;
             return MessageDigest.isEqual(expectedDigest, DigestUtils.digest(messageDigest, in));
         } catch (IOException ignored) {
             return false;
@@ -79,18 +93,67 @@ public class JenkinsFile {
     }
 
     public OutputStream getFileOutputStream() throws IOException {
-        OutputStream fileStream = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        if (messageDigest != null) {
-            messageDigest.reset();
-            return new DigestOutputStream(fileStream, messageDigest);
+        return getFileOutputStream(0);
+    }
+
+    /**
+     * Opens the file to write its download from an offset, which is either 0 or {@link #getResumableBytes()}, the
+     * message digest going on from the bytes already written
+     */
+    public OutputStream getFileOutputStream(long offset) throws IOException {
+        if (offset == 0) {
+            downloadedBytes = 0;
+            if (messageDigest != null) {
+                messageDigest.reset();
+            }
+            return new DownloadOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+        }
+        if (offset != getResumableBytes()) {
+            throw new IOException("Cannot resume the download of " + file + " from " + offset + " bytes");
+        }
+        return new DownloadOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND));
+    }
+
+    /**
+     * Returns the number of bytes written by a download which did not complete, from which it can be resumed, or 0
+     */
+    public long getResumableBytes() {
+        try {
+            return downloadedBytes > 0 && Files.size(file) == downloadedBytes ? downloadedBytes : 0;
+        } catch (IOException e) {
+            return 0;
         }
-        return fileStream;
     }
 
     public boolean isFileMessageDigestValid() {
+        // the digest is reset, the download cannot be resumed anymore
+        downloadedBytes = 0;
         return messageDigest == null || MessageDigest.isEqual(expectedDigest, messageDigest.digest());
     }
 
+    /**
+     * Updates the message digest with the bytes once they are written to the file, so that both always match
+     */
+    private final class DownloadOutputStream extends FilterOutputStream {
+        DownloadOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (messageDigest != null) {
+                messageDigest.update(b, off, len);
+            }
+            downloadedBytes += len;
+        }
+    }
+
     @Override
     public String toString() {
         return url + " -> " + file.toString();
@@ -0,0 +1,225 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Scan results of the jars bundled in plugins, by content.
+ * <p>
+ * Many plugins bundle the same libraries (commons-*, guava, jackson...), a library being scanned only once for a
+ * given search criteria. The key is the digest of the jar and the fingerprint of the criteria, as the references
+ * which are kept depend on it. When several plugins bundling the same library are scanned at the same time, the
+ * first one scans it and the others wait for its result.
+ * <p>
+ * The results are kept in memory up to their estimated size, the least recently used ones being evicted first, and
+ * optionally stored under work/lib-cache to be reused by the next runs of the same {@link ToolVersion}. The results
+ * returned are shared and must not be modified.
+ */
+class LibraryScanCache {
+    /**
+     * To be incremented when the content of {@link ScanResult} or the way it is computed changes
+     */
+    private static final int FORMAT_VERSION = 5;
+
+    private static LibraryScanCache instance;
+
+    private final long maxSize;
+    private final CacheDirectory directory;
+    private final ConcurrentHashMap<String, Entry> results = new ConcurrentHashMap<>();
+    /**
+     * Results being read or computed, by key
+     */
+    private final ConcurrentHashMap<String, Load> loads = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final Object evictionLock = new Object();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /**
+     * @param maxSize maximum estimated size of the results kept in memory, in bytes
+     */
+    LibraryScanCache(long maxSize, File directory) {
+        this.maxSize = maxSize;
+        this.directory = directory == null ? null : new CacheDirectory(directory, FORMAT_VERSION);
+    }
+
+    /**
+     * Returns the cache configured by the {@link Options}, or null when it is disabled
+     */
+    static synchronized LibraryScanCache get() {
+        Options options = Options.get();
+        if (options.libraryCacheSize <= 0 && !options.persistLibraryCache) {
+            return null;
+        }
+        if (instance == null) {
+            boolean persist = options.persistLibraryCache && ToolVersion.get() != null;
+            if (options.persistLibraryCache && !persist) {
+                System.out.println("Library cache not stored, the classes of the tool cannot be identified");
+            }
+            instance = new LibraryScanCache(Math.max(0, options.libraryCacheSize) * 1024 * 1024,
+                    persist ? new File("work", "lib-cache") : null);
+        }
+        return instance;
+    }
+
+    static String getKey(String jarDigest, String criteriaFingerprint) {
+        return jarDigest + '-' + criteriaFingerprint;
+    }
+
+    /**
+     * Returns the result kept for the given key, or the one stored, or else the one of the scanner which is then
+     * kept. The scanner is only called once at a time for a given key, the other callers waiting for its result.
+     */
+    ScanResult get(String key, Scanner scanner) throws IOException {
+        Entry entry = results.get(key);
+        if (entry != null) {
+            entry.lastAccess = clock.incrementAndGet();
+            hitCount.incrementAndGet();
+            return entry.scanResult;
+        }
+        Load load = new Load();
+        Load current = loads.putIfAbsent(key, load);
+        if (current != null) {
+            // the same thread may come back here for another plugin while waiting for its own subtasks
+            if (current.thread != Thread.currentThread()) {
+                try {
+                    ScanResult scanResult = current.join();
+                    hitCount.incrementAndGet();
+                    return scanResult;
+                } catch (CompletionException | CancellationException e) {
+                    // the library could not be read from the other plugin, it is scanned from this one
+                }
+            }
+            missCount.incrementAndGet();
+            return scanner.scan();
+        }
+        try {
+            ScanResult scanResult;
+            // kept by a load which ended between the lookup and the registration of this one
+            entry = results.get(key);
+            if (entry != null) {
+                hitCount.incrementAndGet();
+                scanResult = entry.scanResult;
+            } else {
+                scanResult = load(key);
+                if (scanResult != null) {
+                    hitCount.incrementAndGet();
+                } else {
+                    missCount.incrementAndGet();
+                    scanResult = scanner.scan();
+                    save(key, scanResult);
+                }
+                store(key, scanResult);
+            }
+            load.complete(scanResult);
+            return scanResult;
+        } catch (Throwable e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    int getHitCount() {
+        return hitCount.get();
+    }
+
+    int getMissCount() {
+        return missCount.get();
+    }
+
+    private ScanResult load(String key) {
+        return directory == null ? null : directory.read(getStoredKey(key), ScanResult::readFrom);
+    }
+
+    private void save(String key, ScanResult scanResult) {
+        if (directory != null) {
+            directory.write(getStoredKey(key), scanResult::writeTo);
+        }
+    }
+
+    private void store(String key, ScanResult scanResult) {
+        long resultSize = scanResult.estimateSize();
+        if (resultSize > maxSize) {
+            return;
+        }
+        Entry previous = results.put(key, new Entry(key, scanResult, resultSize, clock.incrementAndGet()));
+        size.addAndGet(previous == null ? resultSize : resultSize - previous.size);
+        if (size.get() > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Evicts the least recently used results until a quarter of the cache is free, so that it is not done on each
+     * store. The order is approximate, the results used during the eviction may still be evicted.
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            if (size.get() <= maxSize) {
+                return;
+            }
+            List<Entry> entries = new ArrayList<>(results.values());
+            // the access times are copied so that they do not change while being sorted
+            for (Entry entry : entries) {
+                entry.evictionOrder = entry.lastAccess;
+            }
+            entries.sort(Comparator.comparingLong(entry -> entry.evictionOrder));
+            long targetSize = maxSize - maxSize / 4;
+            for (Entry entry : entries) {
+                if (size.get() <= targetSize) {
+                    break;
+                }
+                if (results.remove(entry.key, entry)) {
+                    size.addAndGet(-entry.size);
+                }
+            }
+        }
+    }
+
+    /**
+     * Key of the stored result, which also depends on the code of the tool computing it
+     */
+    private static String getStoredKey(String key) {
+        return DigestUtils.sha256Hex(key + '\n' + ToolVersion.get());
+    }
+
+    interface Scanner {
+        ScanResult scan() throws IOException;
+    }
+
+    private static final class Entry {
+        final String key;
+        final ScanResult scanResult;
+        final long size;
+        volatile long lastAccess;
+        /**
+         * Copy of the access time, only used by the eviction
+         */
+        long evictionOrder;
+
+        Entry(String key, ScanResult scanResult, long size, long lastAccess) {
+            this.key = key;
+            this.scanResult = scanResult;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static final class Load extends CompletableFuture<ScanResult> {
+        final Thread thread = Thread.currentThread();
+    }
+}
@@ -14,6 +14,9 @@ import org.jenkinsci.deprecatedusage.search.DeprecatedApiSearchCriteria;
 import org.jenkinsci.deprecatedusage.search.OptionsBasedSearchCriteria;
 import org.jenkinsci.deprecatedusage.search.RecursiveSearchCriteria;
 import org.jenkinsci.deprecatedusage.search.SearchCriteria;
+import org.jenkinsci.deprecatedusage.symbol.IntObjectMap;
+import org.jenkinsci.deprecatedusage.symbol.IntSet;
+import org.jenkinsci.deprecatedusage.symbol.SymbolTable;
 import org.json.JSONObject;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -21,6 +24,7 @@ import org.kohsuke.args4j.CmdLineParser;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.URL;
@@ -28,21 +32,25 @@ import java.nio.charset.StandardCharsets;
 import java.sql.Array;
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
@@ -51,6 +59,19 @@ import java.util.stream.Collectors;
 import java.util.zip.ZipException;
 
 public class Main {
+    /**
+     * Hierarchy of the classes of all the archives, built by the first analysis and shared by the next levels
+     */
+    private ClassHierarchy classHierarchy;
+    /**
+     * Analysis of the first level, with the calls found kept for the recursive search
+     */
+    private List<Analysis> initialAnalyses;
+    /**
+     * Indexes in {@link #initialAnalyses} of the archives mentioning a class, by id of the class in the
+     * {@link SymbolTable}
+     */
+    private IntObjectMap<IntSet> analysesByReferencedClass;
 
     public static void main(String[] args) throws Exception {
         new Main().doMain(args);
@@ -72,67 +93,41 @@ public class Main {
         }
 
         if (options.verbose) {
-            Logger l = Logger.getLogger("sun.net.www");
-            l.setLevel(Level.ALL);
-            ConsoleHandler h = new ConsoleHandler();
-            h.setLevel(Level.ALL);
-            l.addHandler(h);
+            // the update centers are read with URLConnection, the files downloaded with the HTTP client
+            System.setProperty("jdk.httpclient.HttpClient.log", "errors,requests,headers");
+            for (String loggerName : Arrays.asList("sun.net.www", "jdk.httpclient.HttpClient")) {
+                Logger l = Logger.getLogger(loggerName);
+                l.setLevel(Level.ALL);
+                ConsoleHandler h = new ConsoleHandler();
+                h.setLevel(Level.ALL);
+                l.addHandler(h);
+            }
         }
 
         options.buildCache();
 
+        if (options.queryCallGraphFile != null) {
+            queryCallGraph(options.queryCallGraphFile);
+            return;
+        }
+
         final ExecutorService executor = Executors.newWorkStealingPool();
         final Downloader downloader = new Downloader(executor, options.maxConcurrentDownloads);
         final long start = System.currentTimeMillis();
         try {
-            final DeprecatedApi deprecatedApi = new DeprecatedApi();
-            addClassesToAnalyze(deprecatedApi);
-            List<String> updateCenterURLs = options.getUpdateCenterURLs();
-            CountDownLatch metadataLoaded = new CountDownLatch(updateCenterURLs.size());
-            Set<JenkinsFile> cores = new ConcurrentSkipListSet<>(Comparator.comparing(JenkinsFile::getFile));
-            Set<JenkinsFile> plugins = new ConcurrentSkipListSet<>(Comparator.comparing(JenkinsFile::getFile));
-            for (String updateCenterURL : updateCenterURLs) {
-                URL url = new URL(updateCenterURL);
-                executor.execute(() -> {
-                    System.out.println("Using update center URL: " + updateCenterURL);
-                    try {
-                        String json = IOUtils.toString(url, StandardCharsets.UTF_8).replace("updateCenter.post(", "");
-                        UpdateCenter updateCenter = new UpdateCenter(new JSONObject(json));
-                        if (updateCenter.getCore() != null) {
-                            cores.add(updateCenter.getCore());
-                        }
-                        plugins.addAll(updateCenter.getPlugins().stream().filter(f -> Options.get().shouldScanPlugin(f.getName())).collect(Collectors.toSet()));
-                        metadataLoaded.countDown();
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
-                    }
-                });
+            if (options.queryIndex) {
+                queryIndex(executor);
+                return;
             }
 
-            // wait for async code to finish submitting
-            metadataLoaded.await(10, TimeUnit.SECONDS);
-
-            Collection<JenkinsFile> downloadedCores;
-            if (options.skipDownloads) {
-                System.out.println("Checking core files");
-                downloadedCores = downloader.useExistingFiles(cores);
-            } else {
-                System.out.println("Downloading core files");
-                downloadedCores = downloader.synchronize(cores).get();
+            if (options.servePort != null) {
+                new ScanServer(executor, downloader).serve(options.servePort);
+                return;
             }
 
-            if (!options.onlyIncludeSpecified) {
-                for (JenkinsFile core : downloadedCores) {
-                    try {
-                        System.out.println("Analyzing deprecated APIs in " + core);
-                        deprecatedApi.analyze(core.getFile());
-                        System.out.println("Finished deprecated API analysis in " + core);
-                    } catch (IOException e) {
-                        System.out.println("Error analyzing deprecated APIs in " + core);
-                        System.out.println(e.toString());
-                    }
-                }
-            }
+            Set<JenkinsFile> cores = new ConcurrentSkipListSet<>(Comparator.comparing(JenkinsFile::getFile));
+            Set<JenkinsFile> plugins = new ConcurrentSkipListSet<>(Comparator.comparing(JenkinsFile::getFile));
+            fetchUpdateCenters(executor, cores, plugins);
 
             if (options.limitPluginsFile != null) {
                 int previousSize = plugins.size();
@@ -143,58 +138,73 @@ public class Main {
                 System.out.println("By using a limited scope of plugins, the list of plugins went from " + previousSize + " to " + afterSize);
             }
 
-            Collection<JenkinsFile> downloadedPlugins;
+            // the plugins are downloaded and checked while the deprecated API of the cores is analyzed, and each one
+            // is scanned as soon as both are done
+            Map<JenkinsFile, CompletableFuture<Boolean>> availableCores;
+            Map<JenkinsFile, CompletableFuture<Boolean>> availablePlugins;
             if (options.skipDownloads) {
-                System.out.println("Checking plugin files (out of " + plugins.size() + " total)");
-                downloadedPlugins = downloader.useExistingFiles(plugins);
+                System.out.println("Checking core and plugin files (out of " + plugins.size() + " plugins)");
+                availableCores = downloader.useExistingFilesEach(cores);
+                availablePlugins = downloader.useExistingFilesEach(plugins);
             } else {
-                System.out.println("Downloading plugin files (out of " + plugins.size() + " total)");
-                downloadedPlugins = downloader.synchronize(plugins).get();
+                System.out.println("Downloading core and plugin files (out of " + plugins.size() + " plugins)");
+                availableCores = downloader.synchronizeEach(cores);
+                availablePlugins = downloader.synchronizeEach(plugins);
+            }
+
+            // analyzed by this thread, rather than queued on the executor behind the downloads
+            Collection<JenkinsFile> downloadedCores = Downloader.getAvailableFiles(availableCores).get();
+            final DeprecatedApi deprecatedApi = new DeprecatedApi();
+            if (!options.onlyIncludeSpecified) {
+                analyzeDeprecatedApi(deprecatedApi, downloadedCores);
             }
+            addClassesToAnalyze(deprecatedApi);
 
             System.out.println("Analyzing usage in plugins");
-            SearchCriteria deprecatedAndOptionCriteria = new OptionsBasedSearchCriteria().combineWith(new DeprecatedApiSearchCriteria(deprecatedApi));
+            SearchCriteria deprecatedAndOptionCriteria = new OptionsBasedSearchCriteria().combineWith(new DeprecatedApiSearchCriteria(deprecatedApi)).compile();
             
-            List<DeprecatedUsage> deprecatedUsages;
-            if (options.includeCore) {
-                List<DeprecatedUsage> fromCores = analyzeDeprecatedUsage(downloadedCores, deprecatedAndOptionCriteria, executor, options.includeCoreLibraries);
-                List<DeprecatedUsage> fromPlugins = analyzeDeprecatedUsage(downloadedPlugins, deprecatedAndOptionCriteria, executor, options.includePluginLibraries);
-
-                List<DeprecatedUsage> all = new ArrayList<>(fromPlugins);
-                all.addAll(fromCores);
-                deprecatedUsages = all;
-            } else {
-                deprecatedUsages = analyzeDeprecatedUsage(downloadedPlugins, deprecatedAndOptionCriteria, executor, options.includePluginLibraries);
-            }
+            Collection<JenkinsFile> analyzedCores = options.includeCore ? downloadedCores : Collections.emptyList();
+            List<Report> usageReports = createUsageReports(deprecatedApi);
+            List<DeprecatedUsage> deprecatedUsages = analyzeDeprecatedUsage(analyzedCores, availablePlugins,
+                    deprecatedAndOptionCriteria, executor, deprecatedApi, usageReports);
             
             System.out.println("Initial analysis done");
-            List<Report> reports = new ArrayList<>();
-            reports.add(new DeprecatedUsageByPluginReport(deprecatedApi, deprecatedUsages, new File("output"), "usage-by-plugin"));
-            reports.add(new DeprecatedUnusedApiReport(deprecatedApi, deprecatedUsages, new File("output"), "deprecated-and-unused"));
-            reports.add(new DeprecatedUsageByApiReport(deprecatedApi, deprecatedUsages, new File("output"), "usage-by-api"));
-
-            for (Report report : reports) {
-                report.generateJsonReport();
-                report.generateHtmlReport();
+            if (options.writeCallGraphFile != null) {
+                writeCallGraph(options.writeCallGraphFile);
+            }
+            if (options.writeIndex) {
+                writeIndexManifest(deprecatedApi, analyzedCores);
+            }
+            for (Report report : usageReports) {
+                report.finish();
             }
 
             if (options.recursive) {
                 System.out.println("Entering recursive mode");
-                reports = new ArrayList<>();
+                List<Report> reports = new ArrayList<>();
                 LevelReportStorage levelReportStorage = new LevelReportStorage();
 
+                indexReferencedClasses();
                 loopForRecursiveSearch(deprecatedUsages, levelReportStorage, newMethodsFound -> {
                     RecursiveSearchCriteria recursiveSearchCriteria = new RecursiveSearchCriteria(newMethodsFound);
-                    if (options.includeCore) {
-                        List<DeprecatedUsage> fromCores = analyzeDeprecatedUsage(downloadedCores, recursiveSearchCriteria, executor, options.includeCoreLibraries);
-                        List<DeprecatedUsage> fromPlugins = analyzeDeprecatedUsage(downloadedPlugins, recursiveSearchCriteria, executor, options.includePluginLibraries);
-
-                        List<DeprecatedUsage> all = new ArrayList<>(fromPlugins);
-                        all.addAll(fromCores);
-                        return all;
-                    } else {
-                        return analyzeDeprecatedUsage(downloadedPlugins, recursiveSearchCriteria, executor, options.includePluginLibraries);
+                    // a plugin can only call the new methods if its constant pools mention one of their classes
+                    List<Analysis> candidates = selectAnalyses(recursiveSearchCriteria.getRelatedClasses());
+                    System.out.println("Searching in " + candidates.size() + " archives out of " + initialAnalyses.size());
+                    SearchCriteria compiledCriteria = recursiveSearchCriteria.compile();
+                    if (options.recursiveRescan) {
+                        List<JenkinsFile> candidateCores = new ArrayList<>();
+                        Map<JenkinsFile, CompletableFuture<Boolean>> candidatePlugins = new LinkedHashMap<>();
+                        for (Analysis candidate : candidates) {
+                            if (analyzedCores.contains(candidate.file)) {
+                                candidateCores.add(candidate.file);
+                            } else {
+                                candidatePlugins.put(candidate.file, CompletableFuture.completedFuture(true));
+                            }
+                        }
+                        return analyzeDeprecatedUsage(candidateCores, candidatePlugins, compiledCriteria, executor,
+                                deprecatedApi, Collections.emptyList());
                     }
+                    return replayDeprecatedUsage(candidates, compiledCriteria, executor);
                 });
 
                 reports.add(new RecursiveUsageByPluginByLevelReport(levelReportStorage, new File("output"), "recursive-usage-plugin-level"));
@@ -203,8 +213,7 @@ public class Main {
                 reports.add(new RecursiveUsageByPluginFlatReducedReport(levelReportStorage, new File("output"), "recursive-usage-flat-reduced"));
 
                 for (Report report : reports) {
-                    report.generateJsonReport();
-                    report.generateHtmlReport();
+                    report.finish();
                 }
             }
 
@@ -215,6 +224,58 @@ public class Main {
         }
     }
 
+    /**
+     * Adds the cores and the plugins to scan published by the update centers
+     */
+    static void fetchUpdateCenters(Executor executor, Set<JenkinsFile> cores, Set<JenkinsFile> plugins)
+            throws IOException, InterruptedException {
+        List<CompletableFuture<Void>> metadataLoaded = new ArrayList<>();
+        for (String updateCenterURL : Options.get().getUpdateCenterURLs()) {
+            URL url = new URL(updateCenterURL);
+            metadataLoaded.add(CompletableFuture.runAsync(() -> {
+                System.out.println("Using update center URL: " + updateCenterURL);
+                try {
+                    String json = IOUtils.toString(url, StandardCharsets.UTF_8).replace("updateCenter.post(", "");
+                    UpdateCenter updateCenter = new UpdateCenter(new JSONObject(json));
+                    if (updateCenter.getCore() != null) {
+                        cores.add(updateCenter.getCore());
+                    }
+                    plugins.addAll(updateCenter.getPlugins().stream().filter(f -> Options.get().shouldScanPlugin(f.getName())).collect(Collectors.toSet()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+
+        // every update center is waited for, an unreachable one failing the run rather than being left out
+        for (int i = 0; i < metadataLoaded.size(); i++) {
+            try {
+                metadataLoaded.get(i).get();
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to load the update center " + Options.get().getUpdateCenterURLs().get(i),
+                        e.getCause());
+            }
+        }
+    }
+
+    static void analyzeDeprecatedApi(DeprecatedApi deprecatedApi, Collection<JenkinsFile> cores) {
+        List<File> coreFiles = new ArrayList<>();
+        for (JenkinsFile core : cores) {
+            System.out.println("Analyzing deprecated APIs in " + core);
+            coreFiles.add(core.getFile());
+        }
+        Map<File, IOException> failures = deprecatedApi.analyze(coreFiles);
+        for (JenkinsFile core : cores) {
+            IOException failure = failures.get(core.getFile());
+            if (failure != null) {
+                System.out.println("Error analyzing deprecated APIs in " + core);
+                System.out.println(failure.toString());
+            } else {
+                System.out.println("Finished deprecated API analysis in " + core);
+            }
+        }
+    }
+
     /**
      * Not a recursion itself to prevent memory issue
      */
@@ -222,7 +283,7 @@ public class Main {
         int level = 1;
 
         List<DeprecatedUsage> currUsages = previousUsages;
-        Set<String> allMethodKeys = new HashSet<>();
+        IntSet allMethodKeys = new IntSet();
 
         boolean running = true;
         while (running) {
@@ -254,15 +315,16 @@ public class Main {
         }
     }
 
-    private Set<String> computeNewMethodKeys(List<DeprecatedUsage> previousUsages, Set<String> allMethodKeys) {
-        Set<String> methodsFound = new HashSet<>();
+    private Set<String> computeNewMethodKeys(List<DeprecatedUsage> previousUsages, IntSet allMethodKeys) {
+        SymbolTable symbols = SymbolTable.get();
+        Set<String> newMethodsFound = new HashSet<>();
         for (DeprecatedUsage recursiveUsage : previousUsages) {
-            methodsFound.addAll(recursiveUsage.getNewSignatures());
+            recursiveUsage.getNewSignatures().forEach(methodKey -> {
+                if (allMethodKeys.add(methodKey)) {
+                    newMethodsFound.add(symbols.symbol(methodKey));
+                }
+            });
         }
-
-        Set<String> newMethodsFound = methodsFound.stream().filter(s -> !allMethodKeys.contains(s)).collect(Collectors.toSet());
-        allMethodKeys.addAll(newMethodsFound);
-        
         return newMethodsFound;
     }
 
@@ -270,57 +332,493 @@ public class Main {
      * Adds hardcoded classes to analyze for usage. This is mostly designed for finding classes planned for deprecation,
      * but can be also used to find any class usage.
      */
-    private static void addClassesToAnalyze(DeprecatedApi deprecatedApi) {
+    static void addClassesToAnalyze(DeprecatedApi deprecatedApi) {
         if (Options.get().additionalClassesFile != null) {
             deprecatedApi.addClasses(Options.getAdditionalClasses());
         }
     }
 
-    private static List<DeprecatedUsage> analyzeDeprecatedUsage(Collection<JenkinsFile> plugins, SearchCriteria searchCriteria,
-                                                                Executor executor, boolean scanPluginLibs) {
-        List<CompletableFuture<DeprecatedUsage>> futures = new ArrayList<>();
-        for (JenkinsFile plugin : plugins) {
-            futures.add(CompletableFuture.supplyAsync(() -> {
-                DeprecatedUsage deprecatedUsage = new DeprecatedUsage(plugin.getName(), plugin.getVersion(), searchCriteria, scanPluginLibs);
-                try {
-                    deprecatedUsage.analyze(plugin.getFile());
-                } catch (final EOFException | ZipException | FileNotFoundException e) {
-                    System.out.println("deleting " + plugin + " and skipping, because " + e.toString());
-                    try {
-                        plugin.deleteFile();
-                    } catch (IOException ioException) {
-                        ioException.printStackTrace();
+    /**
+     * Returns the reports of the first level, to be given the usage of each archive as its analysis is done
+     */
+    static List<Report> createUsageReports(DeprecatedApi deprecatedApi) {
+        List<Report> reports = new ArrayList<>();
+        reports.add(new DeprecatedUsageByPluginReport(deprecatedApi, new File("output"), "usage-by-plugin"));
+        reports.add(new DeprecatedUnusedApiReport(deprecatedApi, new File("output"), "deprecated-and-unused"));
+        reports.add(new DeprecatedUsageByApiReport(deprecatedApi, new File("output"), "usage-by-api"));
+        return reports;
+    }
+
+    /**
+     * Scans the archives as soon as they are available, then resolves the calls found with the hierarchy of the classes
+     * of all of them. Only the calls through a class defined by another archive are kept until the hierarchy is
+     * complete. The usage of each archive is given to the reports as soon as it is resolved, then released unless the
+     * recursive mode needs it.
+     *
+     * @param plugins per plugin, whether its file is available, each one being scanned as soon as it is
+     * @return the usages of the plugins, followed by the ones of the cores, in recursive mode only
+     */
+    private List<DeprecatedUsage> analyzeDeprecatedUsage(Collection<JenkinsFile> cores,
+                                                         Map<JenkinsFile, ? extends CompletionStage<Boolean>> plugins,
+                                                         SearchCriteria searchCriteria, Executor executor,
+                                                         DeprecatedApi deprecatedApi, List<? extends UsageReport> reports) {
+        Options options = Options.get();
+        UsageCache usageCache = UsageCache.get();
+        List<Analysis> analyses = new ArrayList<>();
+        plugins.forEach((plugin, available) ->
+                analyses.add(new Analysis(plugin, searchCriteria, options.includePluginLibraries, available)));
+        for (JenkinsFile core : cores) {
+            analyses.add(new Analysis(core, searchCriteria, options.includeCoreLibraries,
+                    CompletableFuture.completedFuture(true)));
+        }
+        if (initialAnalyses == null && (options.recursive || options.writeCallGraphFile != null || options.writeIndex)) {
+            if (!options.recursiveRescan || options.writeCallGraphFile != null || options.writeIndex) {
+                analyses.forEach(analysis -> analysis.retainReferences = true);
+            }
+            if (options.writeIndex) {
+                ReferenceIndex referenceIndex = ReferenceIndex.get();
+                analyses.forEach(analysis -> analysis.referenceIndex = referenceIndex);
+            }
+            initialAnalyses = analyses;
+        }
+
+        InFlightWindow window = InFlightWindow.of(executor);
+        int[] scanned = {0};
+        try {
+            window.forEachCompleted(analyses, analysis -> analysis.available, Analysis::getFileSize, analysis -> {
+                analysis.scan(usageCache);
+                return analysis;
+            }, (index, analysis) -> {
+                int i = ++scanned[0];
+                if (i % 10 == 0) {
+                    System.out.print(".");
+                }
+                if (i % 100 == 0) {
+                    System.out.print(" ");
+                }
+                if (i % 500 == 0) {
+                    System.out.print("\n");
+                }
+            });
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.println();
+        // the plugins which could not be downloaded were not scanned
+        analyses.removeIf(analysis -> analysis.deprecatedUsage == null);
+
+        if (classHierarchy == null) {
+            // built once, with the first scan of the archives
+            ClassHierarchy.Builder builder = new ClassHierarchy.Builder();
+            builder.addAll(deprecatedApi.getSuperClassAndInterfacesByClass());
+            // cores first, so that their classes win over the copies bundled in plugins
+            for (int j = analyses.size() - cores.size(); j < analyses.size(); j++) {
+                builder.addAll(analyses.get(j).deprecatedUsage.getSuperClassAndInterfacesByClass());
+            }
+            for (int j = 0; j < analyses.size() - cores.size(); j++) {
+                builder.addAll(analyses.get(j).deprecatedUsage.getSuperClassAndInterfacesByClass());
+            }
+            classHierarchy = builder.build();
+            System.out.println("Class hierarchy indexed for " + classHierarchy.size() + " classes");
+        }
+
+        // in the order of the archives, for the next levels
+        DeprecatedUsage[] deprecatedUsages = new DeprecatedUsage[options.recursive ? analyses.size() : 0];
+        // the first analyses are kept for the next levels and the call graph
+        boolean release = analyses != initialAnalyses;
+        long[] counts = new long[2];
+        try {
+            window.forEachCompleted(analyses, Analysis::getFileSize, analysis -> {
+                analysis.resolve(classHierarchy, usageCache);
+                return analysis.deprecatedUsage;
+            }, (index, deprecatedUsage) -> {
+                for (UsageReport report : reports) {
+                    report.add(deprecatedUsage);
+                }
+                counts[0] += deprecatedUsage.getClassCount();
+                counts[1] += deprecatedUsage.getSkippedClassCount();
+                if (options.recursive) {
+                    deprecatedUsages[index] = deprecatedUsage;
+                }
+                if (release) {
+                    analyses.set(index, null);
+                }
+            });
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        long classCount = counts[0];
+        long skippedClassCount = counts[1];
+
+        System.out.println("Bytecode analysis skipped for " + skippedClassCount + " classes out of " + classCount
+                + ", as they do not reference any class to analyze");
+        LibraryScanCache libraryScanCache = LibraryScanCache.get();
+        if (libraryScanCache != null) {
+            System.out.println("Bundled libraries scan cache: " + libraryScanCache.getHitCount() + " hits, "
+                    + libraryScanCache.getMissCount() + " misses");
+        }
+        if (usageCache != null) {
+            System.out.println("Plugin analysis cache: " + usageCache.getHitCount() + " hits, "
+                    + usageCache.getMissCount() + " misses");
+        }
+        return Arrays.asList(deprecatedUsages);
+    }
+
+    private void writeCallGraph(File file) throws IOException {
+        List<DeprecatedUsage> usages = new ArrayList<>();
+        for (Analysis analysis : initialAnalyses) {
+            usages.add(analysis.getReferencesUsage());
+        }
+        CallGraphFile.write(file, usages, classHierarchy);
+        System.out.println("Call graph written to " + file);
+    }
+
+    /**
+     * Finds the methods calling the additional methods and fields, directly or not, and writes them by level to
+     * output/call-graph-callers.json
+     */
+    private static void queryCallGraph(File file) throws IOException {
+        Options options = Options.get();
+        CallGraphFile callGraph = CallGraphFile.open(file);
+        System.out.println("Call graph " + file + " loaded, with " + callGraph.size() + " symbols");
+
+        IntSet providers = new IntSet();
+        if (options.additionalMethodsFile != null) {
+            Options.getAdditionalMethodNames().forEach((className, methodNames) -> {
+                for (String subtype : callGraph.getSubtypes(className)) {
+                    for (String methodName : methodNames) {
+                        providers.addAll(callGraph.findByPrefix(subtype + '#' + methodName + '('));
                     }
-                } catch (final Exception e) {
-                    System.out.println(e.toString() + " on " + plugin.getFile().getName());
-                    e.printStackTrace();
                 }
-                return deprecatedUsage;
-            }, executor));
+            });
+        }
+        if (options.additionalFieldsFile != null) {
+            Options.getAdditionalFields().forEach((className, fieldNames) -> {
+                for (String subtype : callGraph.getSubtypes(className)) {
+                    for (String fieldName : fieldNames) {
+                        int index = callGraph.find(DeprecatedApi.getFieldKey(subtype, fieldName, ""));
+                        if (index >= 0) {
+                            providers.add(index);
+                        }
+                    }
+                }
+            });
+        }
+        System.out.println("Methods and fields to look for: " + providers.size());
+
+        JSONObject callers = new JSONObject();
+        List<IntSet> levels = callGraph.findCallersByLevel(providers, options.recursiveMaxDepth);
+        for (int level = 1; level <= levels.size(); level++) {
+            IntSet consumers = levels.get(level - 1);
+            System.out.println("Level " + level + ", new methods found = " + consumers.size());
+            for (int consumer : consumers.toArray()) {
+                Set<String> plugins = new TreeSet<>();
+                callGraph.forEachPlugin(consumer, plugin -> plugins.add(callGraph.symbol(plugin)));
+                callers.put(callGraph.symbol(consumer), new JSONObject().put("level", level).put("plugins", plugins));
+            }
         }
 
-        final List<DeprecatedUsage> deprecatedUsages = new ArrayList<>();
-        int i = 0;
-        for (final Future<DeprecatedUsage> future : futures) {
-            final DeprecatedUsage deprecatedUsage;
+        File outputDir = new File("output");
+        outputDir.mkdirs();
+        File outputFile = new File(outputDir, "call-graph-callers.json");
+        System.out.println("Writing " + outputFile);
+        try (FileWriter writer = new FileWriter(outputFile)) {
+            callers.write(writer);
+        }
+    }
+
+    /**
+     * Lists the archives of the first analysis recorded in the reference index, with the deprecated API of the cores
+     */
+    private void writeIndexManifest(DeprecatedApi deprecatedApi, Collection<JenkinsFile> cores) {
+        List<ReferenceIndex.Entry> entries = new ArrayList<>();
+        for (Analysis analysis : initialAnalyses) {
+            if (analysis.isIndexed()) {
+                entries.add(new ReferenceIndex.Entry(analysis.file.getName(), analysis.file.getVersion(),
+                        cores.contains(analysis.file), analysis.includeLibraries, analysis.indexKey));
+            }
+        }
+        ReferenceIndex.get().writeManifest(deprecatedApi, entries);
+        System.out.println("Reference index written for " + entries.size() + " archives");
+    }
+
+    /**
+     * Writes the usage reports for the current criteria from the reference index, instead of reading the archives
+     */
+    private void queryIndex(Executor executor) throws IOException {
+        Options options = Options.get();
+        ReferenceIndex referenceIndex = ReferenceIndex.get();
+        DeprecatedApi deprecatedApi = new DeprecatedApi();
+        List<ReferenceIndex.Entry> entries = referenceIndex.readManifest(
+                options.onlyIncludeSpecified ? new DeprecatedApi() : deprecatedApi);
+        addClassesToAnalyze(deprecatedApi);
+        SearchCriteria searchCriteria = new OptionsBasedSearchCriteria().combineWith(new DeprecatedApiSearchCriteria(deprecatedApi)).compile();
+
+        Set<String> limitedScopeOfPlugins = options.limitPluginsFile != null ? Options.getLimitedScopeOfPlugins() : null;
+        List<ReferenceIndex.Entry> plugins = new ArrayList<>();
+        List<ReferenceIndex.Entry> cores = new ArrayList<>();
+        for (ReferenceIndex.Entry entry : entries) {
+            if (entry.core) {
+                if (options.includeCore) {
+                    cores.add(entry);
+                }
+            } else if (options.shouldScanPlugin(entry.name)
+                    && (limitedScopeOfPlugins == null || limitedScopeOfPlugins.contains(entry.name))) {
+                plugins.add(entry);
+            }
+        }
+        System.out.println("Loading " + plugins.size() + " plugins and " + cores.size() + " cores from the reference index");
+
+        // plugins first, then cores, as by the analysis of the archives
+        List<ReferenceIndex.Entry> selected = new ArrayList<>(plugins);
+        selected.addAll(cores);
+        // the hierarchies come first in the entries, they are read before the rest so that each entry is resolved as
+        // soon as it is read
+        List<CompletableFuture<Map<String, List<String>>>> futures = new ArrayList<>();
+        for (ReferenceIndex.Entry entry : selected) {
+            futures.add(CompletableFuture.supplyAsync(() -> referenceIndex.readHierarchy(entry.key), executor));
+        }
+        List<Map<String, List<String>>> hierarchies = new ArrayList<>();
+        for (Future<Map<String, List<String>>> future : futures) {
             try {
-                deprecatedUsage = future.get();
+                Map<String, List<String>> hierarchy = future.get();
+                hierarchies.add(hierarchy != null ? hierarchy : Collections.emptyMap());
             } catch (InterruptedException | ExecutionException e) {
                 throw new RuntimeException(e);
             }
-            deprecatedUsages.add(deprecatedUsage);
-            i++;
-            if (i % 10 == 0) {
-                System.out.print(".");
+        }
+
+        ClassHierarchy.Builder builder = new ClassHierarchy.Builder();
+        builder.addAll(deprecatedApi.getSuperClassAndInterfacesByClass());
+        for (int i = plugins.size(); i < hierarchies.size(); i++) {
+            builder.addAll(hierarchies.get(i));
+        }
+        for (int i = 0; i < plugins.size(); i++) {
+            builder.addAll(hierarchies.get(i));
+        }
+        classHierarchy = builder.build();
+        System.out.println("Class hierarchy indexed for " + classHierarchy.size() + " classes");
+
+        List<Report> reports = createUsageReports(deprecatedApi);
+        try {
+            // the size of the archives is not known, only the number of entries in flight is bounded
+            InFlightWindow.of(executor).forEachCompleted(selected, entry -> 0, entry -> {
+                DeprecatedUsage deprecatedUsage = new DeprecatedUsage(entry.name, entry.version, searchCriteria, entry.includeLibraries);
+                if (!referenceIndex.read(entry.key, deprecatedUsage)) {
+                    System.out.println("Missing reference index entry for " + entry.name + " " + entry.version + ", skipping");
+                }
+                deprecatedUsage.resolve(classHierarchy);
+                return deprecatedUsage;
+            }, (index, deprecatedUsage) -> {
+                for (Report report : reports) {
+                    report.add(deprecatedUsage);
+                }
+            });
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        for (Report report : reports) {
+            report.finish();
+        }
+    }
+
+    private void indexReferencedClasses() {
+        analysesByReferencedClass = new IntObjectMap<>();
+        for (int i = 0; i < initialAnalyses.size(); i++) {
+            int index = i;
+            initialAnalyses.get(i).deprecatedUsage.getReferencedClasses().forEach(
+                    classId -> analysesByReferencedClass.computeIfAbsent(classId, k -> new IntSet()).add(index));
+        }
+    }
+
+    /**
+     * Returns the first analyses of the archives mentioning one of the classes, in their initial order
+     */
+    private List<Analysis> selectAnalyses(Set<String> classNames) {
+        SymbolTable symbols = SymbolTable.get();
+        IntSet selected = new IntSet();
+        for (String className : classNames) {
+            // a class no archive mentions was never interned
+            int id = symbols.find(className);
+            IntSet analyses = id >= 0 ? analysesByReferencedClass.get(id) : null;
+            if (analyses != null) {
+                selected.addAll(analyses);
+            }
+        }
+        int[] indexes = selected.toArray();
+        Arrays.sort(indexes);
+        List<Analysis> analyses = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            analyses.add(initialAnalyses.get(index));
+        }
+        return analyses;
+    }
+
+    /**
+     * Resolves again the calls found by the first analysis, with the criteria of a recursive level
+     *
+     * @return the usages of the plugins, followed by the ones of the cores
+     */
+    private List<DeprecatedUsage> replayDeprecatedUsage(List<Analysis> analyses, SearchCriteria searchCriteria, Executor executor) {
+        DeprecatedUsage[] deprecatedUsages = new DeprecatedUsage[analyses.size()];
+        try {
+            InFlightWindow.of(executor).forEachCompleted(analyses, Analysis::getFileSize,
+                    analysis -> analysis.replay(searchCriteria, classHierarchy),
+                    (index, deprecatedUsage) -> deprecatedUsages[index] = deprecatedUsage);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.asList(deprecatedUsages);
+    }
+
+    /**
+     * Analysis of a core or plugin file, in two steps: scan then resolve
+     */
+    private static final class Analysis {
+        private final JenkinsFile file;
+        private final SearchCriteria searchCriteria;
+        private final boolean includeLibraries;
+        private final CompletionStage<Boolean> available;
+        private String cacheKey;
+        private DeprecatedUsage deprecatedUsage;
+        private boolean scanComplete;
+        private boolean retainReferences;
+        private boolean loadedFromCache;
+        // set when the archive is to be recorded in the reference index
+        private ReferenceIndex referenceIndex;
+        private String indexKey;
+        private boolean indexed;
+        // usage with the calls found, when the analysis was loaded from the cache without them
+        private DeprecatedUsage referencesUsage;
+
+        /**
+         * @param available whether the file can be scanned, once downloaded
+         */
+        Analysis(JenkinsFile file, SearchCriteria searchCriteria, boolean includeLibraries,
+                 CompletionStage<Boolean> available) {
+            this.file = file;
+            this.searchCriteria = searchCriteria;
+            this.includeLibraries = includeLibraries;
+            this.available = available;
+        }
+
+        /**
+         * Loads the analysis stored by a previous run, or else scans the archive and resolves the calls which do not
+         * depend on the classes of the other archives
+         */
+        void scan(UsageCache usageCache) {
+            if (referenceIndex != null) {
+                indexKey = referenceIndex.getKey(file, includeLibraries);
+                indexed = referenceIndex.contains(indexKey);
+            }
+            cacheKey = usageCache == null ? null : usageCache.getKey(file, searchCriteria, includeLibraries);
+            // an archive missing from the index is read again, as the cache does not keep its constant pools
+            if (cacheKey != null && (referenceIndex == null || indexed)) {
+                DeprecatedUsage cachedUsage = new DeprecatedUsage(file.getName(), file.getVersion(), searchCriteria, includeLibraries);
+                if (usageCache.load(cacheKey, cachedUsage)) {
+                    deprecatedUsage = cachedUsage;
+                    loadedFromCache = true;
+                    return;
+                }
             }
-            if (i % 100 == 0) {
-                System.out.print(" ");
+            if (referenceIndex == null || indexed) {
+                scanFile();
+            } else {
+                deprecatedUsage = newUsage(true, true);
+                loadedFromCache = false;
+                scanComplete = scanFile(file, deprecatedUsage);
+                // a partial scan is reported, but neither indexed nor cached
+                if (scanComplete) {
+                    referenceIndex.write(indexKey, deprecatedUsage);
+                    indexed = true;
+                }
             }
-            if (i % 500 == 0) {
-                System.out.print("\n");
+            // only the calls through the classes of other archives are kept until the shared hierarchy is built
+            deprecatedUsage.resolveLocalReferences();
+        }
+
+        boolean isIndexed() {
+            return indexed;
+        }
+
+        /**
+         * Size of the archive, as an estimate of the memory needed to analyze it
+         */
+        long getFileSize() {
+            return file.getFile().length();
+        }
+
+        private void scanFile() {
+            deprecatedUsage = newUsage(retainReferences, false);
+            loadedFromCache = false;
+            scanComplete = scanFile(file, deprecatedUsage);
+        }
+
+        DeprecatedUsage replay(SearchCriteria recursiveSearchCriteria, ClassHierarchy classHierarchy) {
+            return getReferencesUsage().replay(recursiveSearchCriteria, classHierarchy);
+        }
+
+        /**
+         * Returns the usage with the calls found by the scan
+         */
+        DeprecatedUsage getReferencesUsage() {
+            if (!loadedFromCache) {
+                return deprecatedUsage;
+            }
+            // the cache does not keep the calls, the plugin is scanned again once to get them
+            if (referencesUsage == null) {
+                referencesUsage = newUsage(true, false);
+                scanFile(file, referencesUsage);
             }
+            return referencesUsage;
+        }
+
+        private DeprecatedUsage newUsage(boolean retainReferences, boolean retainConstants) {
+            DeprecatedUsage usage = new DeprecatedUsage(file.getName(), file.getVersion(), searchCriteria, includeLibraries);
+            if (retainReferences) {
+                usage.retainReferences();
+            }
+            if (retainConstants) {
+                usage.retainConstants();
+            }
+            return usage;
         }
-        return deprecatedUsages;
-    }
 
+        /**
+         * Scans the file into the usage, which keeps what was found before a failure
+         *
+         * @return false if the file could not be fully read
+         */
+        private static boolean scanFile(JenkinsFile file, DeprecatedUsage deprecatedUsage) {
+            try {
+                deprecatedUsage.scan(file.getFile());
+                return true;
+            } catch (final EOFException | ZipException | FileNotFoundException e) {
+                System.out.println("deleting " + file + " and skipping, because " + e.toString());
+                try {
+                    file.deleteFile();
+                } catch (IOException ioException) {
+                    ioException.printStackTrace();
+                }
+            } catch (final Exception e) {
+                System.out.println(e.toString() + " on " + file.getFile().getName());
+                e.printStackTrace();
+            }
+            return false;
+        }
+
+        void resolve(ClassHierarchy classHierarchy, UsageCache usageCache) {
+            if (deprecatedUsage.isResolved()) {
+                if (deprecatedUsage.isResolvedWith(classHierarchy)) {
+                    return;
+                }
+                // stored analysis resolved with other supertypes for classes of other archives
+                scanFile();
+            }
+            deprecatedUsage.resolve(classHierarchy);
+            if (scanComplete && cacheKey != null) {
+                usageCache.save(cacheKey, deprecatedUsage);
+            }
+        }
+    }
 }
@@ -10,6 +10,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -74,15 +75,51 @@ public class Options {
     @Option(name = "-D", aliases = "--downloadConcurrent", metaVar = "COUNT", usage = "Specifies number of concurrent downloads to allow")
     public int maxConcurrentDownloads = Runtime.getRuntime().availableProcessors() * 4;
 
+    @Option(name = "--maxTasksInFlight", metaVar = "COUNT", usage = "Maximum number of core and plugin analyses submitted at once, the next ones being submitted as the previous ones complete")
+    public int maxTasksInFlight = Runtime.getRuntime().availableProcessors() * 2;
+
+    @Option(name = "--maxMegabytesInFlight", metaVar = "MB", usage = "Maximum size of the core and plugin archives analyzed at once, an archive larger than it being analyzed alone")
+    public long maxMegabytesInFlight = 1024;
+
     @Option(name = "-r", aliases = "--recursive", usage = "Recursively check for method signatures (does not work for class/field at the moment)")
     public boolean recursive;
     
     @Option(name = "--recursiveMaxDepth", metaVar = "MAX_DEPTH", usage = "Maximum depth for the recursion, default to 5. Only considered if recursive mode is activated.")
     public int recursiveMaxDepth = 5;
 
+    @Option(name = "--recursiveRescan", usage = "Scan every plugin again at each level of the recursion, instead of keeping the calls found by the first scan in memory. Slower, but uses less memory. Only considered if recursive mode is activated.")
+    public boolean recursiveRescan;
+
+    @Option(name = "--writeCallGraph", metaVar = "FILENAME", usage = "Write the calls found in the plugins to a binary call graph file, to be queried later with --queryCallGraph")
+    public File writeCallGraphFile;
+
+    @Option(name = "--queryCallGraph", metaVar = "FILENAME", usage = "Find the methods calling the ones of the additional methods and fields files, directly or not, in a call graph file written by --writeCallGraph, without reading the plugins. The depth is set by --recursiveMaxDepth.")
+    public File queryCallGraphFile;
+
+    @Option(name = "--writeIndex", usage = "Also record everything found in the plugins under work/reference-index, to be queried later by --queryIndex with other criteria without reading the plugins")
+    public boolean writeIndex;
+
+    @Option(name = "--queryIndex", usage = "Write the usage reports for the current criteria from the reference index of the last run with --writeIndex, without downloading or reading the core and plugins")
+    public boolean queryIndex;
+
+    @Option(name = "--serve", metaVar = "PORT", usage = "Keep the deprecated API and everything found in the plugins in memory, and answer queries with other criteria on this local HTTP port instead of writing the reports once")
+    public Integer servePort;
+
+    @Option(name = "--refreshInterval", metaVar = "MINUTES", usage = "How often the server checks the update centers, to analyze the new core and plugin versions. 0 disables it, leaving POST /refresh.")
+    public int refreshIntervalMinutes = 60;
+
     @Option(name = "-s", aliases = "--skipDownloads", usage = "Disable the download of the core/plugins and use the local version. Useful during development to debug more efficiently.")
     public boolean skipDownloads;
 
+    @Option(name = "--libCacheSize", metaVar = "MB", usage = "Approximate memory in megabytes kept for the scan results of bundled libraries, reused by the plugins bundling the same jar. 0 disables the cache")
+    public long libraryCacheSize = 128;
+
+    @Option(name = "--persistLibCache", usage = "Also store the scan results of bundled libraries under work/lib-cache, to reuse them in the next runs")
+    public boolean persistLibraryCache;
+
+    @Option(name = "--usageCache", usage = "Keep the analysis of each plugin under work/usage-cache, so that the next runs only analyze the plugins which are new or were updated")
+    public boolean usageCache;
+
     @Option(name = "-v", aliases = "--verbose", usage = "Add verbose logging about downloads")
     public boolean verbose;
 
@@ -144,15 +181,8 @@ public class Options {
             throw new IllegalArgumentException("Additional classes file option provided, but file not found: " + path);
         }
         
-        additionalClasses = new HashSet<>();
         try {
-            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
-                String trimmedLine = line.trim();
-                if (!trimmedLine.isEmpty() && !trimmedLine.startsWith("#")){
-                    String className = trimmedLine.replaceAll("\\.", "/");
-                    additionalClasses.add(className);
-                }
-            }
+            additionalClasses = parseClassNames(Files.readAllLines(path, StandardCharsets.UTF_8));
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -180,19 +210,8 @@ public class Options {
         if (Files.notExists(path)) {
             throw new IllegalArgumentException("Additional methods file option provided, but file not found: " + path);
         }
-        additionalMethodNames = new HashMap<>();
         try {
-            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
-                String trimmedLine = line.trim();
-                if (!trimmedLine.isEmpty() && !trimmedLine.startsWith("#")){
-                    int hashIndex = trimmedLine.indexOf('#');
-                    if (hashIndex != -1) {
-                        String className = trimmedLine.substring(0, hashIndex).replaceAll("\\.", "/");
-                        String methodName = trimmedLine.substring(hashIndex + 1);
-                        additionalMethodNames.computeIfAbsent(className, ignored -> new LinkedHashSet<>()).add(methodName);
-                    }
-                }
-            }
+            additionalMethodNames = parseMemberNames(Files.readAllLines(path, StandardCharsets.UTF_8));
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -218,20 +237,9 @@ public class Options {
         if (Files.notExists(path)) {
             throw new IllegalArgumentException("Additional fields file option provided, but file not found: " + path);
         }
-        
-        additionalFields = new HashMap<>();
+
         try {
-            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
-                String trimmedLine = line.trim();
-                if (!trimmedLine.isEmpty() && !trimmedLine.startsWith("#")) {
-                    int hashIndex = trimmedLine.indexOf('#');
-                    if (hashIndex != -1) {
-                        String className = trimmedLine.substring(0, hashIndex).replaceAll("\\.", "/");
-                        String fieldName = trimmedLine.substring(hashIndex + 1);
-                        additionalFields.computeIfAbsent(className, ignored -> new LinkedHashSet<>()).add(fieldName);
-                    }
-                }
-            }
+            additionalFields = parseMemberNames(Files.readAllLines(path, StandardCharsets.UTF_8));
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -239,6 +247,42 @@ public class Options {
         System.out.println("Additional fields: " + additionalFields.values().stream().mapToInt(Set::size).sum());
     }
 
+    /**
+     * Parses the lines of an additional classes file, a class or package pattern per line
+     */
+    public static Set<String> parseClassNames(Collection<String> lines) {
+        Set<String> classNames = new HashSet<>();
+        for (String line : lines) {
+            String trimmedLine = line.trim();
+            if (!trimmedLine.isEmpty() && !trimmedLine.startsWith("#")){
+                String className = trimmedLine.replaceAll("\\.", "/");
+                classNames.add(className);
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * Parses the lines of an additional methods or fields file, a {@code class#name} per line
+     *
+     * @return the names by class
+     */
+    public static Map<String, Set<String>> parseMemberNames(Collection<String> lines) {
+        Map<String, Set<String>> memberNames = new HashMap<>();
+        for (String line : lines) {
+            String trimmedLine = line.trim();
+            if (!trimmedLine.isEmpty() && !trimmedLine.startsWith("#")) {
+                int hashIndex = trimmedLine.indexOf('#');
+                if (hashIndex != -1) {
+                    String className = trimmedLine.substring(0, hashIndex).replaceAll("\\.", "/");
+                    String memberName = trimmedLine.substring(hashIndex + 1);
+                    memberNames.computeIfAbsent(className, ignored -> new LinkedHashSet<>()).add(memberName);
+                }
+            }
+        }
+        return memberNames;
+    }
+
     /**
      * Returns the limited scope of plugins if the related {@link #limitPluginsFile} has been specified.
      *
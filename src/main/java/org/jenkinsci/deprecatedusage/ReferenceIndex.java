@@ -0,0 +1,147 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Everything the scan of each plugin finds whatever the criteria, kept under work/reference-index, so that other
+ * criteria can be evaluated later without reading the plugins again.
+ * <p>
+ * An entry is kept per plugin version: the classes and their hierarchy, the classes of the constant pools and their
+ * strings which can be class names, and all the calls with the methods making them. The manifest lists the entries
+ * of the last indexing run, with the deprecated API of its cores.
+ * <p>
+ * As the other strings are not kept, a query does not report the ones a scan matches with a wildcard class pattern,
+ * such as a message ending with "Exception" for {@code *Exception}.
+ */
+class ReferenceIndex {
+    /**
+     * To be incremented when the content of an entry or the way it is computed changes
+     */
+    private static final int FORMAT_VERSION = 3;
+    private static final String MANIFEST_KEY = "manifest";
+
+    private final CacheDirectory directory;
+
+    ReferenceIndex(File directory) {
+        this.directory = new CacheDirectory(directory, FORMAT_VERSION);
+    }
+
+    /**
+     * @throws IllegalStateException when the classes of the tool cannot be identified, as the entries written by
+     * another version could not be told apart
+     */
+    static ReferenceIndex get() {
+        if (ToolVersion.get() == null) {
+            throw new IllegalStateException("The reference index cannot be used, the classes of the tool cannot be identified");
+        }
+        return new ReferenceIndex(new File("work", "reference-index"));
+    }
+
+    /**
+     * Returns the key of the entry of the file, the same from one run to another for the same version
+     */
+    String getKey(JenkinsFile file, boolean includeLibraries) {
+        String digest = file.getExpectedDigest();
+        return DigestUtils.sha256Hex((digest != null ? digest : file.getName() + ':' + file.getVersion())
+                + '\n' + includeLibraries + '\n' + ToolVersion.get());
+    }
+
+    boolean contains(String key) {
+        return directory.read(key, input -> Boolean.TRUE) != null;
+    }
+
+    void write(String key, DeprecatedUsage deprecatedUsage) {
+        directory.write(key, deprecatedUsage::writeIndexEntry);
+    }
+
+    /**
+     * Restores the entry into the given usage, which must be new
+     *
+     * @return false when there is no valid entry for the key
+     */
+    boolean read(String key, DeprecatedUsage deprecatedUsage) {
+        return directory.read(key, input -> {
+            deprecatedUsage.readIndexEntry(input);
+            return Boolean.TRUE;
+        }) != null;
+    }
+
+    /**
+     * Reads only the hierarchy of the classes of the entry
+     *
+     * @return null when there is no valid entry for the key
+     */
+    Map<String, List<String>> readHierarchy(String key) {
+        return directory.read(key, DeprecatedUsage::readIndexHierarchy);
+    }
+
+    void writeManifest(DeprecatedApi deprecatedApi, List<Entry> entries) {
+        directory.write(MANIFEST_KEY, output -> {
+            deprecatedApi.writeTo(output);
+            output.writeInt(entries.size());
+            for (Entry entry : entries) {
+                entry.writeTo(output);
+            }
+        });
+    }
+
+    /**
+     * Restores the deprecated API of the manifest into the given one, and returns its entries
+     *
+     * @throws IOException when there is no valid manifest
+     */
+    List<Entry> readManifest(DeprecatedApi deprecatedApi) throws IOException {
+        List<Entry> entries = directory.read(MANIFEST_KEY, input -> {
+            deprecatedApi.readFrom(input);
+            int size = input.readInt();
+            List<Entry> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(Entry.readFrom(input));
+            }
+            return list;
+        });
+        if (entries == null) {
+            throw new IOException("No reference index found, run with --writeIndex first");
+        }
+        return entries;
+    }
+
+    /**
+     * Plugin or core of the manifest
+     */
+    static final class Entry {
+        final String name;
+        final String version;
+        final boolean core;
+        final boolean includeLibraries;
+        final String key;
+
+        Entry(String name, String version, boolean core, boolean includeLibraries, String key) {
+            this.name = name;
+            this.version = version;
+            this.core = core;
+            this.includeLibraries = includeLibraries;
+            this.key = key;
+        }
+
+        void writeTo(DataOutput output) throws IOException {
+            output.writeUTF(name);
+            output.writeUTF(version);
+            output.writeBoolean(core);
+            output.writeBoolean(includeLibraries);
+            output.writeUTF(key);
+        }
+
+        static Entry readFrom(DataInput input) throws IOException {
+            return new Entry(input.readUTF(), input.readUTF(), input.readBoolean(), input.readBoolean(), input.readUTF());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.jenkinsci.deprecatedusage.symbol.IntObjectMap;
+import org.jenkinsci.deprecatedusage.symbol.SymbolTable;
+
+/**
+ * Caller to callee edges found by the scan of a plugin, kept to be resolved again for each level of the recursive
+ * search instead of scanning the plugin again.
+ * <p>
+ * Compact: each part of a reference is an id of the {@link SymbolTable}, so that the names shared by many
+ * references are only kept once, in the table of the usage it belongs to. Immutable once built.
+ */
+final class ReferenceList {
+    static final ReferenceList EMPTY = new ReferenceList(SymbolTable.get(), new int[0]);
+
+    // class name, name, desc (-2 - desc for a field), caller class name, caller name, caller desc
+    private static final int STRIDE = 6;
+
+    private final SymbolTable symbols;
+    private final int[] data;
+
+    private ReferenceList(SymbolTable symbols, int[] data) {
+        this.symbols = symbols;
+        this.data = data;
+    }
+
+    static ReferenceList of(Collection<ScanResult.Reference> references, SymbolTable symbols) {
+        int[] data = new int[references.size() * STRIDE];
+        int i = 0;
+        for (ScanResult.Reference reference : references) {
+            data[i] = symbols.intern(reference.className);
+            data[i + 1] = symbols.intern(reference.name);
+            int desc = symbols.intern(reference.desc);
+            data[i + 2] = reference.field ? -2 - desc : desc;
+            data[i + 3] = symbols.intern(reference.callerClassName);
+            data[i + 4] = symbols.intern(reference.callerName);
+            data[i + 5] = symbols.intern(reference.callerDesc);
+            i += STRIDE;
+        }
+        return new ReferenceList(symbols, data);
+    }
+
+    /**
+     * Writes the symbols used by the references once, then the references as indexes in them
+     */
+    void writeTo(DataOutput output) throws IOException {
+        IntObjectMap<Integer> indexes = new IntObjectMap<>();
+        List<String> dictionary = new ArrayList<>();
+        int[] encoded = new int[data.length];
+        for (int i = 0; i < data.length; i++) {
+            boolean field = i % STRIDE == 2 && data[i] < 0;
+            int id = field ? -2 - data[i] : data[i];
+            Integer index = indexes.get(id);
+            if (index == null) {
+                index = dictionary.size();
+                indexes.put(id, index);
+                dictionary.add(symbols.symbol(id));
+            }
+            encoded[i] = field ? -2 - index : index;
+        }
+        CacheDirectory.writeStrings(output, dictionary);
+        output.writeInt(encoded.length);
+        for (int value : encoded) {
+            output.writeInt(value);
+        }
+    }
+
+    static ReferenceList readFrom(DataInput input, SymbolTable symbols) throws IOException {
+        List<String> dictionary = new ArrayList<>();
+        CacheDirectory.readStrings(input, dictionary);
+        int[] ids = new int[dictionary.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = symbols.intern(dictionary.get(i));
+        }
+        int[] data = new int[input.readInt()];
+        for (int i = 0; i < data.length; i++) {
+            int value = input.readInt();
+            data[i] = value < 0 ? -2 - ids[-2 - value] : ids[value];
+        }
+        return new ReferenceList(symbols, data);
+    }
+
+    int size() {
+        return data.length / STRIDE;
+    }
+
+    /**
+     * Calls the visitor for each reference, in the order of the scan
+     */
+    void forEach(Visitor visitor) {
+        for (int i = 0; i < data.length; i += STRIDE) {
+            int desc = data[i + 2];
+            boolean field = desc < 0;
+            visitor.visit(field, symbols.symbol(data[i]), symbols.symbol(data[i + 1]),
+                    symbols.symbol(field ? -2 - desc : desc), symbols.symbol(data[i + 3]),
+                    symbols.symbol(data[i + 4]), symbols.symbol(data[i + 5]));
+        }
+    }
+
+    interface Visitor {
+        void visit(boolean field, String className, String name, String desc,
+                   String callerClassName, String callerName, String callerDesc);
+    }
+}
@@ -7,21 +7,34 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
 
-public abstract class Report {
+public abstract class Report implements UsageReport {
     protected final DeprecatedApi api;
-    protected final List<DeprecatedUsage> usages;
     protected final File outputDir;
     protected final String reportName;
 
-    public Report(DeprecatedApi api, List<DeprecatedUsage> usages, File outputDir, String reportName) {
+    public Report(DeprecatedApi api, File outputDir, String reportName) {
         this.api = api;
-        this.usages = usages;
         this.outputDir = outputDir;
         this.reportName = reportName;
     }
 
+    /**
+     * Does nothing, for the reports which are not built from the usages
+     */
+    @Override
+    public void add(DeprecatedUsage usage) {
+    }
+
+    /**
+     * Writes the report as JSON and HTML
+     */
+    @Override
+    public void finish() throws IOException {
+        generateJsonReport();
+        generateHtmlReport();
+    }
+
     protected abstract void generateHtmlReport(Writer writer) throws IOException;
     protected abstract void generateJsonReport(Writer writer) throws IOException;
 
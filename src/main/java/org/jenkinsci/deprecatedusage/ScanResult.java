@@ -0,0 +1,211 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * What is collected while reading the classes of a plugin, or of a part of it, before the references are resolved
+ * against the class hierarchy.
+ * Not thread safe, each task fills its own instance and they are merged afterwards into a new one.
+ * Instances are never modified once shared through the {@link LibraryScanCache}.
+ */
+class ScanResult {
+    /**
+     * Sizes used by {@link #estimateSize()}: an entry of a hash set or map and its slot in the table, a list with
+     * its array, and a reference in an array
+     */
+    private static final int ENTRY_SIZE = 48;
+    private static final int LIST_SIZE = 40;
+    private static final int REFERENCE_SIZE = 4;
+
+    /**
+     * Classes looked for, found in the constant pools
+     */
+    final Set<String> classes = new LinkedHashSet<>();
+    final Map<String, List<String>> superClassAndInterfacesByClass = new HashMap<>();
+    /**
+     * Method and field references found in the bytecode, with the method in which they were found
+     */
+    final Set<Reference> references = new LinkedHashSet<>();
+    /**
+     * Classes of the constant pools, which include the owners of all the methods and fields called
+     */
+    final Set<String> referencedClasses = new HashSet<>();
+    /**
+     * Values of the CONSTANT_Utf8 entries of the constant pools which can be class names, the ones of the
+     * {@code Lxxx;} descriptors unwrapped, only collected for the reference index
+     */
+    final Set<String> constants = new HashSet<>();
+    int classCount;
+    int skippedClassCount;
+
+    /**
+     * Adds the content of a scan of classes read after the ones of this scan.
+     * The other scan is not modified.
+     */
+    void merge(ScanResult next) {
+        classes.addAll(next.classes);
+        // as when reading sequentially, the last class of a given name wins
+        superClassAndInterfacesByClass.putAll(next.superClassAndInterfacesByClass);
+        references.addAll(next.references);
+        referencedClasses.addAll(next.referencedClasses);
+        constants.addAll(next.constants);
+        classCount += next.classCount;
+        skippedClassCount += next.skippedClassCount;
+    }
+
+    /**
+     * Approximate size of the result in memory, in bytes, for the compact strings of ASCII class names of a 64 bits
+     * JVM with compressed references. A string shared by several entries is only counted once.
+     */
+    long estimateSize() {
+        Set<String> strings = Collections.newSetFromMap(new IdentityHashMap<>());
+        long size = 0;
+        for (String className : classes) {
+            size += ENTRY_SIZE + sizeOf(className, strings);
+        }
+        for (Map.Entry<String, List<String>> entry : superClassAndInterfacesByClass.entrySet()) {
+            size += ENTRY_SIZE + LIST_SIZE + sizeOf(entry.getKey(), strings);
+            for (String superClassOrInterface : entry.getValue()) {
+                size += REFERENCE_SIZE + sizeOf(superClassOrInterface, strings);
+            }
+        }
+        for (Reference reference : references) {
+            size += ENTRY_SIZE + Reference.SIZE + sizeOf(reference.className, strings)
+                    + sizeOf(reference.name, strings) + sizeOf(reference.desc, strings)
+                    + sizeOf(reference.callerClassName, strings) + sizeOf(reference.callerName, strings)
+                    + sizeOf(reference.callerDesc, strings);
+        }
+        for (String className : referencedClasses) {
+            size += ENTRY_SIZE + sizeOf(className, strings);
+        }
+        for (String constant : constants) {
+            size += ENTRY_SIZE + sizeOf(constant, strings);
+        }
+        return size;
+    }
+
+    private static long sizeOf(String string, Set<String> counted) {
+        // the String and its byte array
+        return counted.add(string) ? 24 + 16 + string.length() : 0;
+    }
+
+    void writeTo(DataOutput output) throws IOException {
+        output.writeInt(classCount);
+        output.writeInt(skippedClassCount);
+        output.writeInt(classes.size());
+        for (String className : classes) {
+            output.writeUTF(className);
+        }
+        output.writeInt(superClassAndInterfacesByClass.size());
+        for (Map.Entry<String, List<String>> entry : superClassAndInterfacesByClass.entrySet()) {
+            output.writeUTF(entry.getKey());
+            output.writeInt(entry.getValue().size());
+            for (String superClassOrInterface : entry.getValue()) {
+                output.writeUTF(superClassOrInterface);
+            }
+        }
+        output.writeInt(references.size());
+        for (Reference reference : references) {
+            output.writeBoolean(reference.field);
+            output.writeUTF(reference.className);
+            output.writeUTF(reference.name);
+            output.writeUTF(reference.desc);
+            output.writeUTF(reference.callerClassName);
+            output.writeUTF(reference.callerName);
+            output.writeUTF(reference.callerDesc);
+        }
+        output.writeInt(referencedClasses.size());
+        for (String className : referencedClasses) {
+            output.writeUTF(className);
+        }
+        output.writeInt(constants.size());
+        for (String constant : constants) {
+            output.writeUTF(constant);
+        }
+    }
+
+    static ScanResult readFrom(DataInput input) throws IOException {
+        ScanResult scanResult = new ScanResult();
+        scanResult.classCount = input.readInt();
+        scanResult.skippedClassCount = input.readInt();
+        int classCount = input.readInt();
+        for (int i = 0; i < classCount; i++) {
+            scanResult.classes.add(input.readUTF());
+        }
+        int hierarchyCount = input.readInt();
+        for (int i = 0; i < hierarchyCount; i++) {
+            String className = input.readUTF();
+            int superCount = input.readInt();
+            List<String> superClassAndInterfaces = new ArrayList<>(superCount);
+            for (int j = 0; j < superCount; j++) {
+                superClassAndInterfaces.add(input.readUTF());
+            }
+            scanResult.superClassAndInterfacesByClass.put(className,
+                    superCount == 0 ? Collections.emptyList() : superClassAndInterfaces);
+        }
+        int referenceCount = input.readInt();
+        for (int i = 0; i < referenceCount; i++) {
+            scanResult.references.add(new Reference(input.readBoolean(), input.readUTF(), input.readUTF(),
+                    input.readUTF(), input.readUTF(), input.readUTF(), input.readUTF()));
+        }
+        int referencedClassCount = input.readInt();
+        for (int i = 0; i < referencedClassCount; i++) {
+            scanResult.referencedClasses.add(input.readUTF());
+        }
+        int constantCount = input.readInt();
+        for (int i = 0; i < constantCount; i++) {
+            scanResult.constants.add(input.readUTF());
+        }
+        return scanResult;
+    }
+
+    static final class Reference {
+        private static final int SIZE = 40;
+
+        final boolean field;
+        final String className;
+        final String name;
+        final String desc;
+        final String callerClassName;
+        final String callerName;
+        final String callerDesc;
+
+        Reference(boolean field, String className, String name, String desc,
+                  String callerClassName, String callerName, String callerDesc) {
+            this.field = field;
+            this.className = className;
+            this.name = name;
+            this.desc = desc;
+            this.callerClassName = callerClassName;
+            this.callerName = callerName;
+            this.callerDesc = callerDesc;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Reference that = (Reference) o;
+            return field == that.field && className.equals(that.className) && name.equals(that.name)
+                    && desc.equals(that.desc) && callerClassName.equals(that.callerClassName)
+                    && callerName.equals(that.callerName) && callerDesc.equals(that.callerDesc);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(field, className, name, desc, callerClassName, callerName, callerDesc);
+        }
+    }
+}
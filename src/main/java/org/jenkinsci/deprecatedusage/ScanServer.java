@@ -0,0 +1,485 @@
+package org.jenkinsci.deprecatedusage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.deprecatedusage.search.DeprecatedApiSearchCriteria;
+import org.jenkinsci.deprecatedusage.search.OptionsBasedSearchCriteria;
+import org.jenkinsci.deprecatedusage.search.SearchCriteria;
+import org.jenkinsci.deprecatedusage.symbol.SymbolTable;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipException;
+
+/**
+ * Keeps the deprecated API of the cores and everything found in the plugins in memory, to answer queries with other
+ * criteria over HTTP without reading the archives again.
+ * <ul>
+ * <li>{@code POST /query} takes the criteria as a JSON object and returns the three usage reports</li>
+ * <li>{@code POST /refresh} starts reading the update centers again in the background, to only analyze the new core
+ * and plugin versions, and returns the current status right away. The queries use the archives of the previous
+ * refresh until it is done.</li>
+ * <li>{@code GET /status} returns the number of archives in memory</li>
+ * </ul>
+ * What is found in each archive is also written to the {@link ReferenceIndex}, so that a restarted server does not read
+ * the archives again.
+ * <p>
+ * The names of the archives in memory are interned in a {@link SymbolTable} of their own, instead of the one of the
+ * whole run, which would keep the names of the archives replaced by each refresh. The table is dropped by the first
+ * refresh after it doubled in size, all the archives being then loaded again from the index in a new one. A query
+ * growing it past this size requests that refresh, even if no version changed.
+ */
+class ScanServer {
+    // looks for nothing, the classes of the constant pools being matched by each query
+    private static final SearchCriteria LOAD_CRITERIA = new OptionsBasedSearchCriteria(null, null, null, true, false, false);
+
+    private final ExecutorService executor;
+    private final Downloader downloader;
+    private final ReferenceIndex referenceIndex = ReferenceIndex.get();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    // runs the refreshes, one at a time
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // last refresh requested over HTTP
+    private Future<?> requestedRefresh;
+    private volatile Corpus corpus;
+
+    ScanServer(ExecutorService executor, Downloader downloader) {
+        this.executor = executor;
+        this.downloader = downloader;
+    }
+
+    /**
+     * Loads the archives, then answers the queries on the port of the loopback interface until the JVM stops
+     */
+    void serve(int port) throws IOException, InterruptedException, ExecutionException {
+        refresh();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/query", exchange -> respond(exchange, "POST",
+                () -> query(new JSONObject(IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8)))));
+        server.createContext("/refresh", exchange -> respond(exchange, "POST", 202, () -> {
+            requestRefresh();
+            return getStatus();
+        }));
+        server.createContext("/status", exchange -> respond(exchange, "GET", this::getStatus));
+        // one query at a time, each one being resolved in parallel by the executor
+        ExecutorService requestExecutor = Executors.newSingleThreadExecutor();
+        server.setExecutor(requestExecutor);
+
+        int interval = Options.get().refreshIntervalMinutes;
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(this::refreshInBackground, interval, interval, TimeUnit.MINUTES);
+        }
+
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(stopped::countDown));
+        System.out.println("Listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+        try {
+            stopped.await();
+        } finally {
+            server.stop(0);
+            requestExecutor.shutdown();
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Schedules a refresh, unless one requested before is not done yet. Only called by the request thread, so that it
+     * never waits for the refresh in progress.
+     */
+    private void requestRefresh() {
+        if (requestedRefresh == null || requestedRefresh.isDone()) {
+            requestedRefresh = scheduler.submit(this::refreshInBackground);
+        }
+    }
+
+    private void refreshInBackground() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            System.out.println("Error refreshing the archives: " + e);
+        }
+    }
+
+    /**
+     * Reads the update centers, and replaces the archives in memory when their versions changed. The archives which
+     * did not change are kept, the others are loaded from the reference index or downloaded and scanned.
+     */
+    synchronized void refresh() throws IOException, InterruptedException, ExecutionException {
+        Options options = Options.get();
+        Set<JenkinsFile> cores = new ConcurrentSkipListSet<>(Comparator.comparing(JenkinsFile::getFile));
+        Set<JenkinsFile> plugins = new ConcurrentSkipListSet<>(Comparator.comparing(JenkinsFile::getFile));
+        Main.fetchUpdateCenters(executor, cores, plugins);
+        if (options.limitPluginsFile != null) {
+            Set<String> limitedScopeOfPlugins = Options.getLimitedScopeOfPlugins();
+            plugins.removeIf(jenkinsFile -> !limitedScopeOfPlugins.contains(jenkinsFile.getName()));
+        }
+
+        Corpus previous = corpus;
+        // plugins first, then cores, as by the analysis of the archives
+        Map<String, Archive> archives = new LinkedHashMap<>();
+        for (JenkinsFile plugin : plugins) {
+            addArchive(archives, plugin, false, options.includePluginLibraries);
+        }
+        for (JenkinsFile core : cores) {
+            addArchive(archives, core, true, options.includeCoreLibraries);
+        }
+        boolean grown = previous != null && previous.isGrown();
+        if (previous != null && !grown && previous.archives.keySet().equals(archives.keySet())) {
+            System.out.println("No new core or plugin version");
+            return;
+        }
+        if (grown) {
+            System.out.println("Loading all the archives again, in a new symbol table");
+            previous = null;
+        }
+        SymbolTable symbols = previous != null ? previous.symbols : new SymbolTable();
+
+        DeprecatedApi deprecatedApi = getDeprecatedApi(previous, archives.values(), symbols);
+        List<Archive> missing = new ArrayList<>();
+        for (Archive archive : archives.values()) {
+            Archive known = previous != null ? previous.archives.get(archive.key) : null;
+            if (known != null) {
+                archive.deprecatedUsage = known.deprecatedUsage;
+            } else if (!load(archive, symbols)) {
+                missing.add(archive);
+            }
+        }
+        System.out.println(archives.size() - missing.size() + " archives known, " + missing.size() + " to analyze");
+
+        if (deprecatedApi == null || !missing.isEmpty()) {
+            Set<JenkinsFile> files = new HashSet<>();
+            for (Archive archive : missing) {
+                files.add(archive.file);
+            }
+            if (deprecatedApi == null) {
+                for (Archive archive : archives.values()) {
+                    if (archive.core) {
+                        files.add(archive.file);
+                    }
+                }
+            }
+            // only the new versions are downloaded and checked, each one being scanned as soon as it is available
+            Map<JenkinsFile, CompletableFuture<Boolean>> available = options.skipDownloads
+                    ? downloader.useExistingFilesEach(files) : downloader.synchronizeEach(files);
+            if (deprecatedApi == null) {
+                deprecatedApi = new DeprecatedApi(symbols);
+                List<JenkinsFile> downloadedCores = new ArrayList<>();
+                for (Archive archive : archives.values()) {
+                    if (archive.core && available.get(archive.file).get()) {
+                        downloadedCores.add(archive.file);
+                    }
+                }
+                Main.analyzeDeprecatedApi(deprecatedApi, downloadedCores);
+            }
+
+            SearchCriteria searchCriteria = new OptionsBasedSearchCriteria().combineWith(new DeprecatedApiSearchCriteria(deprecatedApi)).compile();
+            InFlightWindow.of(executor).forEachCompleted(missing, archive -> available.get(archive.file),
+                    Archive::getFileSize, archive -> {
+                        scan(archive, searchCriteria, symbols);
+                        return archive;
+                    }, (index, archive) -> { });
+        }
+        archives.values().removeIf(archive -> archive.deprecatedUsage == null);
+
+        List<ReferenceIndex.Entry> entries = new ArrayList<>();
+        for (Archive archive : archives.values()) {
+            entries.add(new ReferenceIndex.Entry(archive.file.getName(), archive.file.getVersion(), archive.core,
+                    archive.includeLibraries, archive.key));
+        }
+        referenceIndex.writeManifest(deprecatedApi, entries);
+        corpus = new Corpus(symbols, previous != null ? previous.loadedSymbolCount : symbols.size(), deprecatedApi,
+                archives);
+        System.out.println("Archives in memory: " + archives.size());
+    }
+
+    private void addArchive(Map<String, Archive> archives, JenkinsFile file, boolean core, boolean includeLibraries) {
+        String key = referenceIndex.getKey(file, includeLibraries);
+        archives.put(key, new Archive(file, core, includeLibraries, key));
+    }
+
+    /**
+     * Returns the deprecated API of the cores when known, from memory or from the manifest of the index
+     */
+    private DeprecatedApi getDeprecatedApi(Corpus previous, Collection<Archive> archives, SymbolTable symbols) {
+        Set<String> coreKeys = new HashSet<>();
+        for (Archive archive : archives) {
+            if (archive.core) {
+                coreKeys.add(archive.key);
+            }
+        }
+        if (previous != null && previous.getCoreKeys().equals(coreKeys)) {
+            return previous.deprecatedApi;
+        }
+        DeprecatedApi deprecatedApi = new DeprecatedApi(symbols);
+        try {
+            Set<String> indexedCoreKeys = new HashSet<>();
+            for (ReferenceIndex.Entry entry : referenceIndex.readManifest(deprecatedApi)) {
+                if (entry.core) {
+                    indexedCoreKeys.add(entry.key);
+                }
+            }
+            return indexedCoreKeys.equals(coreKeys) ? deprecatedApi : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private boolean load(Archive archive, SymbolTable symbols) {
+        DeprecatedUsage deprecatedUsage = new DeprecatedUsage(archive.file.getName(), archive.file.getVersion(),
+                LOAD_CRITERIA, archive.includeLibraries, symbols);
+        // kept to match the classes looked for by each query
+        deprecatedUsage.retainConstants();
+        if (!referenceIndex.read(archive.key, deprecatedUsage)) {
+            return false;
+        }
+        archive.deprecatedUsage = deprecatedUsage;
+        return true;
+    }
+
+    private void scan(Archive archive, SearchCriteria searchCriteria, SymbolTable symbols) {
+        DeprecatedUsage deprecatedUsage = new DeprecatedUsage(archive.file.getName(), archive.file.getVersion(),
+                searchCriteria, archive.includeLibraries, symbols);
+        deprecatedUsage.retainReferences();
+        deprecatedUsage.retainConstants();
+        try {
+            deprecatedUsage.scan(archive.file.getFile());
+        } catch (final EOFException | ZipException | FileNotFoundException e) {
+            System.out.println("deleting " + archive.file + " and skipping, because " + e.toString());
+            try {
+                archive.file.deleteFile();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+            return;
+        } catch (final Exception e) {
+            // the other archives are still analyzed
+            System.out.println(e.toString() + " on " + archive.file.getFile().getName());
+            e.printStackTrace();
+            return;
+        }
+        referenceIndex.write(archive.key, deprecatedUsage);
+        if (!load(archive, symbols)) {
+            System.out.println("Could not read the reference index entry of " + archive.file);
+        }
+    }
+
+    /**
+     * Returns the usage reports for the criteria of the request, which are, all optional:
+     * <ul>
+     * <li>{@code classes}, {@code methods} and {@code fields}: arrays of the lines of the -C, -M and -F files</li>
+     * <li>{@code onlyIncludeSpecified} and {@code includeCore}: as -i and --includeCore</li>
+     * <li>{@code plugins}: array of the names of the plugins to consider, instead of all of them</li>
+     * </ul>
+     */
+    String query(JSONObject request) throws IOException, InterruptedException, ExecutionException {
+        Options options = Options.get();
+        Corpus corpus = this.corpus;
+        Set<String> additionalClasses = request.has("classes")
+                ? Options.parseClassNames(getStrings(request, "classes")) : null;
+        Map<String, Set<String>> additionalMethodNames = request.has("methods")
+                ? Options.parseMemberNames(getStrings(request, "methods")) : null;
+        Map<String, Set<String>> additionalFields = request.has("fields")
+                ? Options.parseMemberNames(getStrings(request, "fields")) : null;
+        boolean onlyIncludeSpecified = request.optBoolean("onlyIncludeSpecified", options.onlyIncludeSpecified);
+        boolean includeCore = request.optBoolean("includeCore", options.includeCore);
+        Set<String> pluginNames = request.has("plugins") ? new HashSet<>(getStrings(request, "plugins")) : null;
+
+        DeprecatedApi deprecatedApi = new DeprecatedApi(corpus.symbols);
+        if (!onlyIncludeSpecified) {
+            deprecatedApi.addAll(corpus.deprecatedApi);
+        }
+        if (additionalClasses != null) {
+            deprecatedApi.addClasses(additionalClasses);
+        }
+        SearchCriteria searchCriteria = new OptionsBasedSearchCriteria(additionalClasses, additionalMethodNames,
+                additionalFields, onlyIncludeSpecified, options.includeJavaCoreClasses, options.onlyIncludeJenkinsClasses)
+                .combineWith(new DeprecatedApiSearchCriteria(deprecatedApi)).compile();
+
+        List<Archive> plugins = new ArrayList<>();
+        List<Archive> cores = new ArrayList<>();
+        for (Archive archive : corpus.archives.values()) {
+            if (archive.core) {
+                if (includeCore) {
+                    cores.add(archive);
+                }
+            } else if (pluginNames == null || pluginNames.contains(archive.file.getName())) {
+                plugins.add(archive);
+            }
+        }
+
+        // the same hierarchy as a run analyzing these archives
+        ClassHierarchy.Builder builder = new ClassHierarchy.Builder();
+        builder.addAll(deprecatedApi.getSuperClassAndInterfacesByClass());
+        for (Archive core : cores) {
+            builder.addAll(core.deprecatedUsage.getSuperClassAndInterfacesByClass());
+        }
+        for (Archive plugin : plugins) {
+            builder.addAll(plugin.deprecatedUsage.getSuperClassAndInterfacesByClass());
+        }
+        ClassHierarchy classHierarchy = builder.build();
+
+        List<Archive> selected = new ArrayList<>(plugins);
+        selected.addAll(cores);
+        List<Report> reports = Main.createUsageReports(deprecatedApi);
+        // each replayed usage is released as soon as the reports took what they need
+        InFlightWindow.of(executor).forEachCompleted(selected, Archive::getFileSize,
+                archive -> archive.deprecatedUsage.replay(searchCriteria, classHierarchy), (index, deprecatedUsage) -> {
+                    for (Report report : reports) {
+                        report.add(deprecatedUsage);
+                    }
+                });
+        if (corpus.isGrown()) {
+            // the names interned by the queries are only released with the table
+            requestRefresh();
+        }
+
+        StringWriter writer = new StringWriter();
+        writer.write('{');
+        for (int i = 0; i < reports.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(JSONObject.quote(reports.get(i).reportName));
+            writer.write(':');
+            reports.get(i).generateJsonReport(writer);
+        }
+        writer.write('}');
+        return writer.toString();
+    }
+
+    String getStatus() {
+        Corpus corpus = this.corpus;
+        int coreCount = corpus.getCoreKeys().size();
+        return new JSONObject().put("plugins", corpus.archives.size() - coreCount).put("cores", coreCount).toString();
+    }
+
+    private static List<String> getStrings(JSONObject request, String key) {
+        JSONArray array = request.getJSONArray(key);
+        List<String> strings = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            strings.add(array.getString(i));
+        }
+        return strings;
+    }
+
+    private static void respond(HttpExchange exchange, String method, Handler handler) throws IOException {
+        respond(exchange, method, 200, handler);
+    }
+
+    private static void respond(HttpExchange exchange, String method, int successStatus, Handler handler)
+            throws IOException {
+        int status;
+        String body;
+        if (!exchange.getRequestMethod().equals(method)) {
+            status = 405;
+            body = new JSONObject().put("error", "Use " + method).toString();
+        } else {
+            try {
+                body = handler.handle();
+                status = successStatus;
+            } catch (JSONException e) {
+                status = 400;
+                body = new JSONObject().put("error", e.getMessage()).toString();
+            } catch (Exception e) {
+                e.printStackTrace();
+                status = 500;
+                body = new JSONObject().put("error", e.toString()).toString();
+            }
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private interface Handler {
+        String handle() throws Exception;
+    }
+
+    /**
+     * Core or plugin version, with what its scan found once loaded
+     */
+    private static final class Archive {
+        private final JenkinsFile file;
+        private final boolean core;
+        private final boolean includeLibraries;
+        private final String key;
+        private DeprecatedUsage deprecatedUsage;
+
+        Archive(JenkinsFile file, boolean core, boolean includeLibraries, String key) {
+            this.file = file;
+            this.core = core;
+            this.includeLibraries = includeLibraries;
+            this.key = key;
+        }
+
+        long getFileSize() {
+            return file.getFile().length();
+        }
+    }
+
+    /**
+     * Archives of a refresh, replaced as a whole by the next one
+     */
+    private static final class Corpus {
+        private final SymbolTable symbols;
+        // size of the table once all the archives were loaded in it
+        private final int loadedSymbolCount;
+        private final DeprecatedApi deprecatedApi;
+        private final Map<String, Archive> archives;
+
+        Corpus(SymbolTable symbols, int loadedSymbolCount, DeprecatedApi deprecatedApi, Map<String, Archive> archives) {
+            this.symbols = symbols;
+            this.loadedSymbolCount = loadedSymbolCount;
+            this.deprecatedApi = deprecatedApi;
+            this.archives = archives;
+        }
+
+        /**
+         * Whether the table doubled in size since the archives were loaded, the queries interning their criteria
+         */
+        boolean isGrown() {
+            return symbols.size() > 2 * loadedSymbolCount;
+        }
+
+        Set<String> getCoreKeys() {
+            Set<String> coreKeys = new HashSet<>();
+            for (Archive archive : archives.values()) {
+                if (archive.core) {
+                    coreKeys.add(archive.key);
+                }
+            }
+            return coreKeys;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Identifies the code of this tool in the keys of what is kept from one run to the next, so that what another build
+ * computed is never reused.
+ * <p>
+ * The version of the jar is not enough: it is missing when running from the classes of a build directory, and the
+ * same for all the builds of a snapshot. The digest of the classes of the tool is used instead, read from the jar or
+ * the directory they are loaded from.
+ */
+final class ToolVersion {
+    private static final String PACKAGE_PATH = ToolVersion.class.getPackage().getName().replace('.', '/') + '/';
+    private static final String DIGEST = computeDigest();
+
+    private ToolVersion() {
+    }
+
+    /**
+     * Returns the digest of the classes of the tool, or null when they cannot be read, in which case nothing must be
+     * kept for the next runs
+     */
+    static String get() {
+        return DIGEST;
+    }
+
+    private static String computeDigest() {
+        try {
+            CodeSource codeSource = ToolVersion.class.getProtectionDomain().getCodeSource();
+            if (codeSource == null || codeSource.getLocation() == null) {
+                return null;
+            }
+            File location = new File(codeSource.getLocation().toURI());
+            MessageDigest digest = DigestUtils.getSha256Digest();
+            int classCount = location.isDirectory() ? digestDirectory(location.toPath(), digest)
+                    : digestJar(location, digest);
+            return classCount > 0 ? Hex.encodeHexString(digest.digest()) : null;
+        } catch (IOException | URISyntaxException | IllegalArgumentException | SecurityException e) {
+            System.out.println("Could not read the classes of the tool: " + e);
+            return null;
+        }
+    }
+
+    private static int digestDirectory(Path root, MessageDigest digest) throws IOException {
+        Path packageDirectory = root.resolve(PACKAGE_PATH);
+        if (!Files.isDirectory(packageDirectory)) {
+            return 0;
+        }
+        List<Path> classFiles;
+        try (Stream<Path> files = Files.walk(packageDirectory)) {
+            classFiles = files.filter(file -> file.getFileName().toString().endsWith(".class"))
+                    .sorted(Comparator.comparing(file -> getName(root, file)))
+                    .collect(Collectors.toList());
+        }
+        for (Path classFile : classFiles) {
+            update(digest, getName(root, classFile), Files.readAllBytes(classFile));
+        }
+        return classFiles.size();
+    }
+
+    private static int digestJar(File jarFile, MessageDigest digest) throws IOException {
+        try (JarFile jar = new JarFile(jarFile)) {
+            List<JarEntry> classEntries = new ArrayList<>();
+            for (JarEntry entry : Collections.list(jar.entries())) {
+                if (entry.getName().startsWith(PACKAGE_PATH) && entry.getName().endsWith(".class")) {
+                    classEntries.add(entry);
+                }
+            }
+            classEntries.sort(Comparator.comparing(JarEntry::getName));
+            for (JarEntry entry : classEntries) {
+                try (InputStream input = jar.getInputStream(entry)) {
+                    update(digest, entry.getName(), input.readAllBytes());
+                }
+            }
+            return classEntries.size();
+        }
+    }
+
+    private static String getName(Path root, Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static void update(MessageDigest digest, String name, byte[] content) {
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(Integer.toString(content.length).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(content);
+    }
+}
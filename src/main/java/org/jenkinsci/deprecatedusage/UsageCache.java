@@ -0,0 +1,93 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jenkinsci.deprecatedusage.search.SearchCriteria;
+
+/**
+ * Analysis of each plugin kept under work/usage-cache from one run to the next, so that only the plugins which are
+ * new or were updated since the previous run are analyzed again.
+ * <p>
+ * The key is made of the digest of the plugin published by the update center, the fingerprint of the search
+ * criteria (which includes the deprecated API of the cores), whether the libraries are scanned and the
+ * {@link ToolVersion}, the cache being disabled when it is unknown. A stored analysis also records the supertypes
+ * it took from the classes of other archives, and is only reused when the shared {@link ClassHierarchy} of the run
+ * still gives the same ones.
+ */
+class UsageCache {
+    /**
+     * To be incremented when the content of {@link DeprecatedUsage} or the way it is computed changes
+     */
+    private static final int FORMAT_VERSION = 5;
+
+    private static UsageCache instance;
+
+    private final CacheDirectory directory;
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    UsageCache(File directory) {
+        this.directory = new CacheDirectory(directory, FORMAT_VERSION);
+    }
+
+    /**
+     * Returns the cache configured by the {@link Options}, or null when it is disabled
+     */
+    static synchronized UsageCache get() {
+        if (!Options.get().usageCache) {
+            return null;
+        }
+        if (ToolVersion.get() == null) {
+            System.out.println("Usage cache disabled, the classes of the tool cannot be identified");
+            return null;
+        }
+        if (instance == null) {
+            instance = new UsageCache(new File("work", "usage-cache"));
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the key of the analysis of the file, or null when the update center does not publish its digest
+     */
+    String getKey(JenkinsFile file, SearchCriteria searchCriteria, boolean includeLibraries) {
+        String digest = file.getExpectedDigest();
+        if (digest == null) {
+            return null;
+        }
+        return DigestUtils.sha256Hex(digest + '\n' + searchCriteria.getFingerprint() + '\n' + includeLibraries
+                + '\n' + ToolVersion.get());
+    }
+
+    /**
+     * Restores the stored analysis into the given one, which must be new and is to be dropped when false is returned
+     *
+     * @return false when nothing is stored for the key
+     */
+    boolean load(String key, DeprecatedUsage deprecatedUsage) {
+        Boolean loaded = directory.read(key, input -> {
+            deprecatedUsage.readFrom(input);
+            return Boolean.TRUE;
+        });
+        if (loaded == null) {
+            missCount.incrementAndGet();
+            return false;
+        }
+        hitCount.incrementAndGet();
+        return true;
+    }
+
+    void save(String key, DeprecatedUsage deprecatedUsage) {
+        directory.write(key, deprecatedUsage::writeTo);
+    }
+
+    int getHitCount() {
+        return hitCount.get();
+    }
+
+    int getMissCount() {
+        return missCount.get();
+    }
+}
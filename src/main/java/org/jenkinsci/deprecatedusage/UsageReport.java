@@ -0,0 +1,20 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.IOException;
+
+/**
+ * Report built from the usage of each core or plugin as soon as its analysis is done, rather than from all of them at
+ * the end, so that a usage can be released once every report took what it needs from it.
+ */
+public interface UsageReport {
+    /**
+     * Called once per analyzed archive, never concurrently, but in the order the analyses complete, which changes from
+     * one run to the next. The report must be the same whatever the order the usages are added in.
+     */
+    void add(DeprecatedUsage usage);
+
+    /**
+     * Called once all the archives were added
+     */
+    void finish() throws IOException;
+}
@@ -1,33 +1,74 @@
 package org.jenkinsci.deprecatedusage;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
 /**
  * Scan HPI / JPI / WAR files
+ * <p>
+ * The file is read through a {@link ZipArchive} mapping when possible, and with {@link ZipFile} otherwise
+ * (ZIP64 archives for example).
  */
 public class WarReader implements Closeable {
     private final File warFile;
+    private final boolean scanOnlyJarOfPlugin;
+
+    // memory mapped mode
+    private final ZipArchive warArchive;
+    private Iterator<ZipArchive.Entry> archiveEntries;
+    private ZipArchive currentArchive;
+    private ZipArchive.Entry archiveEntry;
+    private ZipArchive jarArchive;
+    private Iterator<ZipArchive.Entry> jarArchiveEntries;
+
+    // ZipFile mode
     private final ZipFile zipFile;
     private final Enumeration<? extends ZipEntry> entries;
-    private final boolean scanOnlyJarOfPlugin;
     private ZipEntry entry;
     private JarReader jarReader;
 
     public WarReader(File warFile, boolean scanOnlyJarOfPlugin) throws IOException {
         super();
         this.warFile = warFile;
-        this.zipFile = new ZipFile(warFile);
-        this.entries = zipFile.entries();
         this.scanOnlyJarOfPlugin = scanOnlyJarOfPlugin;
+        ZipArchive archive;
+        try {
+            archive = ZipArchive.map(warFile);
+        } catch (ZipException e) {
+            archive = null;
+        }
+        this.warArchive = archive;
+        if (warArchive != null) {
+            this.archiveEntries = warArchive.getEntries().iterator();
+            this.zipFile = null;
+            this.entries = null;
+        } else {
+            this.zipFile = new ZipFile(warFile);
+            this.entries = zipFile.entries();
+        }
     }
 
     public String nextClass() throws IOException {
+        if (warArchive != null) {
+            return nextArchiveClass();
+        }
         if (jarReader != null) {
             final String fileName = jarReader.nextClass();
             if (fileName != null) {
@@ -41,10 +82,7 @@ public class WarReader implements Closeable {
             entry = entries.nextElement();
             final String fileName = entry.getName();
             if (fileName.startsWith("WEB-INF/lib/") && fileName.endsWith(".jar")) {
-                final boolean shouldScanJar = !scanOnlyJarOfPlugin
-                        || warFile.getName().equals(fileName.replace("WEB-INF/lib/", "").replace(".jar", ".hpi"))
-                        || fileName.contains("jenkins-core");
-                if (shouldScanJar) {
+                if (shouldScanJar(fileName)) {
                     jarReader = new JarReader(zipFile.getInputStream(entry));
                     return this.nextClass();
                 }
@@ -55,15 +93,227 @@ public class WarReader implements Closeable {
         return null;
     }
 
+    private String nextArchiveClass() throws IOException {
+        if (jarArchiveEntries != null) {
+            while (jarArchiveEntries.hasNext()) {
+                archiveEntry = jarArchiveEntries.next();
+                if (archiveEntry.getName().endsWith(".class")) {
+                    currentArchive = jarArchive;
+                    return archiveEntry.getName();
+                }
+            }
+            jarArchive = null;
+            jarArchiveEntries = null;
+        }
+        if (jarReader != null) {
+            final String fileName = jarReader.nextClass();
+            if (fileName != null) {
+                return fileName;
+            }
+            jarReader.close();
+            jarReader = null;
+        }
+        while (archiveEntries.hasNext()) {
+            archiveEntry = archiveEntries.next();
+            final String fileName = archiveEntry.getName();
+            if (fileName.startsWith("WEB-INF/lib/") && fileName.endsWith(".jar")) {
+                if (shouldScanJar(fileName)) {
+                    try {
+                        jarArchive = warArchive.openNested(archiveEntry);
+                        jarArchiveEntries = jarArchive.getEntries().iterator();
+                    } catch (ZipException e) {
+                        // not supported by ZipArchive, stream it instead
+                        jarReader = new JarReader(new ByteArrayInputStream(warArchive.read(archiveEntry)));
+                    }
+                    return this.nextArchiveClass();
+                }
+            } else if (fileName.startsWith("WEB-INF/classes/") && fileName.endsWith(".class")) {
+                currentArchive = warArchive;
+                return fileName;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the parts of the archive which can be scanned independently of each other: the classes of
+     * WEB-INF/classes and each nested jar to scan. Returns null when the archive is not memory mapped.
+     */
+    public List<Part> getParts() {
+        if (warArchive == null) {
+            return null;
+        }
+        // the parts are kept in the archive order, as nextClass() would read them
+        List<Part> parts = new ArrayList<>();
+        List<ZipArchive.Entry> classEntries = new ArrayList<>();
+        for (ZipArchive.Entry warEntry : warArchive.getEntries()) {
+            final String fileName = warEntry.getName();
+            if (fileName.startsWith("WEB-INF/lib/") && fileName.endsWith(".jar")) {
+                if (shouldScanJar(fileName)) {
+                    if (!classEntries.isEmpty()) {
+                        parts.add(new Part(warArchive, null, classEntries, null));
+                        classEntries = new ArrayList<>();
+                    }
+                    parts.add(new Part(warArchive, warEntry, null, null));
+                }
+            } else if (fileName.startsWith("WEB-INF/classes/") && fileName.endsWith(".class")) {
+                classEntries.add(warEntry);
+            }
+        }
+        if (!classEntries.isEmpty()) {
+            parts.add(new Part(warArchive, null, classEntries, null));
+        }
+        return parts;
+    }
+
+    private boolean shouldScanJar(String fileName) {
+        return !scanOnlyJarOfPlugin
+                || warFile.getName().equals(fileName.replace("WEB-INF/lib/", "").replace(".jar", ".hpi"))
+                || fileName.contains("jenkins-core");
+    }
+
+    /**
+     * Returns the content of the current class file.
+     */
+    public byte[] readClass() throws IOException {
+        if (jarReader != null) {
+            return IOUtils.toByteArray(jarReader.getInputStream());
+        }
+        if (warArchive != null) {
+            return currentArchive.read(archiveEntry);
+        }
+        try (InputStream input = zipFile.getInputStream(entry)) {
+            return IOUtils.toByteArray(input);
+        }
+    }
+
     public InputStream getInputStream() throws IOException {
         if (jarReader != null) {
             return jarReader.getInputStream();
         }
+        if (warArchive != null) {
+            return new ByteArrayInputStream(currentArchive.read(archiveEntry));
+        }
         return zipFile.getInputStream(entry);
     }
 
+    /**
+     * Classes of a war, either a nested jar not opened yet, or class entries of an opened archive.
+     */
+    public static final class Part {
+        private final ZipArchive archive;
+        private final ZipArchive.Entry jarEntry;
+        private final List<ZipArchive.Entry> classEntries;
+        // nested jar which could not be opened as a ZipArchive, it is streamed instead
+        private final byte[] jarBytes;
+
+        private Part(ZipArchive archive, ZipArchive.Entry jarEntry, List<ZipArchive.Entry> classEntries, byte[] jarBytes) {
+            this.archive = archive;
+            this.jarEntry = jarEntry;
+            this.classEntries = classEntries;
+            this.jarBytes = jarBytes;
+        }
+
+        /**
+         * Uncompressed size in bytes
+         */
+        public long getSize() {
+            if (jarEntry != null) {
+                return jarEntry.getSize();
+            }
+            if (jarBytes != null) {
+                return jarBytes.length;
+            }
+            return classEntries.stream().mapToLong(ZipArchive.Entry::getSize).sum();
+        }
+
+        /**
+         * Returns the SHA-256 of the raw bytes of a nested jar, identifying its content whatever the plugin
+         * bundling it. Returns null for an opened part.
+         */
+        public String getDigest() throws IOException {
+            if (isOpened()) {
+                return null;
+            }
+            MessageDigest messageDigest = DigestUtils.getSha256Digest();
+            messageDigest.update(archive.rawData(jarEntry));
+            return Hex.encodeHexString(messageDigest.digest());
+        }
+
+        public boolean isOpened() {
+            return jarEntry == null;
+        }
+
+        /**
+         * Opens the nested jar, so that its classes can be read or split.
+         */
+        public Part open() throws IOException {
+            if (isOpened()) {
+                return this;
+            }
+            try {
+                ZipArchive jarArchive = archive.openNested(jarEntry);
+                List<ZipArchive.Entry> jarClassEntries = new ArrayList<>();
+                for (ZipArchive.Entry entry : jarArchive.getEntries()) {
+                    if (entry.getName().endsWith(".class")) {
+                        jarClassEntries.add(entry);
+                    }
+                }
+                return new Part(jarArchive, null, jarClassEntries, null);
+            } catch (ZipException e) {
+                // not supported by ZipArchive, stream it instead
+                return new Part(null, null, null, archive.read(jarEntry));
+            }
+        }
+
+        /**
+         * Splits an opened part in two halves, or returns it alone when it cannot be split.
+         */
+        public List<Part> split() {
+            if (classEntries == null || classEntries.size() < 2) {
+                return Collections.singletonList(this);
+            }
+            int middle = classEntries.size() / 2;
+            return Arrays.asList(new Part(archive, null, classEntries.subList(0, middle), null),
+                    new Part(archive, null, classEntries.subList(middle, classEntries.size()), null));
+        }
+
+        /**
+         * Calls the handler for each class of an opened part, in the archive order.
+         */
+        public void forEachClass(ClassHandler handler) throws IOException {
+            if (jarBytes != null) {
+                try (JarReader jarReader = new JarReader(new ByteArrayInputStream(jarBytes))) {
+                    String fileName = jarReader.nextClass();
+                    while (fileName != null) {
+                        final InputStream input = jarReader.getInputStream();
+                        handler.handle(fileName, () -> IOUtils.toByteArray(input));
+                        fileName = jarReader.nextClass();
+                    }
+                }
+            } else {
+                for (ZipArchive.Entry entry : classEntries) {
+                    handler.handle(entry.getName(), () -> archive.read(entry));
+                }
+            }
+        }
+    }
+
+    public interface ClassHandler {
+        void handle(String fileName, ClassContent content);
+    }
+
+    public interface ClassContent {
+        byte[] read() throws IOException;
+    }
+
     @Override
     public void close() throws IOException {
-        zipFile.close();
+        if (jarReader != null) {
+            jarReader.close();
+        }
+        if (zipFile != null) {
+            zipFile.close();
+        }
     }
 }
@@ -0,0 +1,251 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Zip file read through a memory mapping, parsing the central directory itself to give random access to the entries.
+ * <p>
+ * A nested archive which is STORED (not compressed) is a slice of the outer mapping, so its entries are read without
+ * copying it first. ZIP64 and encrypted archives are not supported and are rejected with a {@link ZipException},
+ * in which case {@link java.util.zip.ZipFile} is to be used instead.
+ * <p>
+ * Instances are immutable and can be read from several threads.
+ */
+public final class ZipArchive {
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final ByteBuffer buffer;
+    private final List<Entry> entries;
+
+    private ZipArchive(ByteBuffer buffer) throws ZipException {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.entries = Collections.unmodifiableList(readCentralDirectory());
+    }
+
+    /**
+     * Maps the given file in memory and reads its central directory.
+     */
+    public static ZipArchive map(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Too large to be mapped: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            return new ZipArchive(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Reads the central directory of a zip file already in memory.
+     */
+    public static ZipArchive of(ByteBuffer buffer) throws ZipException {
+        return new ZipArchive(buffer);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Size of the archive in bytes
+     */
+    public int size() {
+        return buffer.limit();
+    }
+
+    /**
+     * Returns a copy of the uncompressed content of the entry.
+     */
+    public byte[] read(Entry entry) throws IOException {
+        if (entry.method == STORED) {
+            byte[] bytes = new byte[entry.size];
+            ByteBuffer data = data(entry);
+            data.get(bytes);
+            return bytes;
+        }
+        return inflate(entry);
+    }
+
+    /**
+     * Opens an entry which is itself a zip file. The nested archive shares the memory of this one when the entry is
+     * STORED, and is inflated on the heap otherwise.
+     */
+    public ZipArchive openNested(Entry entry) throws IOException {
+        if (entry.method == STORED) {
+            return new ZipArchive(data(entry));
+        }
+        return new ZipArchive(ByteBuffer.wrap(inflate(entry)));
+    }
+
+    /**
+     * Returns the raw (possibly compressed) bytes of the entry, without copying them.
+     */
+    public ByteBuffer rawData(Entry entry) throws ZipException {
+        return data(entry).asReadOnlyBuffer();
+    }
+
+    private ByteBuffer data(Entry entry) throws ZipException {
+        int headerOffset = entry.localHeaderOffset;
+        checkBounds(headerOffset, 30);
+        if (buffer.getInt(headerOffset) != LOCAL_FILE_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for " + entry.name);
+        }
+        int dataOffset = headerOffset + 30 + unsignedShort(headerOffset + 26) + unsignedShort(headerOffset + 28);
+        checkBounds(dataOffset, entry.compressedSize);
+        ByteBuffer data = buffer.duplicate();
+        data.position(dataOffset);
+        data.limit(dataOffset + entry.compressedSize);
+        return data.slice();
+    }
+
+    private byte[] inflate(Entry entry) throws IOException {
+        if (entry.method != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+        ByteBuffer data = data(entry);
+        byte[] compressed = new byte[entry.compressedSize];
+        data.get(compressed);
+        byte[] bytes = new byte[entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < bytes.length && !inflater.finished()) {
+                int inflated = inflater.inflate(bytes, length, bytes.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Truncated entry " + entry.name);
+                }
+                length += inflated;
+            }
+            if (length != bytes.length) {
+                throw new ZipException("Invalid size for entry " + entry.name);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflated data for " + entry.name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return bytes;
+    }
+
+    private List<Entry> readCentralDirectory() throws ZipException {
+        int endOffset = findEndOfCentralDirectory();
+        int entryCount = unsignedShort(endOffset + 10);
+        long directorySize = unsignedInt(endOffset + 12);
+        long directoryOffset = unsignedInt(endOffset + 16);
+        if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 archives are not supported");
+        }
+        if (directoryOffset + directorySize > endOffset) {
+            throw new ZipException("Invalid central directory");
+        }
+
+        List<Entry> list = new ArrayList<>(entryCount);
+        int offset = (int) directoryOffset;
+        for (int i = 0; i < entryCount; i++) {
+            checkBounds(offset, 46);
+            if (buffer.getInt(offset) != CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new ZipException("Invalid central directory header");
+            }
+            int flags = unsignedShort(offset + 8);
+            if ((flags & 1) != 0) {
+                throw new ZipException("Encrypted archives are not supported");
+            }
+            int method = unsignedShort(offset + 10);
+            long compressedSize = unsignedInt(offset + 20);
+            long size = unsignedInt(offset + 24);
+            int nameLength = unsignedShort(offset + 28);
+            int extraLength = unsignedShort(offset + 30);
+            int commentLength = unsignedShort(offset + 32);
+            long localHeaderOffset = unsignedInt(offset + 42);
+            if (compressedSize > Integer.MAX_VALUE || size > Integer.MAX_VALUE || localHeaderOffset > Integer.MAX_VALUE) {
+                throw new ZipException("ZIP64 archives are not supported");
+            }
+            checkBounds(offset + 46, nameLength);
+            byte[] name = new byte[nameLength];
+            ByteBuffer nameBuffer = buffer.duplicate();
+            nameBuffer.position(offset + 46);
+            nameBuffer.get(name);
+            list.add(new Entry(new String(name, StandardCharsets.UTF_8), method,
+                    (int) compressedSize, (int) size, (int) localHeaderOffset));
+            offset += 46 + nameLength + extraLength + commentLength;
+        }
+        return list;
+    }
+
+    private int findEndOfCentralDirectory() throws ZipException {
+        // the record is at the end, only followed by a comment of at most 65535 bytes
+        int lowest = Math.max(0, buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE - 0xFFFF);
+        for (int offset = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; offset >= lowest; offset--) {
+            if (buffer.getInt(offset) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return offset;
+            }
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    private void checkBounds(int offset, int length) throws ZipException {
+        if (offset < 0 || length < 0 || (long) offset + length > buffer.limit()) {
+            throw new ZipException("Offset out of archive bounds");
+        }
+    }
+
+    private int unsignedShort(int offset) {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    private long unsignedInt(int offset) {
+        return buffer.getInt(offset) & 0xFFFFFFFFL;
+    }
+
+    public static final class Entry {
+        private final String name;
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int localHeaderOffset;
+
+        private Entry(String name, int method, int compressedSize, int size, int localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Uncompressed size in bytes
+         */
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -9,13 +9,26 @@ import org.json.JSONObject;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 public class DeprecatedUnusedApiReport extends Report {
-    public DeprecatedUnusedApiReport(DeprecatedApi api, List<DeprecatedUsage> usages, File outputDir, String reportName) {
-        super(api, usages, outputDir, reportName);
+    // all the classes, fields and methods used by the plugins
+    private final Set<String> usedClasses = new HashSet<>();
+    private final Set<String> usedFields = new HashSet<>();
+    private final Set<String> usedMethods = new HashSet<>();
+
+    public DeprecatedUnusedApiReport(DeprecatedApi api, File outputDir, String reportName) {
+        super(api, outputDir, reportName);
+    }
+
+    @Override
+    public void add(DeprecatedUsage usage) {
+        usedClasses.addAll(usage.getClasses());
+        usedFields.addAll(usage.getFields());
+        usedMethods.addAll(usage.getMethods());
     }
 
     @Override
@@ -24,15 +37,12 @@ public class DeprecatedUnusedApiReport extends Report {
 
         {
             writer.append("<div class='classes'><h2>Classes</h2><ul>\n");
-            CLASSES:
             for (String deprecatedClass : new TreeSet<>(api.getClasses())) {
                 if (!isRelevantSignature(deprecatedClass)) {
                     continue;
                 }
-                for (DeprecatedUsage usage : usages) {
-                    if (usage.getClasses().contains(deprecatedClass)) {
-                        continue CLASSES;
-                    }
+                if (usedClasses.contains(deprecatedClass)) {
+                    continue;
                 }
                 writer.append("<li>").append(JavadocUtil.signatureToJenkinsdocLink(deprecatedClass)).append("</li>\n");
             }
@@ -41,15 +51,12 @@ public class DeprecatedUnusedApiReport extends Report {
 
         {
             writer.append("<div class='fields'><h2>Fields</h2><ul>\n");
-            FIELDS:
             for (String deprecatedField : new TreeSet<>(api.getFields())) {
                 if (!isRelevantSignature(deprecatedField)) {
                     continue;
                 }
-                for (DeprecatedUsage usage : usages) {
-                    if (usage.getFields().contains(deprecatedField)) {
-                        continue FIELDS;
-                    }
+                if (usedFields.contains(deprecatedField)) {
+                    continue;
                 }
                 writer.append("<li>").append(JavadocUtil.signatureToJenkinsdocLink(deprecatedField)).append("</li>\n");
             }
@@ -58,15 +65,12 @@ public class DeprecatedUnusedApiReport extends Report {
 
         {
             writer.append("<div class='methods'><h2>Methods</h2><ul>\n");
-            METHODS:
             for (String deprecatedMethod : new TreeSet<>(api.getMethods())) {
                 if (!isRelevantSignature(deprecatedMethod)) {
                     continue;
                 }
-                for (DeprecatedUsage usage : usages) {
-                    if (usage.getMethods().contains(deprecatedMethod)) {
-                        continue METHODS;
-                    }
+                if (usedMethods.contains(deprecatedMethod)) {
+                    continue;
                 }
                 writer.append("<li>").append(JavadocUtil.signatureToJenkinsdocLink(deprecatedMethod)).append("</li>\n");
             }
@@ -80,15 +84,12 @@ public class DeprecatedUnusedApiReport extends Report {
 
         {
             SortedSet<String> unusedClasses = new TreeSet<>();
-            CLASSES:
             for (String deprecatedClass : new TreeSet<>(api.getClasses())) {
                 if (!isRelevantSignature(deprecatedClass)) {
                     continue;
                 }
-                for (DeprecatedUsage usage : usages) {
-                    if (usage.getClasses().contains(deprecatedClass)) {
-                        continue CLASSES;
-                    }
+                if (usedClasses.contains(deprecatedClass)) {
+                    continue;
                 }
                 unusedClasses.add(deprecatedClass);
             }
@@ -97,15 +98,12 @@ public class DeprecatedUnusedApiReport extends Report {
 
         {
             SortedSet<String> unusedFields = new TreeSet<>();
-            FIELDS:
             for (String deprecatedField : new TreeSet<>(api.getFields())) {
                 if (!isRelevantSignature(deprecatedField)) {
                     continue;
                 }
-                for (DeprecatedUsage usage : usages) {
-                    if (usage.getFields().contains(deprecatedField)) {
-                        continue FIELDS;
-                    }
+                if (usedFields.contains(deprecatedField)) {
+                    continue;
                 }
                 unusedFields.add(deprecatedField);
             }
@@ -114,15 +112,12 @@ public class DeprecatedUnusedApiReport extends Report {
 
         {
             SortedSet<String> unusedMethods = new TreeSet<>();
-            METHODS:
             for (String deprecatedMethod : api.getMethods()) {
                 if (!isRelevantSignature(deprecatedMethod)) {
                     continue;
                 }
-                for (DeprecatedUsage usage : usages) {
-                    if (usage.getMethods().contains(deprecatedMethod)) {
-                        continue METHODS;
-                    }
+                if (usedMethods.contains(deprecatedMethod)) {
+                    continue;
                 }
                 unusedMethods.add(deprecatedMethod);
             }
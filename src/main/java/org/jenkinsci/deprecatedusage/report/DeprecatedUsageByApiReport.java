@@ -9,7 +9,6 @@ import org.json.JSONObject;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
@@ -22,52 +21,50 @@ import java.util.TreeSet;
  */
 public class DeprecatedUsageByApiReport extends Report {
 
-    private SortedMap<String, SortedSet<String>> deprecatedClassesToPlugins = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-    private SortedMap<String, SortedSet<String>> deprecatedFieldsToPlugins = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-    private SortedMap<String, SortedSet<String>> deprecatedMethodsToPlugins = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    // plugins by name exactly, listed by names differing by more than the case once all the plugins are added
+    private final SortedMap<String, SortedSet<String>> deprecatedClassesToPlugins = new TreeMap<>();
+    private final SortedMap<String, SortedSet<String>> deprecatedFieldsToPlugins = new TreeMap<>();
+    private final SortedMap<String, SortedSet<String>> deprecatedMethodsToPlugins = new TreeMap<>();
 
-    public DeprecatedUsageByApiReport(DeprecatedApi api, List<DeprecatedUsage> usages, File outputDir, String reportName) {
-        super(api, usages, outputDir, reportName);
-
-        SortedSet<String> deprecatedClassesUsed = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        SortedSet<String> deprecatedFieldsUsed = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        SortedSet<String> deprecatedMethodsUsed = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-
-        // collect all deprecated methods, classes and fields used across all plugins
-        for (DeprecatedUsage usage : usages) {
-            Set<String> usageClasses = usage.getClasses();
-            Set<String> usageMethods = usage.getMethods();
-            Set<String> usageFields = usage.getFields();
+    public DeprecatedUsageByApiReport(DeprecatedApi api, File outputDir, String reportName) {
+        super(api, outputDir, reportName);
+    }
 
-            deprecatedClassesUsed.addAll(usageClasses);
-            deprecatedMethodsUsed.addAll(usageMethods);
-            deprecatedFieldsUsed.addAll(usageFields);
+    @Override
+    public void add(DeprecatedUsage usage) {
+        String pluginName = usage.getPlugin().artifactId;
+        addUsage(usage.getClasses(), deprecatedClassesToPlugins, pluginName);
+        addUsage(usage.getMethods(), deprecatedMethodsToPlugins, pluginName);
+        addUsage(usage.getFields(), deprecatedFieldsToPlugins, pluginName);
+    }
 
-            for (String className : deprecatedClassesUsed) {
-                if (usageClasses.contains(className)) {
-                    deprecatedClassesToPlugins.computeIfAbsent(className, s -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)).add(usage.getPlugin().artifactId);
-                }
-            }
-            for (String methodName : deprecatedMethodsUsed) {
-                if (usageMethods.contains(methodName)) {
-                    deprecatedMethodsToPlugins.computeIfAbsent(methodName, s -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)).add(usage.getPlugin().artifactId);
-                }
-            }
-            for (String fieldName : deprecatedFieldsUsed) {
-                if (usageFields.contains(fieldName)) {
-                    deprecatedFieldsToPlugins.computeIfAbsent(fieldName, s -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)).add(usage.getPlugin().artifactId);
-                }
-            }
+    private static void addUsage(Set<String> usageNames, SortedMap<String, SortedSet<String>> namesToPlugins, String pluginName) {
+        for (String name : usageNames) {
+            namesToPlugins.computeIfAbsent(name, s -> new TreeSet<>()).add(pluginName);
         }
     }
 
+    /**
+     * Keeps the first in natural order of the names only differing by the case, and of the plugins, whatever the order
+     * the plugins were added in
+     */
+    private static SortedMap<String, SortedSet<String>> caseInsensitive(SortedMap<String, SortedSet<String>> namesToPlugins) {
+        SortedMap<String, SortedSet<String>> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        namesToPlugins.forEach((name, plugins) -> map.computeIfAbsent(name, n -> {
+            SortedSet<String> caseInsensitivePlugins = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            caseInsensitivePlugins.addAll(plugins);
+            return caseInsensitivePlugins;
+        }));
+        return map;
+    }
+
     @Override
     protected void generateHtmlReport(Writer writer) throws IOException {
         writer.append("<h1>Deprecated Usage in Plugins By API</h1>");
 
         {
             writer.append("<h2>Classes</h2>\n");
-            for (Map.Entry<String, SortedSet<String>> entry : deprecatedClassesToPlugins.entrySet()) {
+            for (Map.Entry<String, SortedSet<String>> entry : caseInsensitive(deprecatedClassesToPlugins).entrySet()) {
                 writer.append("<div class='class'>\n");
                 writer.append("<h3 id='").append(entry.getKey().replaceAll("[^a-zA-Z0-9-]", "_"))
                         .append("'>").append(JavadocUtil.signatureToJenkinsdocLink(entry.getKey())).append("</h3><ul>\n");
@@ -81,7 +78,7 @@ public class DeprecatedUsageByApiReport extends Report {
 
         {
             writer.append("<h2>Fields</h2>\n");
-            for (Map.Entry<String, SortedSet<String>> entry : deprecatedFieldsToPlugins.entrySet()) {
+            for (Map.Entry<String, SortedSet<String>> entry : caseInsensitive(deprecatedFieldsToPlugins).entrySet()) {
                 writer.append("<div class='field'>\n");
                 writer.append("<h3 id='").append(entry.getKey().replaceAll("[^a-zA-Z0-9-]", "_"))
                         .append("'>").append(JavadocUtil.signatureToJenkinsdocLink(entry.getKey())).append("</h3><ul>\n");
@@ -95,7 +92,7 @@ public class DeprecatedUsageByApiReport extends Report {
 
         {
             writer.append("<h2>Methods</h2>\n");
-            for (Map.Entry<String, SortedSet<String>> entry : deprecatedMethodsToPlugins.entrySet()) {
+            for (Map.Entry<String, SortedSet<String>> entry : caseInsensitive(deprecatedMethodsToPlugins).entrySet()) {
                 writer.append("<div class='method'>\n");
                 writer.append("<h3 id='").append(entry.getKey().replaceAll("[^a-zA-Z0-9-]", "_"))
                         .append("'>").append(JavadocUtil.signatureToJenkinsdocLink(entry.getKey())).append("</h3><ul>\n");
@@ -112,9 +109,9 @@ public class DeprecatedUsageByApiReport extends Report {
     protected void generateJsonReport(Writer writer) throws IOException {
         JSONObject map = new JSONObject();
 
-        map.put("classes", deprecatedClassesToPlugins);
-        map.put("methods", deprecatedMethodsToPlugins);
-        map.put("fields", deprecatedFieldsToPlugins);
+        map.put("classes", caseInsensitive(deprecatedClassesToPlugins));
+        map.put("methods", caseInsensitive(deprecatedMethodsToPlugins));
+        map.put("fields", caseInsensitive(deprecatedFieldsToPlugins));
 
         writer.append(map.toString(2));
     }
@@ -1,8 +1,10 @@
 package org.jenkinsci.deprecatedusage.report;
 
+import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.jenkinsci.deprecatedusage.DeprecatedApi;
 import org.jenkinsci.deprecatedusage.DeprecatedUsage;
 import org.jenkinsci.deprecatedusage.JavadocUtil;
+import org.jenkinsci.deprecatedusage.Plugin;
 import org.jenkinsci.deprecatedusage.Report;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -10,52 +12,75 @@ import org.json.JSONObject;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Comparator;
-import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * This report shows deprecated APIs in Jenkins and Stapler that are used by plugins, grouped by the plugins, listing APIs.
  */
 public class DeprecatedUsageByPluginReport extends Report {
-    public DeprecatedUsageByPluginReport(DeprecatedApi api, List<DeprecatedUsage> usages, File outputDir, String reportName) {
-        super(api, usages, outputDir, reportName);
+    // what each plugin uses, by plugin id for the JSON report and sorted by plugin for the HTML one, so that the
+    // reports do not depend on the order the usages were added in
+    private final SortedMap<String, PluginUsage> usagesByArtifactId = new TreeMap<>();
+    private final SortedMap<Plugin, PluginUsage> usagesByPlugin = new TreeMap<>();
+
+    public DeprecatedUsageByPluginReport(DeprecatedApi api, File outputDir, String reportName) {
+        super(api, outputDir, reportName);
     }
 
     @Override
-    protected void generateHtmlReport(Writer writer) throws IOException {
-        SortedSet<DeprecatedUsage> set = new TreeSet<>(Comparator.comparing(DeprecatedUsage::getPlugin));
-        set.addAll(usages);
+    public void add(DeprecatedUsage usage) {
+        PluginUsage pluginUsage = new PluginUsage(usage);
+        // the usages are added in any order, the highest version of a plugin found in several update centers wins
+        usagesByArtifactId.merge(usage.getPlugin().artifactId, pluginUsage,
+                (previous, added) -> compareVersions(previous.plugin.version, added.plugin.version) >= 0 ? previous : added);
+        // plugins only differing by the case are the same entry, the first in natural order is kept
+        usagesByPlugin.merge(usage.getPlugin(), pluginUsage,
+                (previous, added) -> previous.plugin.toString().compareTo(added.plugin.toString()) <= 0 ? previous : added);
+    }
 
+    /**
+     * Compares versions as Maven does, 1.10 being after 1.9 and 2.0 after 2.0-beta-1. Versions which are equivalent
+     * but written differently, as 1.0 and 1.0.0, are ordered by their text so that the result does not depend on the
+     * order they were added in.
+     */
+    static int compareVersions(String version, String otherVersion) {
+        int cmp = new ComparableVersion(version).compareTo(new ComparableVersion(otherVersion));
+        return cmp != 0 ? cmp : version.compareTo(otherVersion);
+    }
+
+    @Override
+    protected void generateHtmlReport(Writer writer) throws IOException {
         writer.append("<h1>Deprecated Usage By Plugin</h1>");
 
-        for (DeprecatedUsage usage : set) {
-            if (!usage.hasDeprecatedUsage()) {
+        for (PluginUsage usage : usagesByPlugin.values()) {
+            if (usage.classes.isEmpty() && usage.methods.isEmpty() && usage.fields.isEmpty()) {
                 continue;
             }
-            writer.append("<div class='plugin'><h2 id='").append(usage.getPlugin().artifactId).append("'><a href='")
-                    .append(usage.getPlugin().getUrl()).append("'>").append(usage.getPlugin().toString()).append("</a></h2>");
+            writer.append("<div class='plugin'><h2 id='").append(usage.plugin.artifactId).append("'><a href='")
+                    .append(usage.plugin.getUrl()).append("'>").append(usage.plugin.toString()).append("</a></h2>");
 
-            if (usage.getClasses().size() > 0) {
+            if (usage.classes.size() > 0) {
                 writer.append("<h3>Classes</h3><ul>");
-                for (String clazz : usage.getClasses()) {
+                for (String clazz : usage.classes) {
                     writer.append("<li>").append(JavadocUtil.signatureToJenkinsdocLink(clazz)).append("</li>\n");
                 }
                 writer.append("</ul>\n\n");
             }
 
-            if (usage.getMethods().size() > 0) {
+            if (usage.methods.size() > 0) {
                 writer.append("<h3>Methods</h3><ul>");
-                for (String method : usage.getMethods()) {
+                for (String method : usage.methods) {
                     writer.append("<li>").append(JavadocUtil.signatureToJenkinsdocLink(method)).append("</li>\n");
                 }
                 writer.append("</ul>\n\n");
             }
 
-            if (usage.getFields().size() > 0) {
+            if (usage.fields.size() > 0) {
                 writer.append("<h3>Fields</h3><ul>");
-                for (String field : usage.getFields()) {
+                for (String field : usage.fields) {
                     writer.append("<li>").append(JavadocUtil.signatureToJenkinsdocLink(field)).append("</li>\n");
                 }
                 writer.append("</ul>\n\n");
@@ -67,31 +92,49 @@ public class DeprecatedUsageByPluginReport extends Report {
     @Override
     protected void generateJsonReport(Writer writer) throws IOException {
         JSONObject map = new JSONObject();
-        for (DeprecatedUsage usage : usages) {
+        for (Map.Entry<String, PluginUsage> entry : usagesByArtifactId.entrySet()) {
+            PluginUsage usage = entry.getValue();
             JSONObject plugin = new JSONObject();
 
-            plugin.put("plugin", usage.getPlugin().toString());
+            plugin.put("plugin", usage.plugin.toString());
 
             JSONArray classes = new JSONArray();
-            for (String clazz : usage.getClasses()) {
+            for (String clazz : usage.classes) {
                 classes.put(clazz);
             }
             plugin.put("classes", classes);
 
             JSONArray methods = new JSONArray();
-            for (String method : usage.getMethods()) {
+            for (String method : usage.methods) {
                 methods.put(method);
             }
             plugin.put("methods", methods);
 
             JSONArray fields = new JSONArray();
-            for (String field : usage.getFields()) {
+            for (String field : usage.fields) {
                 fields.put(field);
             }
             plugin.put("fields", fields);
 
-            map.put(usage.getPlugin().artifactId, plugin);
+            map.put(entry.getKey(), plugin);
         }
         writer.append(map.toString(2));
     }
+
+    /**
+     * What the report keeps of the usage of a plugin
+     */
+    private static final class PluginUsage {
+        private final Plugin plugin;
+        private final Set<String> classes;
+        private final Set<String> methods;
+        private final Set<String> fields;
+
+        PluginUsage(DeprecatedUsage usage) {
+            this.plugin = usage.getPlugin();
+            this.classes = usage.getClasses();
+            this.methods = usage.getMethods();
+            this.fields = usage.getFields();
+        }
+    }
 }
@@ -2,12 +2,13 @@ package org.jenkinsci.deprecatedusage.report;
 
 import org.jenkinsci.deprecatedusage.DeprecatedUsage;
 
-import java.util.ArrayList;
+import org.jenkinsci.deprecatedusage.symbol.IntObjectMap;
+import org.jenkinsci.deprecatedusage.symbol.IntSet;
+import org.jenkinsci.deprecatedusage.symbol.SymbolTable;
+
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /*
  * Main idea
@@ -19,22 +20,25 @@ public class LevelReportStorage {
     /* Hacky way to store the information, with risk of modification by other instances */
 
     // it is assumed that a method full signature is unique
+    // methods are ids of the SymbolTable, materialized as strings by the reports
     /**
      * List of methods in a particular plugin
      */
-    public final Map<String, Set<String>> pluginsToMethods = new HashMap<>();
+    public final Map<String, IntSet> pluginsToMethods = new HashMap<>();
     /**
      * Link back the methods to their plugin
      */
-    public final Map<String, String> methodToPlugin = new HashMap<>();
+    public final IntObjectMap<String> methodToPlugin = new IntObjectMap<>();
     /**
      * The different levels a method was found at
      */
-    public final Map<String, Set<Integer>> methodToLevels = new HashMap<>();
+    public final IntObjectMap<IntSet> methodToLevels = new IntObjectMap<>();
     
     // To rebuild the dependency tree
-    public final Map<String, Set<String>> globalConsumerToProviders = new HashMap<>();
-    public final Map<String, Set<String>> globalProviderToConsumers = new HashMap<>();
+    public final IntObjectMap<IntSet> globalConsumerToProviders = new IntObjectMap<>();
+    public final IntObjectMap<IntSet> globalProviderToConsumers = new IntObjectMap<>();
+
+    private final SymbolTable symbols = SymbolTable.get();
 
     public LevelReportStorage() {
     }
@@ -43,33 +47,53 @@ public class LevelReportStorage {
         usages.forEach(u -> {
             String pluginName = u.getPlugin().artifactId;
 
-            Map<String, Set<String>> currPluginProviderToConsumers = new HashMap<>(u.getProviderToConsumers());
-            Map<String, Set<String>> currPluginConsumerToProviders = new HashMap<>(u.getConsumerToProviders());
-            if (!currPluginProviderToConsumers.isEmpty()) {
-                // kept as a "for i" format to ease debug in case of very large number of occurrences
-                List<String> keys = new ArrayList<>(currPluginProviderToConsumers.keySet());
-                for (int i = 0; i < keys.size(); i++) {
-                    String provider = keys.get(i);
-                    Set<String> consumers = currPluginProviderToConsumers.get(provider);
-                    globalProviderToConsumers.computeIfAbsent(provider, s -> new HashSet<>()).addAll(consumers);
+            IntObjectMap<IntSet> currPluginProviderToConsumers = u.getProviderToConsumers();
+            currPluginProviderToConsumers.forEach((provider, consumers) -> {
+                globalProviderToConsumers.computeIfAbsent(provider, k -> new IntSet()).addAll(consumers);
 
-                    consumers.forEach(consumer -> {
-                        methodToLevels.computeIfAbsent(consumer, s -> new HashSet<>()).add(level);
-                        pluginsToMethods.computeIfAbsent(pluginName, s -> new HashSet<>()).add(consumer);
-                        methodToPlugin.put(consumer, pluginName);
+                consumers.forEach(consumer -> {
+                    methodToLevels.computeIfAbsent(consumer, k -> new IntSet()).add(level);
+                    pluginsToMethods.computeIfAbsent(pluginName, s -> new IntSet()).add(consumer);
+                    methodToPlugin.put(consumer, pluginName);
 
-                        currPluginConsumerToProviders.computeIfAbsent(consumer, s -> new HashSet<>())
-                                .add(provider);
-                        globalConsumerToProviders.computeIfAbsent(consumer, s -> new HashSet<>())
-                                .add(provider);
-                    });
-                }
-            }
+                    globalConsumerToProviders.computeIfAbsent(consumer, k -> new IntSet())
+                            .add(provider);
+                });
+            });
         });
     }
 
+    /**
+     * Methods found in the plugin, materialized
+     */
+    public List<String> getPluginMethods(String pluginName) {
+        return symbols.symbols(pluginsToMethods.get(pluginName));
+    }
+
+    /**
+     * Methods or fields called by the method, materialized, or null if there are none
+     */
+    public List<String> getProviders(String methodSignature) {
+        int id = symbols.find(methodSignature);
+        IntSet providers = id >= 0 ? globalConsumerToProviders.get(id) : null;
+        return providers == null ? null : symbols.symbols(providers);
+    }
+
+    /**
+     * Lowest level the method was found at
+     */
+    public int getMinLevel(String methodSignature) {
+        int id = symbols.find(methodSignature);
+        IntSet levels = id >= 0 ? methodToLevels.get(id) : null;
+        if (levels == null) {
+            throw new IllegalArgumentException("Method not found at any level: " + methodSignature);
+        }
+        return levels.min();
+    }
+
     public String getPluginSourceForMethod(String methodSignature) {
-        String ownerPlugin = methodToPlugin.get(methodSignature);
+        int id = symbols.find(methodSignature);
+        String ownerPlugin = id >= 0 ? methodToPlugin.get(id) : null;
         String methodNameAndPlugin = (ownerPlugin != null ? ownerPlugin : "<other>") + " " + methodSignature;
         return methodNameAndPlugin;
     }
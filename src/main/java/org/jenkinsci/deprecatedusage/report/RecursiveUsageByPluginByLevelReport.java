@@ -17,7 +17,7 @@ public class RecursiveUsageByPluginByLevelReport extends Report {
     private LevelReportStorage levelReportStorage;
 
     public RecursiveUsageByPluginByLevelReport(LevelReportStorage levelReportStorage, File outputDir, String reportName) {
-        super(null, null, outputDir, reportName);
+        super(null, outputDir, reportName);
         this.levelReportStorage = levelReportStorage;
     }
 
@@ -34,11 +34,10 @@ public class RecursiveUsageByPluginByLevelReport extends Report {
         pluginNames.sort(String::compareToIgnoreCase);
 
         pluginNames.forEach(pluginName -> {
-            Set<String> pluginMethods = levelReportStorage.pluginsToMethods.get(pluginName);
+            List<String> pluginMethods = levelReportStorage.getPluginMethods(pluginName);
             Map<Integer, Set<String>> minLevelToMethods = new HashMap<>();
             pluginMethods.forEach(method -> {
-                Set<Integer> levels = levelReportStorage.methodToLevels.get(method);
-                Integer minLevel = levels.stream().min(Integer::compareTo).get();
+                Integer minLevel = levelReportStorage.getMinLevel(method);
                 minLevelToMethods.computeIfAbsent(minLevel, s -> new HashSet<>()).add(method);
             });
 
@@ -54,7 +53,7 @@ public class RecursiveUsageByPluginByLevelReport extends Report {
                 methodsAtCurrLevel.sort(String::compareToIgnoreCase);
 
                 methodsAtCurrLevel.forEach(method -> {
-                    List<String> providers = new ArrayList<>(levelReportStorage.globalConsumerToProviders.get(method));
+                    List<String> providers = levelReportStorage.getProviders(method);
                     providers.sort(String::compareToIgnoreCase);
                     methodContent.put(method, providers);
                 });
@@ -15,7 +15,7 @@ public class RecursiveUsageByPluginFlatReducedReport extends Report {
     private LevelReportStorage levelReportStorage;
 
     public RecursiveUsageByPluginFlatReducedReport(LevelReportStorage levelReportStorage, File outputDir, String reportName) {
-        super(null, null, outputDir, reportName);
+        super(null, outputDir, reportName);
         this.levelReportStorage = levelReportStorage;
     }
 
@@ -32,7 +32,7 @@ public class RecursiveUsageByPluginFlatReducedReport extends Report {
         pluginNames.sort(String::compareToIgnoreCase);
 
         pluginNames.forEach(pluginName -> {
-            List<String> pluginMethods = new ArrayList<>(levelReportStorage.pluginsToMethods.get(pluginName));
+            List<String> pluginMethods = levelReportStorage.getPluginMethods(pluginName);
             pluginMethods.sort(String::compareToIgnoreCase);
             
             JSONObject methodHierarchies = JsonHelper.createOrderedJSONObject();
@@ -68,11 +68,10 @@ public class RecursiveUsageByPluginFlatReducedReport extends Report {
 
         alreadyVisitedThisTime.add(method);
 
-        Set<String> callers = levelReportStorage.globalConsumerToProviders.get(method);
-        if (callers == null) {
+        List<String> orderedCallers = levelReportStorage.getProviders(method);
+        if (orderedCallers == null) {
             return "";
         } else {
-            List<String> orderedCallers = new ArrayList<>(callers);
             orderedCallers.sort(String::compareToIgnoreCase);
 
             JSONObject result = new JSONObject();
@@ -99,7 +98,7 @@ public class RecursiveUsageByPluginFlatReducedReport extends Report {
             allSecondaryMethods.add(method);
         }
 
-        Set<String> callers = levelReportStorage.globalConsumerToProviders.get(method);
+        List<String> callers = levelReportStorage.getProviders(method);
         if (callers != null) {
             callers.forEach(s -> {
                 collectCallHierarchy(s, level + 1, allSecondaryMethods);
@@ -15,7 +15,7 @@ public class RecursiveUsageByPluginFlatReport extends Report {
     private LevelReportStorage levelReportStorage;
 
     public RecursiveUsageByPluginFlatReport(LevelReportStorage levelReportStorage, File outputDir, String reportName) {
-        super(null, null, outputDir, reportName);
+        super(null, outputDir, reportName);
         this.levelReportStorage = levelReportStorage;
     }
 
@@ -34,7 +34,7 @@ public class RecursiveUsageByPluginFlatReport extends Report {
         pluginNames.forEach(pluginName -> {
             JSONObject methodHierarchies = JsonHelper.createOrderedJSONObject();
 
-            List<String> pluginMethods = new ArrayList<>(levelReportStorage.pluginsToMethods.get(pluginName));
+            List<String> pluginMethods = levelReportStorage.getPluginMethods(pluginName);
             pluginMethods.sort(String::compareToIgnoreCase);
             pluginMethods.forEach(method -> {
                 String methodNameAndPlugin = levelReportStorage.getPluginSourceForMethod(method);
@@ -58,11 +58,10 @@ public class RecursiveUsageByPluginFlatReport extends Report {
 
         alreadyVisited.add(method);
 
-        Set<String> callers = levelReportStorage.globalConsumerToProviders.get(method);
-        if (callers == null) {
+        List<String> orderedCallers = levelReportStorage.getProviders(method);
+        if (orderedCallers == null) {
             return "";
         } else {
-            List<String> orderedCallers = new ArrayList<>(callers);
             orderedCallers.sort(String::compareToIgnoreCase);
 
             JSONObject result = new JSONObject();
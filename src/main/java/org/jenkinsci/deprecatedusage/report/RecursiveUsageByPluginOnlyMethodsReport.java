@@ -14,7 +14,7 @@ public class RecursiveUsageByPluginOnlyMethodsReport extends Report {
     private LevelReportStorage levelReportStorage;
 
     public RecursiveUsageByPluginOnlyMethodsReport(LevelReportStorage levelReportStorage, File outputDir, String reportName) {
-        super(null, null, outputDir, reportName);
+        super(null, outputDir, reportName);
         this.levelReportStorage = levelReportStorage;
     }
 
@@ -31,7 +31,7 @@ public class RecursiveUsageByPluginOnlyMethodsReport extends Report {
         pluginNames.sort(String::compareToIgnoreCase);
 
         pluginNames.forEach(pluginName -> {
-            List<String> pluginMethods = new ArrayList<>(levelReportStorage.pluginsToMethods.get(pluginName));
+            List<String> pluginMethods = levelReportStorage.getPluginMethods(pluginName);
             pluginMethods.sort(String::compareToIgnoreCase);
             map.put(pluginName, new JSONArray(pluginMethods));
         });
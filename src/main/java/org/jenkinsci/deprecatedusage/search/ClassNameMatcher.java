@@ -0,0 +1,358 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2021, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.deprecatedusage.search;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Matches class names directly against the modified UTF-8 bytes of a class file constant pool,
+ * without decoding them into a String.
+ * <p>
+ * The class patterns of a {@link SearchCriteria} are compiled into a byte trie for the exact names and the
+ * {@code Xxx*} patterns, a trie of the reversed bytes for the {@code *Xxx} patterns, and an Aho-Corasick automaton
+ * for the {@code *Xxx*} patterns, so that the cost of a match does not depend on the number of patterns.
+ * It answers exactly for the patterns, but the criteria may look for fewer names than its patterns, so a match is to
+ * be confirmed with {@link SearchCriteria#isLookingForClass(String)}.
+ */
+public final class ClassNameMatcher {
+    private static final Map<SearchCriteria, ClassNameMatcher> MATCHERS = new WeakHashMap<>();
+
+    private final ByteTrie prefixTrie;
+    private final ByteTrie suffixTrie;
+    private final ByteTrie contained;
+
+    private ClassNameMatcher(ByteTrie prefixTrie, ByteTrie suffixTrie, ByteTrie contained) {
+        this.prefixTrie = prefixTrie;
+        this.suffixTrie = suffixTrie;
+        this.contained = contained;
+    }
+
+    /**
+     * Returns the matcher of the given criteria, compiled on first use
+     */
+    public static ClassNameMatcher of(SearchCriteria searchCriteria) {
+        synchronized (MATCHERS) {
+            return MATCHERS.computeIfAbsent(searchCriteria, sc -> compile(sc.getClassPatterns()));
+        }
+    }
+
+    /**
+     * @param classPatterns Class names, in their internal form, with the same wildcard syntax as the additional
+     *                      classes file
+     */
+    public static ClassNameMatcher compile(Collection<String> classPatterns) {
+        ByteTrie.Builder prefixes = new ByteTrie.Builder();
+        ByteTrie.Builder suffixes = new ByteTrie.Builder();
+        ByteTrie.Builder contained = new ByteTrie.Builder();
+        for (String pattern : classPatterns) {
+            // careful, the star position is reversed compared to the behavior
+            // we want the string that startsWith Xxx, so the pattern will be Xxx* (star is at the end)
+            boolean isStartingWith = pattern.endsWith("*");
+            boolean isEndingWith = pattern.startsWith("*");
+            if (isStartingWith) {
+                if (isEndingWith) {
+                    // a single star matches everything, like an empty *Xxx*
+                    contained.add(toModifiedUtf8(pattern.substring(1, Math.max(1, pattern.length() - 1))), false);
+                } else {
+                    prefixes.add(toModifiedUtf8(pattern.substring(0, pattern.length() - 1)), true);
+                }
+            } else {
+                if (isEndingWith) {
+                    suffixes.add(reverse(toModifiedUtf8(pattern.substring(1))), true);
+                } else {
+                    prefixes.add(toModifiedUtf8(pattern), false);
+                }
+            }
+        }
+        return new ClassNameMatcher(prefixes.build(), suffixes.build(), contained.buildAutomaton());
+    }
+
+    public boolean matches(String className) {
+        byte[] bytes = toModifiedUtf8(className);
+        return matches(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param data  Class file content
+     * @param start Offset of the first byte of the name, in the modified UTF-8 encoding
+     * @param end   Offset after the last byte of the name
+     */
+    public boolean matches(byte[] data, int start, int end) {
+        return prefixTrie.matchesForward(data, start, end)
+                || suffixTrie.matchesBackward(data, start, end)
+                || contained.matchesAnywhere(data, start, end);
+    }
+
+    /**
+     * Whether the modified UTF-8 bytes have the shape of the internal name of a class: non empty segments separated by
+     * '/', without the characters forbidden in a name by JVMS 4.2, nor the ones of descriptors, whitespace or control
+     * characters. Only such strings are kept by the reference index, as the criteria all look for class names.
+     *
+     * @param start Offset of the first byte of the name
+     * @param end   Offset after the last byte of the name
+     */
+    public static boolean isClassName(byte[] data, int start, int end) {
+        if (start == end || data[start] == '/' || data[end - 1] == '/') {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            int b = data[i] & 0xFF;
+            if (b <= ' ' || b == 0x7F) {
+                return false;
+            }
+            switch (b) {
+                case '.':
+                case ';':
+                case '[':
+                case '(':
+                case ')':
+                case '<':
+                case '>':
+                    return false;
+                case '/':
+                    if (data[i - 1] == '/') {
+                        return false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] reverse(byte[] bytes) {
+        byte[] reversed = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            reversed[i] = bytes[bytes.length - 1 - i];
+        }
+        return reversed;
+    }
+
+    /**
+     * Encoding used by the CONSTANT_Utf8 entries of class files, see JVMS 4.4.7
+     */
+    static byte[] toModifiedUtf8(String s) {
+        byte[] ascii = new byte[s.length()];
+        for (int i = 0; i < ascii.length; i++) {
+            char c = s.charAt(i);
+            if (c == 0 || c > 0x007F) {
+                return toModifiedUtf8(s, i);
+            }
+            ascii[i] = (byte) c;
+        }
+        return ascii;
+    }
+
+    private static byte[] toModifiedUtf8(String s, int firstNonAscii) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(s.length());
+        out.write(s.getBytes(StandardCharsets.US_ASCII), 0, firstNonAscii);
+        for (int i = firstNonAscii; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                out.write(c);
+            } else if (c <= 0x07FF) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Immutable trie over bytes, each node keeping its labels sorted for a binary search. When built as an
+     * Aho-Corasick automaton, each node also has a failure link to the node of its longest proper suffix.
+     */
+    private static final class ByteTrie {
+        private static final byte TERMINAL = 1;
+        private static final byte ANY_CONTINUATION = 2;
+
+        private final byte[][] labels;
+        private final int[][] children;
+        private final byte[] flags;
+        private final int[] failures;
+
+        private ByteTrie(byte[][] labels, int[][] children, byte[] flags, int[] failures) {
+            this.labels = labels;
+            this.children = children;
+            this.flags = flags;
+            this.failures = failures;
+        }
+
+        boolean matchesForward(byte[] data, int start, int end) {
+            int node = 0;
+            for (int i = start; i < end; i++) {
+                if ((flags[node] & ANY_CONTINUATION) != 0) {
+                    return true;
+                }
+                node = child(node, data[i]);
+                if (node < 0) {
+                    return false;
+                }
+            }
+            return flags[node] != 0;
+        }
+
+        boolean matchesBackward(byte[] data, int start, int end) {
+            int node = 0;
+            for (int i = end - 1; i >= start; i--) {
+                if ((flags[node] & ANY_CONTINUATION) != 0) {
+                    return true;
+                }
+                node = child(node, data[i]);
+                if (node < 0) {
+                    return false;
+                }
+            }
+            return flags[node] != 0;
+        }
+
+        /**
+         * Whether one of the words of the automaton is a substring of the data
+         */
+        boolean matchesAnywhere(byte[] data, int start, int end) {
+            if (flags[0] != 0) {
+                return true;
+            }
+            int node = 0;
+            for (int i = start; i < end; i++) {
+                int next = child(node, data[i]);
+                while (next < 0 && node != 0) {
+                    node = failures[node];
+                    next = child(node, data[i]);
+                }
+                node = next < 0 ? 0 : next;
+                // the flags of a node include the ones of its failure links
+                if (flags[node] != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int child(int node, byte label) {
+            int index = Arrays.binarySearch(labels[node], label);
+            return index < 0 ? -1 : children[node][index];
+        }
+
+        static final class Builder {
+            private final List<TreeMap<Byte, Integer>> nodes = new ArrayList<>();
+            private final List<Byte> nodeFlags = new ArrayList<>();
+
+            Builder() {
+                newNode();
+            }
+
+            private int newNode() {
+                nodes.add(new TreeMap<>());
+                nodeFlags.add((byte) 0);
+                return nodes.size() - 1;
+            }
+
+            void add(byte[] bytes, boolean anyContinuation) {
+                int node = 0;
+                for (byte b : bytes) {
+                    Integer next = nodes.get(node).get(b);
+                    if (next == null) {
+                        next = newNode();
+                        nodes.get(node).put(b, next);
+                    }
+                    node = next;
+                }
+                nodeFlags.set(node, (byte) (nodeFlags.get(node) | (anyContinuation ? ANY_CONTINUATION : TERMINAL)));
+            }
+
+            ByteTrie build() {
+                return build(false);
+            }
+
+            ByteTrie buildAutomaton() {
+                return build(true);
+            }
+
+            private ByteTrie build(boolean automaton) {
+                int size = nodes.size();
+                byte[][] labels = new byte[size][];
+                int[][] children = new int[size][];
+                byte[] flags = new byte[size];
+                for (int node = 0; node < size; node++) {
+                    TreeMap<Byte, Integer> edges = nodes.get(node);
+                    labels[node] = new byte[edges.size()];
+                    children[node] = new int[edges.size()];
+                    int i = 0;
+                    for (Map.Entry<Byte, Integer> edge : edges.entrySet()) {
+                        labels[node][i] = edge.getKey();
+                        children[node][i] = edge.getValue();
+                        i++;
+                    }
+                    flags[node] = nodeFlags.get(node);
+                }
+                int[] failures = automaton ? computeFailures(labels, children, flags) : null;
+                return new ByteTrie(labels, children, flags, failures);
+            }
+
+            /**
+             * Breadth first, so that the failure link of a node, which is shallower, is known before its children
+             */
+            private static int[] computeFailures(byte[][] labels, int[][] children, byte[] flags) {
+                ByteTrie trie = new ByteTrie(labels, children, flags, null);
+                int[] failures = new int[labels.length];
+                int[] queue = new int[labels.length];
+                int head = 0;
+                int tail = 0;
+                for (int child : children[0]) {
+                    queue[tail++] = child;
+                }
+                while (head < tail) {
+                    int node = queue[head++];
+                    for (int i = 0; i < children[node].length; i++) {
+                        int child = children[node][i];
+                        int failure = failures[node];
+                        int next = trie.child(failure, labels[node][i]);
+                        while (next < 0 && failure != 0) {
+                            failure = failures[failure];
+                            next = trie.child(failure, labels[node][i]);
+                        }
+                        failures[child] = next < 0 ? 0 : next;
+                        flags[child] |= flags[failures[child]];
+                        queue[tail++] = child;
+                    }
+                }
+                return failures;
+            }
+        }
+    }
+}
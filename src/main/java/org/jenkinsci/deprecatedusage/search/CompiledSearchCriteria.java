@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2021, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.deprecatedusage.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable form of a criteria, made by {@link SearchCriteria#compile()}, to be shared by the analysis of all the
+ * plugins.
+ * <p>
+ * The combined criteria are flattened in an array, and the verdicts depending only on the class
+ * ({@link #shouldAnalyzeClass(String)} and {@link #isLookingForClass(String)}) are computed once per class and kept
+ * in a concurrent cache, so that checking the owner of an instruction is a single hash lookup.
+ * The compiled criteria must not change afterwards.
+ */
+final class CompiledSearchCriteria implements SearchCriteria {
+    private static final int ANALYZE = 1;
+    private static final int LOOKING_FOR_CLASS = 2;
+
+    private final SearchCriteria source;
+    private final SearchCriteria[] searchCriteria;
+    private final ConcurrentMap<String, Integer> verdictsByClass = new ConcurrentHashMap<>();
+
+    CompiledSearchCriteria(SearchCriteria source) {
+        this.source = source;
+        List<SearchCriteria> list = new ArrayList<>();
+        flatten(source, list);
+        this.searchCriteria = list.toArray(new SearchCriteria[0]);
+    }
+
+    private static void flatten(SearchCriteria criteria, List<SearchCriteria> list) {
+        if (criteria instanceof CombinedSearchCriteria) {
+            ((CombinedSearchCriteria) criteria).searchCriteriaList.forEach(sc -> flatten(sc, list));
+        } else if (criteria instanceof CompiledSearchCriteria) {
+            list.addAll(Arrays.asList(((CompiledSearchCriteria) criteria).searchCriteria));
+        } else {
+            list.add(criteria);
+        }
+    }
+
+    @Override
+    public boolean isLookingForClass(String className) {
+        return (verdict(className) & LOOKING_FOR_CLASS) != 0;
+    }
+
+    @Override
+    public boolean isLookingForMethod(String methodKey, String className, String methodName) {
+        for (SearchCriteria sc : searchCriteria) {
+            if (sc.isLookingForMethod(methodKey, className, methodName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isLookingForField(String fieldKey, String className, String fieldName) {
+        for (SearchCriteria sc : searchCriteria) {
+            if (sc.isLookingForField(fieldKey, className, fieldName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean mayLookForMethod(String className, String methodName, String desc) {
+        for (SearchCriteria sc : searchCriteria) {
+            if (sc.mayLookForMethod(className, methodName, desc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean mayLookForField(String className, String fieldName) {
+        for (SearchCriteria sc : searchCriteria) {
+            if (sc.mayLookForField(className, fieldName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean shouldAnalyzeClass(String className) {
+        return (verdict(className) & ANALYZE) != 0;
+    }
+
+    @Override
+    public Collection<String> getClassPatterns() {
+        return source.getClassPatterns();
+    }
+
+    /**
+     * Same as the source criteria, so that the cached results stay valid
+     */
+    @Override
+    public String getFingerprint() {
+        return source.getFingerprint();
+    }
+
+    @Override
+    public SearchCriteria compile() {
+        return this;
+    }
+
+    private int verdict(String className) {
+        Integer verdict = verdictsByClass.get(className);
+        if (verdict == null) {
+            // computed outside of the map, as a criteria may be slow: a concurrent duplicate computation is harmless
+            verdict = computeVerdict(className);
+            verdictsByClass.putIfAbsent(className, verdict);
+        }
+        return verdict;
+    }
+
+    private int computeVerdict(String className) {
+        int verdict = 0;
+        for (SearchCriteria sc : searchCriteria) {
+            if ((verdict & ANALYZE) == 0 && sc.shouldAnalyzeClass(className)) {
+                verdict |= ANALYZE;
+            }
+            if ((verdict & LOOKING_FOR_CLASS) == 0 && sc.isLookingForClass(className)) {
+                verdict |= LOOKING_FOR_CLASS;
+            }
+        }
+        return verdict;
+    }
+}
@@ -24,9 +24,15 @@
 package org.jenkinsci.deprecatedusage.search;
 
 import org.jenkinsci.deprecatedusage.DeprecatedApi;
+import org.jenkinsci.deprecatedusage.symbol.KeyFilter;
+
+import java.util.Collection;
 
 public class DeprecatedApiSearchCriteria implements SearchCriteria {
     private DeprecatedApi deprecatedApi;
+    private volatile String fingerprint;
+    private volatile KeyFilter methodKeyFilter;
+    private volatile KeyFilter fieldKeyFilter;
 
     public DeprecatedApiSearchCriteria(DeprecatedApi deprecatedApi) {
         this.deprecatedApi = deprecatedApi;
@@ -47,8 +53,45 @@ public class DeprecatedApiSearchCriteria implements SearchCriteria {
         return deprecatedApi.getFields().contains(fieldKey);
     }
 
+    @Override
+    public boolean mayLookForMethod(String className, String methodName, String desc) {
+        // built once the API is fully analyzed, when the plugins are
+        KeyFilter filter = methodKeyFilter;
+        if (filter == null) {
+            methodKeyFilter = filter = new KeyFilter(deprecatedApi.getMethods());
+        }
+        return filter.mightContainMethodKey(className, methodName, desc);
+    }
+
+    @Override
+    public boolean mayLookForField(String className, String fieldName) {
+        KeyFilter filter = fieldKeyFilter;
+        if (filter == null) {
+            fieldKeyFilter = filter = new KeyFilter(deprecatedApi.getFields());
+        }
+        return filter.mightContainFieldKey(className, fieldName);
+    }
+
     @Override
     public boolean shouldAnalyzeClass(String className) {
         return true;
     }
+
+    @Override
+    public Collection<String> getClassPatterns() {
+        return deprecatedApi.getClasses();
+    }
+
+    @Override
+    public String getFingerprint() {
+        // computed once the API is fully analyzed, when the plugins are
+        if (fingerprint == null) {
+            fingerprint = new Fingerprint().add(getClass().getSimpleName())
+                    .add(deprecatedApi.getClasses())
+                    .add(deprecatedApi.getMethods())
+                    .add(deprecatedApi.getFields())
+                    .build();
+        }
+        return fingerprint;
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2021, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.deprecatedusage.search;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Builds a stable digest of what a {@link SearchCriteria} looks for, so that results computed with it
+ * can be cached, including from one run to another.
+ */
+class Fingerprint {
+    private final MessageDigest messageDigest = DigestUtils.getSha256Digest();
+
+    Fingerprint add(String value) {
+        messageDigest.update(value.getBytes(StandardCharsets.UTF_8));
+        // separator which cannot be part of a class, method or field name
+        messageDigest.update((byte) 0);
+        return this;
+    }
+
+    Fingerprint add(boolean value) {
+        return add(Boolean.toString(value));
+    }
+
+    /**
+     * Adds the values in their natural order, whatever the order of the given collection
+     */
+    Fingerprint add(Collection<String> values) {
+        add(Integer.toString(values.size()));
+        for (String value : new TreeSet<>(values)) {
+            add(value);
+        }
+        return this;
+    }
+
+    Fingerprint add(Map<String, ? extends Collection<String>> values) {
+        add(Integer.toString(values.size()));
+        for (Map.Entry<String, ? extends Collection<String>> entry : new TreeMap<>(values).entrySet()) {
+            add(entry.getKey());
+            add(entry.getValue());
+        }
+        return this;
+    }
+
+    String build() {
+        return Hex.encodeHexString(messageDigest.digest());
+    }
+}
@@ -26,10 +26,9 @@ package org.jenkinsci.deprecatedusage.search;
 import org.jenkinsci.deprecatedusage.DeprecatedUsage;
 import org.jenkinsci.deprecatedusage.Options;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 
@@ -38,17 +37,44 @@ public class OptionsBasedSearchCriteria implements SearchCriteria {
     private Predicate<String> directClassChecker;
     private Predicate<String> methodClassChecker;
     private Predicate<String> fieldClassChecker;
+    // read once from the options, rather than for every instruction
+    private Collection<String> additionalClasses;
+    private Map<String, Set<String>> additionalMethodNames;
+    private Map<String, Set<String>> additionalFields;
+    private final boolean onlyIncludeSpecified;
+    private final boolean includeJavaCoreClasses;
+    private final boolean onlyIncludeJenkinsClasses;
+    private volatile String fingerprint;
     
     public OptionsBasedSearchCriteria() {
-        if (Options.get().additionalClassesFile != null) {
-            this.directClassChecker = convertToChecker(Options.getAdditionalClasses());
-        }
-        if (Options.get().additionalMethodsFile != null) {
-            this.methodClassChecker = convertToChecker(Options.getAdditionalMethodNames().keySet());
-        }
-        if (Options.get().additionalFieldsFile != null) {
-            this.fieldClassChecker = convertToChecker(Options.getAdditionalFields().keySet());
-        }
+        this(Options.get().additionalClassesFile != null ? Options.getAdditionalClasses() : null,
+                Options.get().additionalMethodsFile != null ? Options.getAdditionalMethodNames() : null,
+                Options.get().additionalFieldsFile != null ? Options.getAdditionalFields() : null,
+                Options.get().onlyIncludeSpecified, Options.get().includeJavaCoreClasses,
+                Options.get().onlyIncludeJenkinsClasses);
+    }
+
+    /**
+     * Criteria given other than by the command line, a null collection being an option not provided
+     */
+    public OptionsBasedSearchCriteria(Collection<String> additionalClasses, Map<String, Set<String>> additionalMethodNames,
+                                      Map<String, Set<String>> additionalFields, boolean onlyIncludeSpecified,
+                                      boolean includeJavaCoreClasses, boolean onlyIncludeJenkinsClasses) {
+        if (additionalClasses != null) {
+            this.additionalClasses = additionalClasses;
+            this.directClassChecker = convertToChecker(additionalClasses);
+        }
+        if (additionalMethodNames != null) {
+            this.additionalMethodNames = additionalMethodNames;
+            this.methodClassChecker = convertToChecker(additionalMethodNames.keySet());
+        }
+        if (additionalFields != null) {
+            this.additionalFields = additionalFields;
+            this.fieldClassChecker = convertToChecker(additionalFields.keySet());
+        }
+        this.onlyIncludeSpecified = onlyIncludeSpecified;
+        this.includeJavaCoreClasses = includeJavaCoreClasses;
+        this.onlyIncludeJenkinsClasses = onlyIncludeJenkinsClasses;
     }
 
     @Override
@@ -61,8 +87,8 @@ public class OptionsBasedSearchCriteria implements SearchCriteria {
 
     @Override
     public boolean isLookingForMethod(String methodKey, String className, String methodName) {
-        if (Options.get().additionalMethodsFile != null) {
-            Set<String> classToMethods = Options.getAdditionalMethodNames().get(className);
+        if (additionalMethodNames != null) {
+            Set<String> classToMethods = additionalMethodNames.get(className);
             return classToMethods != null && classToMethods.contains(methodName);
         }
         return false;
@@ -70,13 +96,23 @@ public class OptionsBasedSearchCriteria implements SearchCriteria {
 
     @Override
     public boolean isLookingForField(String fieldKey, String className, String fieldName) {
-        if (Options.get().additionalFieldsFile != null) {
-            Set<String> classToFields = Options.getAdditionalFields().get(className);
+        if (additionalFields != null) {
+            Set<String> classToFields = additionalFields.get(className);
             return classToFields != null && classToFields.contains(fieldName);
         }
         return false;
     }
 
+    @Override
+    public boolean mayLookForMethod(String className, String methodName, String desc) {
+        return isLookingForMethod(null, className, methodName);
+    }
+
+    @Override
+    public boolean mayLookForField(String className, String fieldName) {
+        return isLookingForField(null, className, fieldName);
+    }
+
     @Override
     public boolean shouldAnalyzeClass(String className) {
         // if an additionalClasses file is specified, and this matches, 
@@ -93,78 +129,47 @@ public class OptionsBasedSearchCriteria implements SearchCriteria {
             return true;
         }
 
-        Options options = Options.get();
-        if (options.onlyIncludeSpecified) {
+        if (onlyIncludeSpecified) {
             return false;
         }
 
         // Calls to java and javax are ignored by default if not explicitly requested
         if (DeprecatedUsage.isJavaClass(className)) {
-            return options.includeJavaCoreClasses;
+            return includeJavaCoreClasses;
         }
 
         if (!className.contains("jenkins") && !className.contains("hudson") && !className.contains("org/kohsuke")) {
-            return options.onlyIncludeJenkinsClasses;
+            return onlyIncludeJenkinsClasses;
         }
 
         return true;
     }
     
-    private Predicate<String> convertToChecker(Collection<String> classNames) {
-        Set<String> exactMatch = new HashSet<>();
-        
-        // Could be optimized with some tree structure
-        List<String> startsWith = new ArrayList<>();
-        List<String> endsWith = new ArrayList<>();
-        List<String> contains = new ArrayList<>();
-
-        classNames.forEach(cn -> {
-            // careful, the star position is reversed compared to the behavior
-            // we want the string that startsWith Xxx, so the pattern will be Xxx* (star is at the end)
-            boolean isStartingWith = cn.endsWith("*");
-            boolean isEndingWith = cn.startsWith("*");
-            if (isStartingWith) {
-                if (isEndingWith) {
-                    contains.add(cn.substring(1, cn.length() - 2));
-                } else {
-                    startsWith.add(cn.substring(0, cn.length() - 1));
-                }
-            } else {
-                if (isEndingWith) {
-                    endsWith.add(cn.substring(1));
-                } else {
-                    exactMatch.add(cn);
-                }
-            }
-        });
-
-        List<Predicate<String>> predicates = new ArrayList<>();
-
-        // Filling the predicates when their corresponding list is not empty
-        if (!exactMatch.isEmpty()) {
-            predicates.add(exactMatch::contains);
-        }
-        if (!startsWith.isEmpty()) {
-            predicates.add(targetClassName -> startsWith.stream().anyMatch(targetClassName::startsWith));
-        }
-        if (!endsWith.isEmpty()) {
-            predicates.add(targetClassName -> endsWith.stream().anyMatch(targetClassName::endsWith));
-        }
-        if (!contains.isEmpty()) {
-            predicates.add(targetClassName -> contains.stream().anyMatch(targetClassName::contains));
+    @Override
+    public Collection<String> getClassPatterns() {
+        if (additionalClasses != null) {
+            return additionalClasses;
         }
+        return Collections.emptySet();
+    }
 
-        // Combining the predicates together
-        if (predicates.isEmpty()) {
-            return s -> false;
-        } else if (predicates.size() == 1) {
-            return predicates.get(0);
-        } else {
-            Predicate<String> curr, first = curr = predicates.get(0);
-            for (int i = 1; i < predicates.size(); i++) {
-                curr = curr.or(predicates.get(i));
-            }
-            return first;
-        }
+    @Override
+    public String getFingerprint() {
+        if (fingerprint == null) {
+            Fingerprint builder = new Fingerprint().add(getClass().getSimpleName())
+                    .add(onlyIncludeSpecified)
+                    .add(includeJavaCoreClasses)
+                    .add(onlyIncludeJenkinsClasses);
+            builder.add(additionalClasses != null ? additionalClasses : Collections.emptySet());
+            builder.add(additionalMethodNames != null ? additionalMethodNames : Collections.emptyMap());
+            builder.add(additionalFields != null ? additionalFields : Collections.emptyMap());
+            fingerprint = builder.build();
+        }
+        return fingerprint;
+    }
+
+    private Predicate<String> convertToChecker(Collection<String> classNames) {
+        // tries and automaton, rather than testing each pattern in turn
+        return ClassNameMatcher.compile(classNames)::matches;
     }
 }
@@ -24,13 +24,18 @@
 package org.jenkinsci.deprecatedusage.search;
 
 import org.jenkinsci.deprecatedusage.DeprecatedApi;
+import org.jenkinsci.deprecatedusage.symbol.KeyFilter;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
 public class RecursiveSearchCriteria implements SearchCriteria {
     private Set<String> methodKeys;
     private Set<String> relatedClasses;
+    private KeyFilter methodKeyFilter;
+    private volatile String fingerprint;
 
     public RecursiveSearchCriteria(Set<String> methodKeys) {
         this.methodKeys = methodKeys;
@@ -39,6 +44,14 @@ public class RecursiveSearchCriteria implements SearchCriteria {
             String className = DeprecatedApi.extractClassNameFromKey(mk);
             relatedClasses.add(className);
         });
+        this.methodKeyFilter = new KeyFilter(methodKeys);
+    }
+
+    /**
+     * Classes of the methods looked for, the only ones analyzed
+     */
+    public Set<String> getRelatedClasses() {
+        return relatedClasses;
     }
 
     @Override
@@ -51,6 +64,16 @@ public class RecursiveSearchCriteria implements SearchCriteria {
         return methodKeys.contains(methodKey);
     }
 
+    @Override
+    public boolean mayLookForMethod(String className, String methodName, String desc) {
+        return methodKeyFilter.mightContainMethodKey(className, methodName, desc);
+    }
+
+    @Override
+    public boolean mayLookForField(String className, String fieldName) {
+        return false;
+    }
+
     @Override
     public boolean isLookingForField(String fieldKey, String className, String fieldName) {
         return false;
@@ -60,4 +83,17 @@ public class RecursiveSearchCriteria implements SearchCriteria {
     public boolean shouldAnalyzeClass(String className) {
         return relatedClasses.contains(className);
     }
+
+    @Override
+    public Collection<String> getClassPatterns() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public String getFingerprint() {
+        if (fingerprint == null) {
+            fingerprint = new Fingerprint().add(getClass().getSimpleName()).add(methodKeys).build();
+        }
+        return fingerprint;
+    }
 }
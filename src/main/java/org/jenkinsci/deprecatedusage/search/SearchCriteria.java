@@ -25,7 +25,10 @@ package org.jenkinsci.deprecatedusage.search;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public interface SearchCriteria {
     boolean isLookingForClass(String className);
@@ -41,8 +44,44 @@ public interface SearchCriteria {
 
     boolean isLookingForField(String fieldKey, String className, String fieldName);
 
+    /**
+     * Cheap check made before building the method key: when false, {@link #isLookingForMethod(String, String, String)}
+     * is false too. May be true for methods not looked for.
+     */
+    default boolean mayLookForMethod(String className, String methodName, String desc) {
+        return true;
+    }
+
+    /**
+     * Cheap check made before building the field key: when false, {@link #isLookingForField(String, String, String)}
+     * is false too. May be true for fields not looked for.
+     */
+    default boolean mayLookForField(String className, String fieldName) {
+        return true;
+    }
+
     boolean shouldAnalyzeClass(String className);
 
+    /**
+     * Class names for which {@link #isLookingForClass(String)} may return true, with the same wildcard syntax as the
+     * additional classes file. Used to compile a {@link ClassNameMatcher}.
+     */
+    Collection<String> getClassPatterns();
+
+    /**
+     * Digest of what this criteria looks for, the same from one run to another for an identical criteria.
+     * Results depending on the criteria can be cached with it.
+     */
+    String getFingerprint();
+
+    /**
+     * Returns an immutable equivalent of this criteria, faster to evaluate from many threads. This criteria must not
+     * change afterwards.
+     */
+    default SearchCriteria compile() {
+        return new CompiledSearchCriteria(this);
+    }
+
     default SearchCriteria combineWith(SearchCriteria other) {
         List<SearchCriteria> list = new ArrayList<>();
 
@@ -86,8 +125,32 @@ class CombinedSearchCriteria implements SearchCriteria {
         return searchCriteriaList.stream().anyMatch(sc -> sc.isLookingForField(fieldKey, className, methodName));
     }
 
+    @Override
+    public boolean mayLookForMethod(String className, String methodName, String desc) {
+        return searchCriteriaList.stream().anyMatch(sc -> sc.mayLookForMethod(className, methodName, desc));
+    }
+
+    @Override
+    public boolean mayLookForField(String className, String fieldName) {
+        return searchCriteriaList.stream().anyMatch(sc -> sc.mayLookForField(className, fieldName));
+    }
+
     @Override
     public boolean shouldAnalyzeClass(String className) {
         return searchCriteriaList.stream().anyMatch(sc -> sc.shouldAnalyzeClass(className));
     }
+
+    @Override
+    public Collection<String> getClassPatterns() {
+        Set<String> classPatterns = new HashSet<>();
+        searchCriteriaList.forEach(sc -> classPatterns.addAll(sc.getClassPatterns()));
+        return classPatterns;
+    }
+
+    @Override
+    public String getFingerprint() {
+        Fingerprint fingerprint = new Fingerprint().add(getClass().getSimpleName());
+        searchCriteriaList.forEach(sc -> fingerprint.add(sc.getFingerprint()));
+        return fingerprint.build();
+    }
 }
@@ -0,0 +1,104 @@
+package org.jenkinsci.deprecatedusage.symbol;
+
+import java.util.function.IntFunction;
+
+/**
+ * Map from non-negative ints to objects, without boxing the keys. Not thread safe.
+ */
+public final class IntObjectMap<V> {
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public IntObjectMap() {
+        keys = IntSet.newTable(8);
+        values = new Object[8];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (key < 0) {
+            return null;
+        }
+        return (V) values[IntSet.slot(keys, key)];
+    }
+
+    public boolean containsKey(int key) {
+        return key >= 0 && keys[IntSet.slot(keys, key)] == key;
+    }
+
+    /**
+     * @return the previous value, or null
+     */
+    public V put(int key, V value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key: " + key);
+        }
+        int slot = IntSet.slot(keys, key);
+        @SuppressWarnings("unchecked")
+        V previous = (V) values[slot];
+        values[slot] = value;
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            size++;
+            if (2 * size > keys.length) {
+                grow();
+            }
+        }
+        return previous;
+    }
+
+    public V computeIfAbsent(int key, IntFunction<V> mappingFunction) {
+        V value = get(key);
+        if (value == null) {
+            value = mappingFunction.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public IntSet keySet() {
+        IntSet keySet = new IntSet(size);
+        for (int key : keys) {
+            if (key >= 0) {
+                keySet.add(key);
+            }
+        }
+        return keySet;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<V> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] >= 0) {
+                action.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = IntSet.newTable(oldKeys.length * 2);
+        values = new Object[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] >= 0) {
+                int slot = IntSet.slot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    public interface Consumer<V> {
+        void accept(int key, V value);
+    }
+}
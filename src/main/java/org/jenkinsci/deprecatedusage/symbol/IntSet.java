@@ -0,0 +1,127 @@
+package org.jenkinsci.deprecatedusage.symbol;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Set of non-negative ints, without boxing them. Not thread safe.
+ */
+public final class IntSet {
+    private static final int EMPTY = -1;
+
+    private int[] values;
+    private int size;
+
+    public IntSet() {
+        this(4);
+    }
+
+    public IntSet(int expectedSize) {
+        int capacity = 8;
+        while (capacity < 2 * expectedSize) {
+            capacity *= 2;
+        }
+        values = newTable(capacity);
+    }
+
+    public IntSet(IntSet other) {
+        values = other.values.clone();
+        size = other.size;
+    }
+
+    /**
+     * @return true if the value was not already in the set
+     */
+    public boolean add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        int slot = slot(values, value);
+        if (values[slot] == value) {
+            return false;
+        }
+        values[slot] = value;
+        size++;
+        if (2 * size > values.length) {
+            grow();
+        }
+        return true;
+    }
+
+    public void addAll(IntSet other) {
+        other.forEach(this::add);
+    }
+
+    public boolean contains(int value) {
+        return value >= 0 && values[slot(values, value)] == value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int value : values) {
+            if (value != EMPTY) {
+                action.accept(value);
+            }
+        }
+    }
+
+    public int[] toArray() {
+        int[] array = new int[size];
+        int i = 0;
+        for (int value : values) {
+            if (value != EMPTY) {
+                array[i++] = value;
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Returns the lowest value, or -1 for an empty set
+     */
+    public int min() {
+        int min = EMPTY;
+        for (int value : values) {
+            if (value != EMPTY && (min == EMPTY || value < min)) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    private void grow() {
+        int[] oldValues = values;
+        values = newTable(oldValues.length * 2);
+        for (int value : oldValues) {
+            if (value != EMPTY) {
+                values[slot(values, value)] = value;
+            }
+        }
+    }
+
+    /**
+     * Returns the slot of the value, or the empty slot where it is to be added
+     */
+    static int slot(int[] table, int value) {
+        int mask = table.length - 1;
+        int hash = value * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (table[slot] != EMPTY && table[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    static int[] newTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+}
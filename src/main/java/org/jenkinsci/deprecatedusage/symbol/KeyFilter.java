@@ -0,0 +1,72 @@
+package org.jenkinsci.deprecatedusage.symbol;
+
+import java.util.Collection;
+
+/**
+ * Immutable Bloom filter over method and field keys, to answer most of the lookups of keys which are not in a set
+ * without building the key String nor hashing it fully: the hash of the key is computed from the hashes of its
+ * parts, which Strings cache.
+ * <p>
+ * Blocked: the bits of a key are all in one long, so a lookup reads a single word.
+ * It may answer true for a key which was not added, never false for a key which was.
+ */
+public final class KeyFilter {
+    private static final int BITS_PER_KEY = 16;
+    private static final int BITS_SET = 4;
+
+    private final long[] words;
+    private final int mask;
+
+    /**
+     * @param keys Keys built by {@code DeprecatedApi.getMethodKey} or {@code DeprecatedApi.getFieldKey}
+     */
+    public KeyFilter(Collection<String> keys) {
+        int wordCount = 1;
+        while (wordCount * 64L < (long) keys.size() * BITS_PER_KEY && wordCount < 1 << 30) {
+            wordCount *= 2;
+        }
+        words = new long[wordCount];
+        mask = wordCount - 1;
+        for (String key : keys) {
+            long hash = mix(key.hashCode());
+            words[(int) hash & mask] |= bits(hash);
+        }
+    }
+
+    public boolean mightContainMethodKey(String className, String name, String desc) {
+        return mightContain(SymbolTable.keyHash(className, name, desc));
+    }
+
+    public boolean mightContainFieldKey(String className, String name) {
+        return mightContain(SymbolTable.keyHash(className, name, ""));
+    }
+
+    private boolean mightContain(int keyHash) {
+        long hash = mix(keyHash);
+        long bits = bits(hash);
+        return (words[(int) hash & mask] & bits) == bits;
+    }
+
+    /**
+     * Bits of the key in its word, taken from the high bits of the hash, the low ones choosing the word
+     */
+    private static long bits(long hash) {
+        long bits = 0;
+        for (int i = 0; i < BITS_SET; i++) {
+            bits |= 1L << (hash >>> (64 - 6 * (i + 1)));
+        }
+        return bits;
+    }
+
+    /**
+     * Spreads the 32 bits of a String hash over 64 (finalizer of MurmurHash3)
+     */
+    private static long mix(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE5A2B83BL;
+        return h ^ (h >>> 33);
+    }
+}
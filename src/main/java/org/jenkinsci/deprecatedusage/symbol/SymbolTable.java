@@ -0,0 +1,231 @@
+package org.jenkinsci.deprecatedusage.symbol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Interns the class names, method keys and field keys found in the plugins as compact int ids, shared by all the
+ * plugins, so that each of them is only kept once in memory whatever the number of plugins and levels using it.
+ * <p>
+ * Method and field keys can be looked up from their parts, the key String only being built the first time it is
+ * interned. Ids are allocated in sequence from 0, they are only valid for the table which returned them.
+ * <p>
+ * Thread safe: the table is split in segments, each one guarded by its own lock.
+ */
+public final class SymbolTable {
+    private static final SymbolTable GLOBAL = new SymbolTable();
+
+    private static final char SEPARATOR = '#';
+    private static final int SEGMENT_BITS = 6;
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+    // symbols by id, in chunks so that they are never copied
+    private volatile String[][] chunks = new String[16][];
+    private int size;
+
+    public SymbolTable() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Table shared by the whole run of the command line, which only grows with the archives it reads. A process
+     * reading new archives as long as it runs uses its own tables instead, so that it can drop them.
+     */
+    public static SymbolTable get() {
+        return GLOBAL;
+    }
+
+    public int intern(String symbol) {
+        int hash = symbol.hashCode();
+        return segment(hash).intern(this, hash, symbol, null, null);
+    }
+
+    /**
+     * Returns the id of the symbol, or -1 if it was never interned
+     */
+    public int find(String symbol) {
+        int hash = symbol.hashCode();
+        return segment(hash).find(hash, symbol, null, null);
+    }
+
+    /**
+     * Same as {@code intern(DeprecatedApi.getMethodKey(className, name, desc))}
+     */
+    public int internMethodKey(String className, String name, String desc) {
+        int hash = keyHash(className, name, desc);
+        return segment(hash).intern(this, hash, className, name, desc);
+    }
+
+    /**
+     * Same as {@code intern(DeprecatedApi.getFieldKey(className, name, desc))}
+     */
+    public int internFieldKey(String className, String name) {
+        int hash = keyHash(className, name, "");
+        return segment(hash).intern(this, hash, className, name, "");
+    }
+
+    /**
+     * Returns the id of the method key, or -1 if it was never interned, without building the key
+     */
+    public int findMethodKey(String className, String name, String desc) {
+        int hash = keyHash(className, name, desc);
+        return segment(hash).find(hash, className, name, desc);
+    }
+
+    /**
+     * Returns the id of the field key, or -1 if it was never interned, without building the key
+     */
+    public int findFieldKey(String className, String name) {
+        int hash = keyHash(className, name, "");
+        return segment(hash).find(hash, className, name, "");
+    }
+
+    /**
+     * Returns the symbol of an id, which must have been handed over to the calling thread with a happens-before
+     * relationship (by the table itself, a concurrent collection, a future...)
+     */
+    public String symbol(int id) {
+        return chunks[id >>> CHUNK_BITS][id & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Materializes the symbols of the ids, in the iteration order of the set
+     */
+    public List<String> symbols(IntSet ids) {
+        List<String> symbols = new ArrayList<>(ids.size());
+        ids.forEach(id -> symbols.add(symbol(id)));
+        return symbols;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int add(String symbol) {
+        int id = size;
+        int chunk = id >>> CHUNK_BITS;
+        String[][] current = chunks;
+        if (chunk == current.length) {
+            String[][] grown = new String[current.length * 2][];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new String[CHUNK_SIZE];
+        }
+        current[chunk][id & (CHUNK_SIZE - 1)] = symbol;
+        chunks = current;
+        size++;
+        return id;
+    }
+
+    private Segment segment(int hash) {
+        return segments[spread(hash) >>> (32 - SEGMENT_BITS)];
+    }
+
+    private static int spread(int hash) {
+        return hash * 0x9E3779B9;
+    }
+
+    /**
+     * Hash code of the key String, computed from its parts
+     */
+    static int keyHash(String className, String name, String desc) {
+        int hash = 31 * className.hashCode() + SEPARATOR;
+        hash = hash * pow31(name.length()) + name.hashCode();
+        return hash * pow31(desc.length()) + desc.hashCode();
+    }
+
+    private static int pow31(int exponent) {
+        int result = 1;
+        int base = 31;
+        while (exponent != 0) {
+            if ((exponent & 1) != 0) {
+                result *= base;
+            }
+            base *= base;
+            exponent >>>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Whether the symbol is the given String when name is null, or the key made of the parts otherwise
+     */
+    private static boolean matches(String symbol, String className, String name, String desc) {
+        if (name == null) {
+            return symbol.equals(className);
+        }
+        int classNameLength = className.length();
+        int nameLength = name.length();
+        return symbol.length() == classNameLength + 1 + nameLength + desc.length()
+                && symbol.startsWith(className)
+                && symbol.charAt(classNameLength) == SEPARATOR
+                && symbol.startsWith(name, classNameLength + 1)
+                && symbol.startsWith(desc, classNameLength + 1 + nameLength);
+    }
+
+    /**
+     * Open addressing table of a part of the symbols
+     */
+    private static final class Segment {
+        private String[] symbols = new String[16];
+        private int[] hashes = new int[16];
+        private int[] ids = new int[16];
+        private int count;
+
+        synchronized int find(int hash, String className, String name, String desc) {
+            int mask = symbols.length - 1;
+            for (int slot = spread(hash) & mask; symbols[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && matches(symbols[slot], className, name, desc)) {
+                    return ids[slot];
+                }
+            }
+            return -1;
+        }
+
+        synchronized int intern(SymbolTable table, int hash, String className, String name, String desc) {
+            int id = find(hash, className, name, desc);
+            if (id >= 0) {
+                return id;
+            }
+            String symbol = name == null ? className : className + SEPARATOR + name + desc;
+            id = table.add(symbol);
+            if (2 * (count + 1) > symbols.length) {
+                grow();
+            }
+            insert(symbol, hash, id);
+            count++;
+            return id;
+        }
+
+        private void insert(String symbol, int hash, int id) {
+            int mask = symbols.length - 1;
+            int slot = spread(hash) & mask;
+            while (symbols[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            symbols[slot] = symbol;
+            hashes[slot] = hash;
+            ids[slot] = id;
+        }
+
+        private void grow() {
+            String[] oldSymbols = symbols;
+            int[] oldHashes = hashes;
+            int[] oldIds = ids;
+            symbols = new String[oldSymbols.length * 2];
+            hashes = new int[oldSymbols.length * 2];
+            ids = new int[oldSymbols.length * 2];
+            for (int i = 0; i < oldSymbols.length; i++) {
+                if (oldSymbols[i] != null) {
+                    insert(oldSymbols[i], oldHashes[i], oldIds[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.jenkinsci.deprecatedusage;
+
+import org.jenkinsci.deprecatedusage.search.RecursiveSearchCriteria;
+import org.jenkinsci.deprecatedusage.symbol.IntSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallGraphFileTest {
+    private static final String DESCRIPTOR = "()Lhudson/model/Descriptor;";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsTheCallersWrittenByLevel() throws Exception {
+        // the core types are not in the plugins, only in the shared hierarchy
+        ClassHierarchy classHierarchy = new ClassHierarchy.Builder()
+                .addAll(Collections.singletonMap("hudson/model/AbstractDescribableImpl",
+                        Collections.singletonList("hudson/model/Describable")))
+                .build();
+        File pluginFile = new TestPlugin()
+                .addClass("org/example/MyBuilder", "hudson/model/AbstractDescribableImpl")
+                .addMethod("perform", "()V")
+                .callMethod("org/example/MyBuilder", "getDescriptor", DESCRIPTOR)
+                .readField("hudson/model/Items", "XSTREAM", "Lcom/thoughtworks/xstream/XStream;")
+                .addClass("org/example/MyAction", "java/lang/Object")
+                .addMethod("run", "()V")
+                .callMethod("org/example/MyBuilder", "perform", "()V")
+                .addClass("org/example/Unrelated", "java/lang/Object")
+                .addMethod("run", "()V")
+                .callMethod("org/example/Other", "getDescriptor", DESCRIPTOR)
+                .writeTo(folder.newFile("example.hpi"));
+        DeprecatedUsage usage = new DeprecatedUsage("example", "1.0",
+                new RecursiveSearchCriteria(Collections.emptySet()).compile(), false);
+        usage.retainReferences();
+        usage.scan(pluginFile);
+        usage.resolve(classHierarchy);
+
+        File file = new File(folder.getRoot(), "call-graph.bin");
+        CallGraphFile.write(file, Collections.singletonList(usage), classHierarchy);
+        CallGraphFile callGraph = CallGraphFile.open(file);
+
+        int perform = callGraph.find("org/example/MyBuilder#perform()V");
+        assertTrue(perform >= 0);
+        assertEquals("org/example/MyBuilder#perform()V", callGraph.symbol(perform));
+        assertEquals(-1, callGraph.find("org/example/MyBuilder#perform"));
+        assertEquals(-1, callGraph.find("org/example/Missing"));
+        assertEquals(symbols(callGraph, callGraph.findByPrefix("org/example/MyBuilder#")),
+                new HashSet<>(Arrays.asList("org/example/MyBuilder#getDescriptor" + DESCRIPTOR,
+                        "org/example/MyBuilder#perform()V")));
+        assertTrue(callGraph.findByPrefix("org/missing/").isEmpty());
+
+        // through the core type
+        assertEquals(Arrays.asList("hudson/model/Describable", "hudson/model/AbstractDescribableImpl",
+                "org/example/MyBuilder"), callGraph.getSubtypes("hudson/model/Describable"));
+        Set<String> plugins = new HashSet<>();
+        callGraph.forEachPlugin(perform, plugin -> plugins.add(callGraph.symbol(plugin)));
+        assertEquals(Collections.singleton("example"), plugins);
+
+        // as the query of a method of a core interface, the only calls being made through the class of the plugin
+        IntSet providers = new IntSet();
+        assertEquals(-1, callGraph.find("hudson/model/Describable#getDescriptor" + DESCRIPTOR));
+        for (String subtype : callGraph.getSubtypes("hudson/model/Describable")) {
+            providers.addAll(callGraph.findByPrefix(subtype + "#getDescriptor("));
+        }
+        assertEquals(1, providers.size());
+        providers.add(callGraph.find("hudson/model/Items#XSTREAM"));
+        List<IntSet> levels = callGraph.findCallersByLevel(providers, 10);
+        assertEquals(2, levels.size());
+        assertEquals(Collections.singleton("org/example/MyBuilder#perform()V"), symbols(callGraph, levels.get(0)));
+        assertEquals(Collections.singleton("org/example/MyAction#run()V"), symbols(callGraph, levels.get(1)));
+        assertEquals(1, callGraph.findCallersByLevel(providers, 1).size());
+    }
+
+    private static Set<String> symbols(CallGraphFile callGraph, IntSet indexes) {
+        Set<String> symbols = new HashSet<>();
+        indexes.forEach(index -> symbols.add(callGraph.symbol(index)));
+        return symbols;
+    }
+}
@@ -0,0 +1,112 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Compares the analysis of the deprecated API of several cores, each one bundling many jars, one part after the other
+ * and in parallel across the cores and their jars.
+ * <p>
+ * Not run by the build: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.jenkinsci.deprecatedusage.DeprecatedApiBenchmark}
+ */
+public class DeprecatedApiBenchmark {
+    private static final int CORES = 2;
+    private static final int JARS = 80;
+    private static final int CLASSES_PER_JAR = 150;
+    private static final int MEMBERS_PER_CLASS = 20;
+    private static final int ITERATIONS = 10;
+
+    public static void main(String[] args) throws Exception {
+        List<File> cores = new ArrayList<>();
+        for (int i = 0; i < CORES; i++) {
+            File core = File.createTempFile("bench", ".war");
+            core.deleteOnExit();
+            writeCore(core, i);
+            cores.add(core);
+        }
+
+        // a pool of one thread runs the tasks of the parts one after the other
+        ForkJoinPool serialPool = new ForkJoinPool(1);
+        DeprecatedApi serial = null;
+        DeprecatedApi parallel = null;
+        long bestSerial = Long.MAX_VALUE;
+        long bestParallel = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            DeprecatedApi serialApi = new DeprecatedApi();
+            serialPool.submit(() -> serialApi.analyze(cores)).get();
+            long serialDuration = System.nanoTime() - start;
+            serial = serialApi;
+
+            start = System.nanoTime();
+            parallel = new DeprecatedApi();
+            parallel.analyze(cores);
+            long parallelDuration = System.nanoTime() - start;
+
+            bestSerial = Math.min(bestSerial, serialDuration);
+            bestParallel = Math.min(bestParallel, parallelDuration);
+            System.out.println("Iteration " + i + ": serial " + serialDuration / 1000000 + " ms, parallel "
+                    + parallelDuration / 1000000 + " ms");
+        }
+        serialPool.shutdown();
+
+        if (!serial.getClasses().equals(parallel.getClasses()) || !serial.getMethods().equals(parallel.getMethods())
+                || !serial.getFields().equals(parallel.getFields())
+                || !serial.getSuperClassAndInterfacesByClass().equals(parallel.getSuperClassAndInterfacesByClass())) {
+            throw new AssertionError("The parallel analysis differs from the serial one");
+        }
+        System.out.println("Best: serial " + bestSerial / 1000000 + " ms, parallel " + bestParallel / 1000000
+                + " ms with " + ForkJoinPool.commonPool().getParallelism() + " threads, for "
+                + parallel.getClasses().size() + " classes, " + parallel.getMethods().size() + " methods and "
+                + parallel.getFields().size() + " fields");
+    }
+
+    private static void writeCore(File core, int index) throws IOException {
+        try (ZipOutputStream war = new ZipOutputStream(new FileOutputStream(core))) {
+            for (int jar = 0; jar < JARS; jar++) {
+                // the first jars of each core define the same classes, with other superclasses
+                String packageName = "bench/" + (jar < JARS / 4 ? "shared" : "core" + index) + "/jar" + jar;
+                war.putNextEntry(new ZipEntry("WEB-INF/lib/lib" + jar + ".jar"));
+                war.write(writeJar(packageName, "bench/Base" + index));
+                war.closeEntry();
+            }
+        }
+    }
+
+    private static byte[] writeJar(String packageName, String superName) throws IOException {
+        ByteArrayOutputStream jarBytes = new ByteArrayOutputStream();
+        try (JarOutputStream jar = new JarOutputStream(jarBytes)) {
+            for (int i = 0; i < CLASSES_PER_JAR; i++) {
+                String name = packageName + "/Class" + i;
+                int access = Opcodes.ACC_PUBLIC | (i % 3 == 0 ? Opcodes.ACC_DEPRECATED : 0);
+                ClassWriter classWriter = new ClassWriter(0);
+                classWriter.visit(Opcodes.V1_8, access, name, null, i == 0 ? superName : packageName + "/Class0",
+                        new String[] {"java/io/Serializable"});
+                for (int j = 0; j < MEMBERS_PER_CLASS; j++) {
+                    int memberAccess = Opcodes.ACC_PUBLIC | (j % 2 == 0 ? Opcodes.ACC_DEPRECATED : 0);
+                    classWriter.visitMethod(memberAccess | Opcodes.ACC_ABSTRACT, "method" + j, "()V", null, null)
+                            .visitEnd();
+                    classWriter.visitField(memberAccess, "field" + j, "I", null, null).visitEnd();
+                }
+                classWriter.visitEnd();
+                jar.putNextEntry(new JarEntry(name + ".class"));
+                jar.write(classWriter.toByteArray());
+                jar.closeEntry();
+            }
+        }
+        return jarBytes.toByteArray();
+    }
+}
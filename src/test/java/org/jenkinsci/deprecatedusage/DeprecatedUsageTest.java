@@ -0,0 +1,601 @@
+package org.jenkinsci.deprecatedusage;
+
+import org.jenkinsci.deprecatedusage.search.OptionsBasedSearchCriteria;
+import org.jenkinsci.deprecatedusage.search.RecursiveSearchCriteria;
+import org.jenkinsci.deprecatedusage.search.SearchCriteria;
+import org.jenkinsci.deprecatedusage.symbol.IntObjectMap;
+import org.jenkinsci.deprecatedusage.symbol.IntSet;
+import org.jenkinsci.deprecatedusage.symbol.SymbolTable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeprecatedUsageTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsTheSameAsTwoPassesOverThePlugin() throws Exception {
+        String base = "org/jenkinsci/plugins/example/Base";
+        String sub = "org/jenkinsci/plugins/example/Sub";
+        File pluginFile = new TestPlugin()
+                .addClass(base, "hudson/model/Run")
+                .addClass(sub, base, "hudson/model/Action")
+                .addClass("org/jenkinsci/plugins/example/Caller", "java/lang/Object")
+                .addMethod("build", "()V")
+                .callMethod(sub, "getLog", "()Ljava/lang/String;")
+                .callMethod(sub, "getDisplayName", "()Ljava/lang/String;")
+                .readField(sub, "XSTREAM", "Lcom/thoughtworks/xstream/XStream;")
+                .callMethod("hudson/model/Run", "getParent", "()Lhudson/model/Job;")
+                .callMethod("java/lang/String", "length", "()I")
+                .callMethod("org/codehaus/groovy/runtime/typehandling/DefaultTypeTransformation", "box",
+                        "(I)Ljava/lang/Object;")
+                .addMethod("lambda", "()V")
+                .referenceMethod(base, "getLog", "()Ljava/lang/String;")
+                .addMethod("constants", "()V")
+                .loadConstant("hudson/model/Deprecated")
+                .loadConstant("Lhudson/util/Secret;")
+                .loadConstant("not a class name")
+                // not a class name either, but matched by a wildcard pattern as any other constant
+                .loadConstant("Unexpected IllegalAccessException")
+                // not a Jenkins class, only analyzed by some criteria
+                .addClass("io/example/Plain", "hudson/model/Run")
+                .addMethod("run", "()V")
+                .callMethod("io/example/Plain", "getLog", "()Ljava/lang/String;")
+                // calling no class analyzed by the default criteria, its bytecode is skipped but not its constants
+                .addClass("io/example/Unrelated", "java/lang/Object")
+                .addMethod("run", "()V")
+                .callMethod("java/util/List", "size", "()I")
+                .callMethod("io/example/Helper", "help", "()V")
+                .loadConstant("hudson/model/Deprecated")
+                .writeTo(folder.newFile("example.hpi"));
+
+        List<String> classes = Arrays.asList("hudson/model/Deprecated", "hudson/util/Secret", "hudson/model/Action",
+                "*Exception");
+        Map<String, Set<String>> methods = new HashMap<>();
+        methods.put("hudson/model/Run", new HashSet<>(Arrays.asList("getLog", "getParent")));
+        methods.put("hudson/model/Action", Collections.singleton("getDisplayName"));
+        methods.put("java/lang/String", Collections.singleton("length"));
+        methods.put("org/codehaus/groovy/runtime/typehandling/DefaultTypeTransformation", Collections.singleton("box"));
+        Map<String, Set<String>> fields = Collections.singletonMap("hudson/model/Run", Collections.singleton("XSTREAM"));
+        List<SearchCriteria> criteria = Arrays.asList(
+                new OptionsBasedSearchCriteria(classes, methods, fields, false, false, false),
+                new OptionsBasedSearchCriteria(classes, methods, fields, true, false, false),
+                new OptionsBasedSearchCriteria(classes, methods, fields, false, true, true),
+                new OptionsBasedSearchCriteria(null, null, null, false, true, true));
+        // only the criteria including the java classes analyze the calls of the unrelated class
+        List<Integer> skippedClassCounts = Arrays.asList(1, 1, 0, 0);
+        for (int i = 0; i < criteria.size(); i++) {
+            SearchCriteria searchCriteria = criteria.get(i);
+            TwoPassScan expected = new TwoPassScan(searchCriteria, pluginFile);
+            DeprecatedUsage usage = new DeprecatedUsage("example", "1.0", searchCriteria.compile(), false);
+            usage.analyze(pluginFile);
+            assertEquals(5, usage.getClassCount());
+            assertEquals(skippedClassCounts.get(i).intValue(), usage.getSkippedClassCount());
+            assertEquals(expected.classes, usage.getClasses());
+            assertEquals(expected.methods, usage.getMethods());
+            assertEquals(expected.fields, usage.getFields());
+            assertEquals(expected.providerToConsumers, symbols(usage.getProviderToConsumers()));
+        }
+        // through the supertypes defined by the plugin, and by the lambda
+        TwoPassScan expected = new TwoPassScan(criteria.get(0), pluginFile);
+        assertTrue(expected.classes.contains("Unexpected IllegalAccessException"));
+        assertEquals(new TreeSet<>(Arrays.asList("hudson/model/Action#getDisplayName()Ljava/lang/String;",
+                "hudson/model/Run#getLog()Ljava/lang/String;", "hudson/model/Run#getParent()Lhudson/model/Job;",
+                "java/lang/String#length()I")), expected.methods);
+        assertEquals(new TreeSet<>(Arrays.asList("org/jenkinsci/plugins/example/Caller#build()V",
+                "org/jenkinsci/plugins/example/Caller#lambda()V")),
+                expected.providerToConsumers.get("hudson/model/Run#getLog()Ljava/lang/String;"));
+    }
+
+    @Test
+    public void findsTheSameInAPluginSplitInParallelTasks() throws Exception {
+        // classes padded by a constant which does not compress much, so that the plugin is above the threshold of
+        // the parallel scan, and its classes split several times
+        Random random = new Random(42);
+        char[] padding = new char[60000];
+        TestPlugin plugin = new TestPlugin();
+        int classCount = 700;
+        for (int i = 0; i < classCount; i++) {
+            String className = "org/jenkinsci/plugins/huge/Step" + i;
+            // the supertypes are often in the other half of the classes
+            String superName = i == 0 ? "hudson/model/Run" : "org/jenkinsci/plugins/huge/Step" + random.nextInt(i);
+            for (int j = 0; j < padding.length; j++) {
+                padding[j] = (char) ('a' + random.nextInt(26));
+            }
+            plugin.addClass(className, superName)
+                    .addMethod("perform" + i, "()V")
+                    .callMethod(className, "getLog", "()Ljava/lang/String;")
+                    .callMethod("org/jenkinsci/plugins/huge/Step" + random.nextInt(classCount), "perform" + i, "()V")
+                    .loadConstant(new String(padding));
+            if (random.nextInt(10) == 0) {
+                plugin.readField(className, "XSTREAM", "Lcom/thoughtworks/xstream/XStream;")
+                        .loadConstant("hudson/model/Deprecated");
+            }
+        }
+        File pluginFile = plugin.writeTo(folder.newFile("huge.hpi"));
+        assertTrue(pluginFile.length() > 20 * 1024 * 1024);
+
+        Map<String, Set<String>> methods = new HashMap<>();
+        methods.put("hudson/model/Run", Collections.singleton("getLog"));
+        methods.put("org/jenkinsci/plugins/huge/Step1", Collections.singleton("perform2"));
+        Map<String, Set<String>> fields = Collections.singletonMap("hudson/model/Run", Collections.singleton("XSTREAM"));
+        SearchCriteria searchCriteria = new OptionsBasedSearchCriteria(
+                Collections.singletonList("hudson/model/Deprecated"), methods, fields, false, false, false);
+        TwoPassScan expected = new TwoPassScan(searchCriteria, pluginFile);
+        DeprecatedUsage usage = new DeprecatedUsage("huge", "1.0", searchCriteria.compile(), false);
+        usage.analyze(pluginFile);
+        assertEquals(classCount, usage.getClassCount());
+        assertEquals(expected.superClassAndInterfacesByClass, usage.getSuperClassAndInterfacesByClass());
+        assertEquals(expected.classes, usage.getClasses());
+        assertEquals(expected.methods, usage.getMethods());
+        assertEquals(expected.fields, usage.getFields());
+        assertEquals(expected.providerToConsumers, symbols(usage.getProviderToConsumers()));
+        assertEquals(classCount, expected.providerToConsumers.get("hudson/model/Run#getLog()Ljava/lang/String;").size());
+    }
+
+    @Test
+    public void replaysTheRecursiveLevelsAsRescans() throws Exception {
+        String helper = "org/jenkinsci/plugins/a/Helper";
+        String util = "org/jenkinsci/plugins/a/Util";
+        String client = "org/jenkinsci/plugins/b/Client";
+        File pluginA = new TestPlugin()
+                .addClass(helper, "hudson/model/Run")
+                .addMethod("log", "()V")
+                .callMethod(helper, "getLog", "()Ljava/lang/String;")
+                .addClass("org/jenkinsci/plugins/a/Sub", helper)
+                .addClass(util, "java/lang/Object")
+                .addMethod("wrap", "()V")
+                .callMethod(helper, "log", "()V")
+                .writeTo(folder.newFile("a.hpi"));
+        File pluginB = new TestPlugin()
+                .addClass(client, "java/lang/Object")
+                // not followed, the recursive criteria only analyzing the classes of the methods looked for
+                .addMethod("viaSub", "()V")
+                .callMethod("org/jenkinsci/plugins/a/Sub", "log", "()V")
+                .addMethod("use", "()V")
+                .callMethod(helper, "log", "()V")
+                .addMethod("deeper", "()V")
+                .callMethod(client, "use", "()V")
+                .addMethod("lambda", "()V")
+                .referenceMethod(util, "wrap", "()V")
+                .writeTo(folder.newFile("b.hpi"));
+        List<File> pluginFiles = Arrays.asList(pluginA, pluginB);
+
+        SearchCriteria firstCriteria = new MethodSearchCriteria(Collections.singleton("hudson/model/Run#getLog()Ljava/lang/String;"));
+        List<DeprecatedUsage> firstUsages = new ArrayList<>();
+        ClassHierarchy.Builder builder = new ClassHierarchy.Builder();
+        for (File pluginFile : pluginFiles) {
+            DeprecatedUsage usage = new DeprecatedUsage(pluginFile.getName(), "1.0", firstCriteria, false);
+            usage.retainReferences();
+            usage.scan(pluginFile);
+            builder.addAll(usage.getSuperClassAndInterfacesByClass());
+            firstUsages.add(usage);
+        }
+        ClassHierarchy classHierarchy = builder.build();
+        firstUsages.forEach(usage -> usage.resolve(classHierarchy));
+
+        // as the recursive search of Main, with and without --recursiveRescan
+        List<Set<String>> levels = new ArrayList<>();
+        Set<String> allMethods = new HashSet<>();
+        List<DeprecatedUsage> usages = firstUsages;
+        while (true) {
+            Set<String> newMethods = new TreeSet<>();
+            for (DeprecatedUsage usage : usages) {
+                usage.getNewSignatures().forEach(id -> {
+                    if (allMethods.add(SymbolTable.get().symbol(id))) {
+                        newMethods.add(SymbolTable.get().symbol(id));
+                    }
+                });
+            }
+            if (newMethods.isEmpty()) {
+                break;
+            }
+            levels.add(newMethods);
+            SearchCriteria searchCriteria = new RecursiveSearchCriteria(newMethods).compile();
+            List<DeprecatedUsage> replayed = new ArrayList<>();
+            for (int i = 0; i < pluginFiles.size(); i++) {
+                DeprecatedUsage rescanned = new DeprecatedUsage(pluginFiles.get(i).getName(), "1.0", searchCriteria, false);
+                rescanned.scan(pluginFiles.get(i));
+                rescanned.resolve(classHierarchy);
+                replayed.add(firstUsages.get(i).replay(searchCriteria, classHierarchy));
+
+                assertEquals(rescanned.getClasses(), replayed.get(i).getClasses());
+                assertEquals(rescanned.getMethods(), replayed.get(i).getMethods());
+                assertEquals(rescanned.getFields(), replayed.get(i).getFields());
+                assertEquals(symbols(rescanned.getProviderToConsumers()),
+                        symbols(replayed.get(i).getProviderToConsumers()));
+            }
+            usages = replayed;
+        }
+        assertEquals(Arrays.asList(
+                Collections.singleton(helper + "#log()V"),
+                new TreeSet<>(Arrays.asList(util + "#wrap()V", client + "#use()V")),
+                new TreeSet<>(Arrays.asList(client + "#lambda()V", client + "#deeper()V"))), levels);
+    }
+
+    @Test
+    public void replaysOnlyThePluginsMentioningTheClassesOfTheLevel() throws Exception {
+        String helper = "org/jenkinsci/plugins/a/Helper";
+        String client = "org/jenkinsci/plugins/b/Client";
+        String user = "org/jenkinsci/plugins/c/User";
+        File pluginA = new TestPlugin()
+                .addClass(helper, "hudson/model/Run")
+                .addMethod("log", "()V")
+                .callMethod(helper, "getLog", "()Ljava/lang/String;")
+                .writeTo(folder.newFile("a.hpi"));
+        // the deprecated owner is only reached through the classes of the other plugins
+        File pluginB = new TestPlugin()
+                .addClass(client, "java/lang/Object")
+                .addMethod("use", "()V")
+                .callMethod(helper, "log", "()V")
+                .writeTo(folder.newFile("b.hpi"));
+        File pluginC = new TestPlugin()
+                .addClass(user, "java/lang/Object")
+                .addMethod("run", "()V")
+                .callMethod(client, "use", "()V")
+                .addMethod("lambda", "()V")
+                .referenceMethod(user, "run", "()V")
+                .writeTo(folder.newFile("c.hpi"));
+        File pluginD = new TestPlugin()
+                .addClass("org/jenkinsci/plugins/d/Other", "hudson/model/Run")
+                .addMethod("run", "()V")
+                .callMethod("hudson/model/Run", "getParent", "()Lhudson/model/Job;")
+                .writeTo(folder.newFile("d.hpi"));
+        List<File> pluginFiles = Arrays.asList(pluginA, pluginB, pluginC, pluginD);
+
+        SearchCriteria firstCriteria = new MethodSearchCriteria(Collections.singleton("hudson/model/Run#getLog()Ljava/lang/String;"));
+        List<DeprecatedUsage> firstUsages = new ArrayList<>();
+        ClassHierarchy.Builder builder = new ClassHierarchy.Builder();
+        for (File pluginFile : pluginFiles) {
+            DeprecatedUsage usage = new DeprecatedUsage(pluginFile.getName(), "1.0", firstCriteria, false);
+            usage.retainReferences();
+            usage.scan(pluginFile);
+            builder.addAll(usage.getSuperClassAndInterfacesByClass());
+            firstUsages.add(usage);
+        }
+        ClassHierarchy classHierarchy = builder.build();
+        firstUsages.forEach(usage -> usage.resolve(classHierarchy));
+
+        // as the recursive search of Main, replaying every plugin, only the selected ones, or rescanning them all
+        List<Set<String>> levels = new ArrayList<>();
+        Set<String> allMethods = new HashSet<>();
+        Set<String> newMethods = getNewMethods(firstUsages, allMethods);
+        List<List<String>> selectedByLevel = new ArrayList<>();
+        while (!newMethods.isEmpty()) {
+            allMethods.addAll(newMethods);
+            levels.add(newMethods);
+            RecursiveSearchCriteria recursiveSearchCriteria = new RecursiveSearchCriteria(newMethods);
+            SearchCriteria searchCriteria = recursiveSearchCriteria.compile();
+            List<DeprecatedUsage> replayed = new ArrayList<>();
+            List<DeprecatedUsage> pruned = new ArrayList<>();
+            List<String> selected = new ArrayList<>();
+            for (int i = 0; i < pluginFiles.size(); i++) {
+                DeprecatedUsage rescanned = new DeprecatedUsage(pluginFiles.get(i).getName(), "1.0", searchCriteria, false);
+                rescanned.scan(pluginFiles.get(i));
+                rescanned.resolve(classHierarchy);
+                DeprecatedUsage usage = firstUsages.get(i).replay(searchCriteria, classHierarchy);
+                replayed.add(usage);
+                assertEquals(rescanned.getMethods(), usage.getMethods());
+                assertEquals(symbols(rescanned.getProviderToConsumers()), symbols(usage.getProviderToConsumers()));
+
+                IntSet referencedClasses = firstUsages.get(i).getReferencedClasses();
+                if (recursiveSearchCriteria.getRelatedClasses().stream().anyMatch(className ->
+                        referencedClasses.contains(SymbolTable.get().find(className)))) {
+                    selected.add(pluginFiles.get(i).getName());
+                    pruned.add(firstUsages.get(i).replay(searchCriteria, classHierarchy));
+                } else {
+                    // what the pruning leaves out finds nothing
+                    assertTrue(usage.getMethods().isEmpty());
+                    assertTrue(usage.getProviderToConsumers().isEmpty());
+                }
+            }
+            selectedByLevel.add(selected);
+            newMethods = getNewMethods(pruned, allMethods);
+            assertEquals(getNewMethods(replayed, allMethods), newMethods);
+        }
+        assertEquals(Arrays.asList(
+                Collections.singleton(helper + "#log()V"),
+                Collections.singleton(client + "#use()V"),
+                new TreeSet<>(Arrays.asList(user + "#run()V")),
+                new TreeSet<>(Arrays.asList(user + "#lambda()V"))), levels);
+        assertEquals(Arrays.asList(
+                Arrays.asList("a.hpi", "b.hpi"),
+                Arrays.asList("b.hpi", "c.hpi"),
+                Collections.singletonList("c.hpi"),
+                Collections.singletonList("c.hpi")), selectedByLevel);
+    }
+
+    /**
+     * Returns the callers found by the usages which are not in the given methods
+     */
+    private static Set<String> getNewMethods(List<DeprecatedUsage> usages, Set<String> allMethods) {
+        Set<String> newMethods = new TreeSet<>();
+        for (DeprecatedUsage usage : usages) {
+            usage.getNewSignatures().forEach(id -> {
+                String signature = SymbolTable.get().symbol(id);
+                if (!allMethods.contains(signature)) {
+                    newMethods.add(signature);
+                }
+            });
+        }
+        return newMethods;
+    }
+
+    @Test
+    public void resolvesTheClassesOfThePluginWithItsOwnHierarchy() throws Exception {
+        File pluginFile = new TestPlugin()
+                .addClass("org/example/Shadowed", "java/lang/Object")
+                .addClass("org/example/Caller", "java/lang/Object")
+                .addMethod("viaShadowed", "()V")
+                .callMethod("org/example/Shadowed", "old", "()V")
+                .addMethod("viaSub", "()V")
+                .callMethod("org/example/Sub", "old", "()V")
+                .writeTo(folder.newFile("example.hpi"));
+        // another archive defines a class of the same name with other supertypes
+        Map<String, List<String>> otherArchive = new HashMap<>();
+        otherArchive.put("org/example/Shadowed", Collections.singletonList("hudson/Deprecated"));
+        otherArchive.put("org/example/Sub", Collections.singletonList("hudson/Deprecated"));
+        ClassHierarchy classHierarchy = new ClassHierarchy.Builder().addAll(otherArchive).build();
+
+        DeprecatedUsage usage = new DeprecatedUsage("example", "1.0",
+                new MethodSearchCriteria(Collections.singleton("hudson/Deprecated#old()V")), false);
+        usage.scan(pluginFile);
+        assertEquals(Collections.emptyList(), usage.getSuperClassAndInterfacesByClass().get("org/example/Shadowed"));
+        usage.resolve(classHierarchy);
+
+        assertEquals(Collections.singleton("hudson/Deprecated#old()V"), usage.getMethods());
+        Set<String> callers = new HashSet<>();
+        usage.getNewSignatures().forEach(id -> callers.add(SymbolTable.get().symbol(id)));
+        assertEquals(Collections.singleton("org/example/Caller#viaSub()V"), callers);
+        // only the classes not defined by the plugin depend on the shared hierarchy
+        Map<String, List<String>> otherShadowed = new HashMap<>(otherArchive);
+        otherShadowed.put("org/example/Shadowed", Collections.singletonList("hudson/Other"));
+        assertTrue(usage.isResolvedWith(new ClassHierarchy.Builder().addAll(otherShadowed).build()));
+        assertFalse(usage.isResolvedWith(ClassHierarchy.EMPTY));
+    }
+
+    @Test
+    public void resolvesLocallyTheCallsThroughTheClassesOfThePlugin() throws Exception {
+        File pluginFile = new TestPlugin()
+                .addClass("org/example/Base", "java/lang/Object")
+                .addClass("org/example/Local", "org/example/Base")
+                .addClass("org/example/Builder", "hudson/tasks/Builder")
+                .addClass("org/example/Caller", "java/lang/Object")
+                .addMethod("viaLocal", "()V")
+                .callMethod("org/example/Local", "old", "()V")
+                .addMethod("viaBuilder", "()V")
+                .callMethod("org/example/Builder", "old", "()V")
+                .writeTo(folder.newFile("example.hpi"));
+        ClassHierarchy classHierarchy = new ClassHierarchy.Builder()
+                .addAll(Collections.singletonMap("hudson/tasks/Builder", Collections.singletonList("hudson/model/Describable")))
+                .build();
+        SearchCriteria searchCriteria = new MethodSearchCriteria(new HashSet<>(Arrays.asList(
+                "org/example/Base#old()V", "hudson/tasks/Builder#old()V")));
+
+        DeprecatedUsage usage = new DeprecatedUsage("example", "1.0", searchCriteria, false);
+        usage.scan(pluginFile);
+        usage.resolveLocalReferences();
+        // the call through a class of another archive waits for the shared hierarchy
+        assertEquals(Collections.singleton("org/example/Base#old()V"), usage.getMethods());
+        usage.resolve(classHierarchy);
+
+        DeprecatedUsage resolvedAtOnce = new DeprecatedUsage("example", "1.0", searchCriteria, false);
+        resolvedAtOnce.scan(pluginFile);
+        resolvedAtOnce.resolve(classHierarchy);
+        assertEquals(new TreeSet<>(Arrays.asList("hudson/tasks/Builder#old()V", "org/example/Base#old()V")),
+                resolvedAtOnce.getMethods());
+        assertEquals(resolvedAtOnce.getMethods(), usage.getMethods());
+        assertEquals(symbols(resolvedAtOnce.getProviderToConsumers()), symbols(usage.getProviderToConsumers()));
+        assertTrue(usage.isResolvedWith(classHierarchy));
+        assertFalse(usage.isResolvedWith(ClassHierarchy.EMPTY));
+    }
+
+    private static Map<String, Set<String>> symbols(IntObjectMap<IntSet> map) {
+        SymbolTable symbols = SymbolTable.get();
+        Map<String, Set<String>> result = new TreeMap<>();
+        map.forEach((key, ids) -> result.put(symbols.symbol(key), new TreeSet<>(symbols.symbols(ids))));
+        return result;
+    }
+
+    /**
+     * Scan of a plugin as it was done before the single pass: the hierarchy of its classes is read first, then the
+     * classes are read again, each call being resolved against that hierarchy right away
+     */
+    private static final class TwoPassScan {
+        private final SearchCriteria searchCriteria;
+        private final Map<String, List<String>> superClassAndInterfacesByClass = new HashMap<>();
+        final Set<String> classes = new TreeSet<>();
+        final Set<String> methods = new TreeSet<>();
+        final Set<String> fields = new TreeSet<>();
+        final Map<String, Set<String>> providerToConsumers = new TreeMap<>();
+
+        TwoPassScan(SearchCriteria searchCriteria, File pluginFile) throws IOException {
+            this.searchCriteria = searchCriteria;
+            List<byte[]> classFiles = new ArrayList<>();
+            try (ZipFile zipFile = new ZipFile(pluginFile)) {
+                for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                    try (InputStream input = zipFile.getInputStream(entry)) {
+                        classFiles.add(input.readAllBytes());
+                    }
+                }
+            }
+            for (byte[] classFile : classFiles) {
+                new ClassReader(classFile).accept(new ClassVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visit(int version, int access, String name, String signature, String superName,
+                                      String[] interfaces) {
+                        List<String> superClassAndInterfaces = new ArrayList<>();
+                        if (superName != null && !DeprecatedUsage.isJavaClass(superName)) {
+                            superClassAndInterfaces.add(superName);
+                        }
+                        for (String anInterface : interfaces) {
+                            if (!DeprecatedUsage.isJavaClass(anInterface)) {
+                                superClassAndInterfaces.add(anInterface);
+                            }
+                        }
+                        if (!superClassAndInterfaces.isEmpty()) {
+                            superClassAndInterfacesByClass.put(name, superClassAndInterfaces);
+                        }
+                    }
+                }, ClassReader.SKIP_CODE);
+            }
+            for (byte[] classFile : classFiles) {
+                ClassReader classReader = new ClassReader(classFile);
+                addClassesOfConstants(classReader, classFile);
+                classReader.accept(new CallsClassVisitor(), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            }
+        }
+
+        private void addClassesOfConstants(ClassReader classReader, byte[] data) {
+            for (int i = 1; i < classReader.getItemCount(); i++) {
+                int offset = classReader.getItem(i);
+                if (offset == 0 || data[offset - 1] != 1) {
+                    continue;
+                }
+                // the constants of the test plugins are ASCII
+                String constant = new String(data, offset + 2, classReader.readUnsignedShort(offset),
+                        StandardCharsets.UTF_8);
+                if (searchCriteria.isLookingForClass(constant)) {
+                    classes.add(constant);
+                } else if (constant.length() > 2 && constant.startsWith("L") && constant.endsWith(";")
+                        && searchCriteria.isLookingForClass(constant.substring(1, constant.length() - 1))) {
+                    classes.add(constant.substring(1, constant.length() - 1));
+                }
+            }
+        }
+
+        private void called(boolean field, String className, String name, String desc, String caller) {
+            if (className.endsWith("DefaultTypeTransformation") || !searchCriteria.shouldAnalyzeClass(className)) {
+                return;
+            }
+            String key = field ? DeprecatedApi.getFieldKey(className, name, desc)
+                    : DeprecatedApi.getMethodKey(className, name, desc);
+            boolean lookingForClass = searchCriteria.isLookingForClass(className);
+            boolean lookingForKey = field ? searchCriteria.isLookingForField(key, className, name)
+                    : searchCriteria.isLookingForMethod(key, className, name);
+            if (lookingForClass) {
+                classes.add(className);
+            }
+            if (lookingForKey) {
+                (field ? fields : methods).add(key);
+            }
+            if (lookingForClass || lookingForKey) {
+                providerToConsumers.computeIfAbsent(key, k -> new TreeSet<>()).add(caller);
+            }
+            for (String superClassOrInterface : superClassAndInterfacesByClass.getOrDefault(className,
+                    Collections.emptyList())) {
+                called(field, superClassOrInterface, name, desc, caller);
+            }
+        }
+
+        private final class CallsClassVisitor extends ClassVisitor {
+            private String className;
+
+            CallsClassVisitor() {
+                super(Opcodes.ASM9);
+            }
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName,
+                              String[] interfaces) {
+                className = name;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String methodName, String methodDesc, String signature,
+                                             String[] exceptions) {
+                String caller = DeprecatedApi.getMethodKey(className, methodName, methodDesc);
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                        called(false, owner, name, desc, caller);
+                    }
+
+                    @Override
+                    public void visitInvokeDynamicInsn(String name, String desc, Handle bootstrapMethodHandle,
+                                                       Object... bootstrapMethodArguments) {
+                        if (bootstrapMethodArguments.length > 1 && bootstrapMethodArguments[1] instanceof Handle) {
+                            Handle handle = (Handle) bootstrapMethodArguments[1];
+                            called(false, handle.getOwner(), handle.getName(), handle.getDesc(), caller);
+                        }
+                    }
+
+                    @Override
+                    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                        called(true, owner, name, desc, caller);
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * Looks for the given method keys, in all the classes
+     */
+    private static final class MethodSearchCriteria implements SearchCriteria {
+        private final Set<String> methodKeys;
+
+        MethodSearchCriteria(Set<String> methodKeys) {
+            this.methodKeys = methodKeys;
+        }
+
+        @Override
+        public boolean isLookingForClass(String className) {
+            return false;
+        }
+
+        @Override
+        public boolean isLookingForMethod(String methodKey, String className, String methodName) {
+            return methodKeys.contains(methodKey);
+        }
+
+        @Override
+        public boolean isLookingForField(String fieldKey, String className, String fieldName) {
+            return false;
+        }
+
+        @Override
+        public boolean shouldAnalyzeClass(String className) {
+            return true;
+        }
+
+        @Override
+        public Collection<String> getClassPatterns() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public String getFingerprint() {
+            return "methods " + methodKeys;
+        }
+    }
+}
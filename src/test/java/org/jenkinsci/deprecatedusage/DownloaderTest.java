@@ -0,0 +1,281 @@
+package org.jenkinsci.deprecatedusage;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DownloaderTest {
+    private static final byte[] CONTENT = "content of the plugin".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandInServer server;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StandInServer();
+        // a single thread, which the downloads must not hold while they wait for the network
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void retriesBadGatewayAndReset() throws Exception {
+        server.responses.addAll(Arrays.asList(Response.BAD_GATEWAY, Response.RESET));
+        JenkinsFile file = newFile("plugin", CONTENT);
+
+        assertTrue(synchronize(new Downloader(executor, 4, 10), file));
+        assertEquals(3, server.requests.get());
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.getFile().toPath()));
+    }
+
+    @Test
+    public void givesUpAfterTwoRetries() throws Exception {
+        server.responses.addAll(Arrays.asList(Response.BAD_GATEWAY, Response.RESET, Response.BAD_GATEWAY));
+
+        assertFalse(synchronize(new Downloader(executor, 4, 10), newFile("plugin", CONTENT)));
+        assertEquals(3, server.requests.get());
+    }
+
+    @Test
+    public void doesNotRetryNotFound() throws Exception {
+        server.responses.add(Response.NOT_FOUND);
+
+        assertFalse(synchronize(new Downloader(executor, 4, 10), newFile("plugin", CONTENT)));
+        assertEquals(1, server.requests.get());
+    }
+
+    @Test
+    public void doesNotRetryWrongDigest() throws Exception {
+        JenkinsFile file = newFile("plugin", "other content".getBytes(StandardCharsets.UTF_8));
+
+        assertFalse(synchronize(new Downloader(executor, 4, 10), file));
+        assertEquals(1, server.requests.get());
+    }
+
+    @Test
+    public void limitsConcurrentDownloadsWithoutHoldingThreads() throws Exception {
+        server.responses.addAll(Arrays.asList(Response.HOLD, Response.HOLD, Response.HOLD, Response.HOLD));
+        Downloader downloader = new Downloader(executor, 2, 10);
+        Map<JenkinsFile, CompletableFuture<Boolean>> available = downloader.synchronizeEach(Arrays.asList(
+                newFile("a", CONTENT), newFile("b", CONTENT), newFile("c", CONTENT), newFile("d", CONTENT)));
+
+        server.awaitHeld(2);
+        // the only thread of the executor is free while the downloads wait for the server
+        assertTrue(executor.submit(() -> true).get(10, TimeUnit.SECONDS));
+        assertEquals(2, server.requests.get());
+
+        server.release.countDown();
+        for (CompletableFuture<Boolean> isAvailable : available.values()) {
+            assertTrue(isAvailable.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(4, server.requests.get());
+        assertEquals(2, server.maxConcurrentRequests.get());
+    }
+
+    @Test
+    public void resumesWhereTheConnectionDropped() throws Exception {
+        server.supportsRanges = true;
+        server.responses.add(Response.RESET);
+        JenkinsFile file = newFile("core", CONTENT);
+
+        assertTrue(synchronize(new Downloader(executor, 4, 10), file));
+        assertEquals(Arrays.asList("", "bytes=" + CONTENT.length / 2 + "-"), new ArrayList<>(server.ranges));
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.getFile().toPath()));
+    }
+
+    @Test
+    public void downloadsAgainWhenRangesAreNotSupported() throws Exception {
+        server.responses.add(Response.RESET);
+        JenkinsFile file = newFile("core", CONTENT);
+
+        assertTrue(synchronize(new Downloader(executor, 4, 10), file));
+        assertEquals(Arrays.asList("", "bytes=" + CONTENT.length / 2 + "-"), new ArrayList<>(server.ranges));
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.getFile().toPath()));
+    }
+
+    @Test
+    public void downloadsAgainWhenRangeIsNotSatisfiable() throws Exception {
+        server.supportsRanges = true;
+        server.responses.addAll(Arrays.asList(Response.RESET, Response.RANGE_NOT_SATISFIABLE));
+        JenkinsFile file = newFile("core", CONTENT);
+
+        assertTrue(synchronize(new Downloader(executor, 4, 10), file));
+        assertEquals(Arrays.asList("", "bytes=" + CONTENT.length / 2 + "-", ""), new ArrayList<>(server.ranges));
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.getFile().toPath()));
+    }
+
+    @Test
+    public void checksTheDigestOfResumedDownloads() throws Exception {
+        server.supportsRanges = true;
+        server.responses.add(Response.RESET);
+        server.content = "content of the plugin, changed in the meantime".getBytes(StandardCharsets.UTF_8);
+
+        assertFalse(synchronize(new Downloader(executor, 4, 10), newFile("core", CONTENT)));
+        assertEquals(2, server.requests.get());
+    }
+
+    private JenkinsFile newFile(String name, byte[] expectedContent) throws Exception {
+        JenkinsFile file = new JenkinsFile(name, "1.0", server.getUrl() + name + ".hpi", null,
+                MessageDigest.getInstance("SHA-256"), DigestUtils.sha256(expectedContent));
+        file.setFile(new File(folder.getRoot(), name + ".hpi"));
+        return file;
+    }
+
+    private static boolean synchronize(Downloader downloader, JenkinsFile file) throws Exception {
+        return downloader.synchronizeEach(Arrays.asList(file)).get(file).get(10, TimeUnit.SECONDS);
+    }
+
+    private enum Response {
+        BAD_GATEWAY, NOT_FOUND, RESET, HOLD, RANGE_NOT_SATISFIABLE
+    }
+
+    /**
+     * Serves the content, with the next of the responses queued, then successfully
+     */
+    private static final class StandInServer implements Closeable {
+        private final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        private final ExecutorService connections = Executors.newCachedThreadPool();
+        private final Queue<Response> responses = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger concurrentRequests = new AtomicInteger();
+        private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+        private final AtomicInteger held = new AtomicInteger();
+        private final CountDownLatch release = new CountDownLatch(1);
+        // Range header of each request, empty when there is none
+        private final Queue<String> ranges = new ConcurrentLinkedQueue<>();
+        private volatile boolean supportsRanges;
+        private volatile byte[] content = CONTENT;
+
+        StandInServer() throws IOException {
+            connections.execute(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        connections.execute(() -> handle(socket));
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            });
+        }
+
+        String getUrl() {
+            return "http://localhost:" + serverSocket.getLocalPort() + "/";
+        }
+
+        void awaitHeld(int count) throws InterruptedException {
+            for (int i = 0; i < 1000 && held.get() < count; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, held.get());
+        }
+
+        private void handle(Socket socket) {
+            try (Socket s = socket) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+                String range = "";
+                String line = reader.readLine();
+                while (line != null && !line.isEmpty()) {
+                    if (line.regionMatches(true, 0, "Range:", 0, "Range:".length())) {
+                        range = line.substring("Range:".length()).trim();
+                    }
+                    line = reader.readLine();
+                }
+                ranges.add(range);
+                requests.incrementAndGet();
+                maxConcurrentRequests.accumulateAndGet(concurrentRequests.incrementAndGet(), Math::max);
+                try {
+                    Response response = responses.poll();
+                    OutputStream out = s.getOutputStream();
+                    if (response == Response.RESET) {
+                        // in the middle of the body, as a connection reset before the response is retried by the client
+                        out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + CONTENT.length + "\r\n\r\n")
+                                .getBytes(StandardCharsets.ISO_8859_1));
+                        out.write(CONTENT, 0, CONTENT.length / 2);
+                        out.flush();
+                        s.setSoLinger(true, 0);
+                        return;
+                    } else if (response == Response.BAD_GATEWAY) {
+                        write(out, "502 Bad Gateway", "", new byte[0]);
+                    } else if (response == Response.NOT_FOUND) {
+                        write(out, "404 Not Found", "", new byte[0]);
+                    } else if (response == Response.RANGE_NOT_SATISFIABLE) {
+                        write(out, "416 Range Not Satisfiable", "", new byte[0]);
+                    } else {
+                        if (response == Response.HOLD) {
+                            held.incrementAndGet();
+                            release.await();
+                        }
+                        byte[] body = content;
+                        if (supportsRanges && range.startsWith("bytes=") && range.endsWith("-")) {
+                            int start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                            write(out, "206 Partial Content",
+                                    "Content-Range: bytes " + start + "-" + (body.length - 1) + "/" + body.length + "\r\n",
+                                    Arrays.copyOfRange(body, start, body.length));
+                        } else {
+                            write(out, "200 OK", "", body);
+                        }
+                    }
+                } finally {
+                    concurrentRequests.decrementAndGet();
+                }
+            } catch (IOException | InterruptedException e) {
+                // the client went away
+            }
+        }
+
+        private static void write(OutputStream out, String status, String headers, byte[] body) throws IOException {
+            out.write(("HTTP/1.1 " + status + "\r\n" + headers + "Content-Length: " + body.length
+                    + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.write(body);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            release.countDown();
+            serverSocket.close();
+            connections.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.jenkinsci.deprecatedusage;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class InFlightWindowTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    // runs the window, which blocks until every result is consumed
+    private final ExecutorService caller = Executors.newSingleThreadExecutor();
+    private final BlockingQueue<Integer> started = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Integer> consumed = new LinkedBlockingQueue<>();
+    private final List<CountDownLatch> releases = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        caller.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void boundsTheTasksInFlight() throws Exception {
+        Future<?> done = forEachCompleted(new InFlightWindow(executor, 2, Long.MAX_VALUE), 1, 1, 1, 1);
+        assertStarted(0, 1);
+        assertNoneStarted();
+
+        // each completion is consumed before the tasks submitted earlier, and lets the next input in
+        release(1);
+        assertStarted(2);
+        assertNoneStarted();
+        release(2);
+        assertStarted(3);
+        release(3);
+        release(0);
+        done.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void boundsTheBytesInFlight() throws Exception {
+        Future<?> done = forEachCompleted(new InFlightWindow(executor, 10, 100), 60, 60, 30, 150);
+        // the second input does not fit next to the first one, even if more tasks are allowed
+        assertStarted(0);
+        assertNoneStarted();
+
+        release(0);
+        assertStarted(1, 2);
+        assertNoneStarted();
+
+        // heavier than the whole budget, the last one waits until it can run alone
+        release(2);
+        assertNoneStarted();
+        release(1);
+        assertStarted(3);
+        release(3);
+        done.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs the window from another thread, with a task per weight which waits for {@link #release(int)}
+     */
+    private Future<?> forEachCompleted(InFlightWindow window, long... weights) {
+        List<Integer> inputs = new ArrayList<>();
+        for (int i = 0; i < weights.length; i++) {
+            inputs.add(i);
+            releases.add(new CountDownLatch(1));
+        }
+        return caller.submit(() -> {
+            Thread callingThread = Thread.currentThread();
+            window.forEachCompleted(inputs, index -> weights[index], index -> {
+                started.add(index);
+                try {
+                    releases.get(index).await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return index;
+            }, (index, result) -> {
+                assertEquals(callingThread, Thread.currentThread());
+                assertEquals(index, result.intValue());
+                consumed.add(index);
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Lets the task of the input complete, and checks that its result is consumed right away
+     */
+    private void release(int index) throws InterruptedException {
+        releases.get(index).countDown();
+        assertEquals(Integer.valueOf(index), consumed.poll(10, TimeUnit.SECONDS));
+    }
+
+    private void assertStarted(Integer... indexes) throws InterruptedException {
+        List<Integer> actual = new ArrayList<>();
+        for (int i = 0; i < indexes.length; i++) {
+            actual.add(started.poll(10, TimeUnit.SECONDS));
+        }
+        Collections.sort(actual);
+        assertEquals(Arrays.asList(indexes), actual);
+    }
+
+    private void assertNoneStarted() throws InterruptedException {
+        assertNull(started.poll(200, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,97 @@
+package org.jenkinsci.deprecatedusage;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LibraryScanCacheTest {
+    @Test
+    public void scansOnceForConcurrentMisses() throws Exception {
+        LibraryScanCache cache = new LibraryScanCache(1024 * 1024, null);
+        AtomicInteger scanCount = new AtomicInteger();
+        CountDownLatch scanning = new CountDownLatch(1);
+        CountDownLatch waiting = new CountDownLatch(1);
+        ScanResult result = newScanResult("org/example/A");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ScanResult> first = executor.submit(() -> cache.get("key", () -> {
+                scanCount.incrementAndGet();
+                scanning.countDown();
+                await(waiting);
+                return result;
+            }));
+            scanning.await();
+            Future<ScanResult> second = executor.submit(() -> cache.get("key", () -> {
+                scanCount.incrementAndGet();
+                return newScanResult("org/example/B");
+            }));
+            // the second lookup waits for the scan of the first one
+            Thread.sleep(100);
+            assertEquals(1, scanCount.get());
+            waiting.countDown();
+            assertSame(result, first.get(10, TimeUnit.SECONDS));
+            assertSame(result, second.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, scanCount.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedResults() throws Exception {
+        long resultSize = newScanResult("org/example/C0").estimateSize();
+        LibraryScanCache cache = new LibraryScanCache(4 * resultSize, null);
+        for (int i = 0; i < 4; i++) {
+            String className = "org/example/C" + i;
+            cache.get(className, () -> newScanResult(className));
+        }
+        // used again, so that it is kept when the other ones are evicted
+        cache.get("org/example/C0", () -> newScanResult("org/example/C0"));
+        assertEquals(1, cache.getHitCount());
+        cache.get("org/example/C4", () -> newScanResult("org/example/C4"));
+        assertEquals(5, cache.getMissCount());
+
+        cache.get("org/example/C0", () -> newScanResult("org/example/C0"));
+        cache.get("org/example/C4", () -> newScanResult("org/example/C4"));
+        assertEquals(3, cache.getHitCount());
+        cache.get("org/example/C1", () -> newScanResult("org/example/C1"));
+        assertEquals(6, cache.getMissCount());
+    }
+
+    @Test
+    public void estimatesTheSharedStringsOnce() {
+        ScanResult scanResult = newScanResult("org/example/A");
+        long size = scanResult.estimateSize();
+        scanResult.referencedClasses.add(scanResult.classes.iterator().next());
+        long sharedSize = scanResult.estimateSize();
+        scanResult.constants.add(new String("org/example/A"));
+        assertTrue(sharedSize > size);
+        assertTrue(scanResult.estimateSize() - sharedSize > sharedSize - size);
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedIOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static ScanResult newScanResult(String className) {
+        ScanResult scanResult = new ScanResult();
+        scanResult.classes.add(className);
+        return scanResult;
+    }
+}
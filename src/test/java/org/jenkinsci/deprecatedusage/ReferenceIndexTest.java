@@ -0,0 +1,151 @@
+package org.jenkinsci.deprecatedusage;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jenkinsci.deprecatedusage.report.DeprecatedUnusedApiReport;
+import org.jenkinsci.deprecatedusage.report.DeprecatedUsageByApiReport;
+import org.jenkinsci.deprecatedusage.report.DeprecatedUsageByPluginReport;
+import org.jenkinsci.deprecatedusage.search.OptionsBasedSearchCriteria;
+import org.jenkinsci.deprecatedusage.search.SearchCriteria;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReferenceIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void queriesTheIndexAsAScan() throws Exception {
+        String base = "org/jenkinsci/plugins/a/BaseStep";
+        File pluginA = new TestPlugin()
+                .addClass(base, "hudson/model/Run")
+                .addMethod("perform", "()V")
+                .callMethod(base, "getLog", "()Ljava/lang/String;")
+                .readField("hudson/model/Run", "XSTREAM", "Lcom/thoughtworks/xstream/XStream;")
+                .addMethod("constants", "()V")
+                .loadConstant("hudson/model/Deprecated")
+                .loadConstant("Lhudson/util/Secret;")
+                .writeTo(folder.newFile("a.hpi"));
+        // the supertypes of its step are only known from the other plugin
+        String step = "org/jenkinsci/plugins/b/Step";
+        File pluginB = new TestPlugin()
+                .addClass(step, base)
+                .addMethod("run", "()V")
+                .callMethod(step, "getParent", "()Lhudson/model/Job;")
+                .callMethod("hudson/model/Action", "getDisplayName", "()Ljava/lang/String;")
+                .addMethod("lambda", "()V")
+                .referenceMethod(step, "getLog", "()Ljava/lang/String;")
+                .writeTo(folder.newFile("b.hpi"));
+        Map<String, File> pluginFiles = new HashMap<>();
+        pluginFiles.put("a", pluginA);
+        pluginFiles.put("b", pluginB);
+
+        // indexed with other criteria than the ones of the queries
+        ReferenceIndex referenceIndex = new ReferenceIndex(folder.newFolder("reference-index"));
+        SearchCriteria indexCriteria = new OptionsBasedSearchCriteria(null, null, null, true, false, false).compile();
+        List<ReferenceIndex.Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, File> plugin : pluginFiles.entrySet()) {
+            DeprecatedUsage usage = new DeprecatedUsage(plugin.getKey(), "1.0", indexCriteria, false);
+            usage.retainReferences();
+            usage.retainConstants();
+            usage.scan(plugin.getValue());
+            String key = DigestUtils.sha256Hex(plugin.getKey());
+            referenceIndex.write(key, usage);
+            entries.add(new ReferenceIndex.Entry(plugin.getKey(), "1.0", false, false, key));
+        }
+        referenceIndex.writeManifest(new DeprecatedApi(), entries);
+        entries = referenceIndex.readManifest(new DeprecatedApi());
+        assertEquals(2, entries.size());
+
+        List<String> classes = Arrays.asList("hudson/model/Deprecated", "hudson/util/Secret", "hudson/model/Action",
+                "hudson/model/J*");
+        Map<String, Set<String>> methods = new HashMap<>();
+        methods.put("hudson/model/Run", new HashSet<>(Arrays.asList("getLog", "getParent")));
+        methods.put("hudson/model/Action", Collections.singleton("getDisplayName"));
+        Map<String, Set<String>> fields = Collections.singletonMap("hudson/model/Run", Collections.singleton("XSTREAM"));
+        List<SearchCriteria> criteria = Arrays.asList(
+                new OptionsBasedSearchCriteria(classes, methods, fields, false, false, false),
+                new OptionsBasedSearchCriteria(classes, methods, fields, true, false, false),
+                new OptionsBasedSearchCriteria(null, methods, null, true, false, false),
+                new OptionsBasedSearchCriteria(classes, null, fields, false, true, true));
+        for (SearchCriteria searchCriteria : criteria) {
+            SearchCriteria compiledCriteria = searchCriteria.compile();
+
+            ClassHierarchy.Builder builder = new ClassHierarchy.Builder();
+            List<DeprecatedUsage> scanned = new ArrayList<>();
+            for (ReferenceIndex.Entry entry : entries) {
+                DeprecatedUsage usage = new DeprecatedUsage(entry.name, entry.version, compiledCriteria, false);
+                usage.scan(pluginFiles.get(entry.name));
+                builder.addAll(usage.getSuperClassAndInterfacesByClass());
+                scanned.add(usage);
+            }
+            ClassHierarchy classHierarchy = builder.build();
+            scanned.forEach(usage -> usage.resolve(classHierarchy));
+
+            ClassHierarchy.Builder indexedBuilder = new ClassHierarchy.Builder();
+            for (ReferenceIndex.Entry entry : entries) {
+                indexedBuilder.addAll(referenceIndex.readHierarchy(entry.key));
+            }
+            ClassHierarchy indexedHierarchy = indexedBuilder.build();
+            List<DeprecatedUsage> queried = new ArrayList<>();
+            for (ReferenceIndex.Entry entry : entries) {
+                DeprecatedUsage usage = new DeprecatedUsage(entry.name, entry.version, compiledCriteria, false);
+                assertTrue(referenceIndex.read(entry.key, usage));
+                usage.resolve(indexedHierarchy);
+                queried.add(usage);
+            }
+
+            File outputDir = writeReports(scanned);
+            File queriedOutputDir = writeReports(queried);
+            String[] fileNames = outputDir.list();
+            Arrays.sort(fileNames);
+            String[] queriedFileNames = queriedOutputDir.list();
+            Arrays.sort(queriedFileNames);
+            assertArrayEquals(fileNames, queriedFileNames);
+            for (String fileName : fileNames) {
+                assertEquals(fileName, new String(Files.readAllBytes(new File(outputDir, fileName).toPath())),
+                        new String(Files.readAllBytes(new File(queriedOutputDir, fileName).toPath())));
+            }
+        }
+
+        // through the supertypes of the other plugin
+        DeprecatedUsage usage = new DeprecatedUsage("b", "1.0", criteria.get(0).compile(), false);
+        assertTrue(referenceIndex.read(DigestUtils.sha256Hex("b"), usage));
+        usage.resolve(new ClassHierarchy.Builder().addAll(referenceIndex.readHierarchy(DigestUtils.sha256Hex("a")))
+                .addAll(referenceIndex.readHierarchy(DigestUtils.sha256Hex("b"))).build());
+        assertEquals(new HashSet<>(Arrays.asList("hudson/model/Action#getDisplayName()Ljava/lang/String;",
+                "hudson/model/Run#getLog()Ljava/lang/String;", "hudson/model/Run#getParent()Lhudson/model/Job;")),
+                usage.getMethods());
+    }
+
+    private File writeReports(List<DeprecatedUsage> usages) throws Exception {
+        File outputDir = folder.newFolder();
+        DeprecatedApi deprecatedApi = new DeprecatedApi();
+        List<Report> reports = new ArrayList<>();
+        reports.add(new DeprecatedUsageByPluginReport(deprecatedApi, outputDir, "usage-by-plugin"));
+        reports.add(new DeprecatedUnusedApiReport(deprecatedApi, outputDir, "deprecated-and-unused"));
+        reports.add(new DeprecatedUsageByApiReport(deprecatedApi, outputDir, "usage-by-api"));
+        for (Report report : reports) {
+            for (DeprecatedUsage usage : usages) {
+                report.add(usage);
+            }
+            report.finish();
+        }
+        return outputDir;
+    }
+}
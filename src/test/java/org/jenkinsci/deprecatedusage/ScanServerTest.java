@@ -0,0 +1,207 @@
+package org.jenkinsci.deprecatedusage;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the tool in other JVMs, in a temporary directory, as the archives, the index and the reports are kept in the
+ * working directory and the options are global.
+ */
+public class ScanServerTest {
+    private static final List<String> REPORT_NAMES = Arrays.asList("usage-by-plugin", "deprecated-and-unused",
+            "usage-by-api");
+    private static final Pattern LISTENING = Pattern.compile("Listening on (http://\\S+)");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private JSONObject updateCenter;
+    private Process server;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("run");
+        updateCenter = new JSONObject().put("plugins", new JSONObject());
+        addPlugin("alpha", new TestPlugin()
+                .addClass("org/example/alpha/Caller", "java/lang/Object")
+                .addMethod("call", "()V")
+                .callMethod("org/example/Api", "old", "()V")
+                .readField("org/example/Api", "OLD", "I")
+                .addClass("org/example/alpha/Step", "org/example/Base"));
+        addPlugin("beta", new TestPlugin()
+                .addClass("org/example/beta/Caller", "java/lang/Object")
+                .addMethod("call", "()V")
+                .callMethod("org/example/Other", "run", "()V")
+                .callMethod("org/example/Api", "current", "()V"));
+        Files.write(new File(directory, "classes.txt").toPath(), Arrays.asList("org.example.Other"));
+        Files.write(new File(directory, "methods.txt").toPath(), Arrays.asList("org.example.Api#old"));
+        Files.write(new File(directory, "fields.txt").toPath(), Arrays.asList("org.example.Api#OLD"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.destroy();
+            server.waitFor(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void answersTheQueriesAsARun() throws Exception {
+        assertEquals(0, run("-C", "classes.txt", "-M", "methods.txt", "-F", "fields.txt").waitFor());
+
+        String url = startServer();
+        JSONObject status = new JSONObject(request("GET", url + "/status", null, 200));
+        assertEquals(2, status.getInt("plugins"));
+        assertEquals(0, status.getInt("cores"));
+
+        JSONObject query = new JSONObject()
+                .put("classes", new JSONArray().put("org.example.Other"))
+                .put("methods", new JSONArray().put("org.example.Api#old"))
+                .put("fields", new JSONArray().put("org.example.Api#OLD"));
+        JSONObject reports = new JSONObject(request("POST", url + "/query", query.toString(), 200));
+        for (String reportName : REPORT_NAMES) {
+            File file = new File(directory, "output/" + reportName + ".json");
+            Object expected = new JSONObject("{\"report\":"
+                    + new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8) + "}").get("report");
+            assertEquals(reportName, normalize(expected), normalize(reports.get(reportName)));
+        }
+        assertTrue(reports.getJSONObject("usage-by-plugin").has("alpha"));
+        assertTrue(reports.getJSONObject("usage-by-plugin").has("beta"));
+
+        // the server only analyzes the new plugin, in the background
+        addPlugin("gamma", new TestPlugin()
+                .addClass("org/example/gamma/Caller", "java/lang/Object")
+                .addMethod("call", "()V")
+                .callMethod("org/example/Api", "old", "()V"));
+        status = new JSONObject(request("POST", url + "/refresh", "", 202));
+        assertEquals(2, status.getInt("plugins"));
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60);
+        while (new JSONObject(request("GET", url + "/status", null, 200)).getInt("plugins") != 3) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The new plugin was not analyzed: " + getLog());
+            }
+            Thread.sleep(100);
+        }
+        reports = new JSONObject(request("POST", url + "/query", query.toString(), 200));
+        assertTrue(reports.getJSONObject("usage-by-plugin").has("gamma"));
+
+        request("GET", url + "/query", null, 405);
+    }
+
+    private void addPlugin(String name, TestPlugin plugin) throws IOException {
+        File file = new File(directory, "work/" + name + "/1.0/" + name + ".hpi");
+        file.getParentFile().mkdirs();
+        plugin.writeTo(file);
+        updateCenter.getJSONObject("plugins").put(name, new JSONObject()
+                .put("name", name)
+                .put("version", "1.0")
+                .put("url", "https://updates.example.org/" + name + ".hpi"));
+        Files.write(new File(directory, "update-center.json").toPath(),
+                updateCenter.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Starts the tool, with the plugins already in the work directory and the update center of the test
+     */
+    private Process run(String... args) throws IOException {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), Main.class.getName(),
+                "-s", "-u", new File(directory, "update-center.json").toURI().toString()));
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command)
+                .directory(directory)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(directory, "log.txt")))
+                .start();
+    }
+
+    /**
+     * Starts the server on an ephemeral port, and returns its URL once it listens
+     */
+    private String startServer() throws Exception {
+        server = run("--serve", "0", "--refreshInterval", "0");
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60);
+        while (System.currentTimeMillis() < deadline && server.isAlive()) {
+            Matcher matcher = LISTENING.matcher(getLog());
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("The server did not start: " + getLog());
+    }
+
+    private String getLog() throws IOException {
+        return new String(Files.readAllBytes(new File(directory, "log.txt").toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the JSON value as maps sorted by key and lists, to compare it whatever the order of the keys
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            Map<String, Object> map = new TreeMap<>();
+            for (Object key : object.keySet()) {
+                map.put(key.toString(), normalize(object.get(key.toString())));
+            }
+            return map;
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> list = new ArrayList<>();
+            for (int i = 0; i < array.length(); i++) {
+                list.add(normalize(array.get(i)));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    private static String request(String method, String url, String body, int expectedStatus) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(url, expectedStatus, connection.getResponseCode());
+        try {
+            return IOUtils.toString(expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream(),
+                    StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
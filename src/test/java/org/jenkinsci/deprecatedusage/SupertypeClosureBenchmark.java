@@ -0,0 +1,129 @@
+package org.jenkinsci.deprecatedusage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.jenkinsci.deprecatedusage.search.DeprecatedApiSearchCriteria;
+import org.jenkinsci.deprecatedusage.search.OptionsBasedSearchCriteria;
+import org.jenkinsci.deprecatedusage.search.SearchCriteria;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Measures the resolution of calls through deep Describable/Descriptor like hierarchies, where every class of a
+ * long chain of descriptors also implements several interfaces extending each other (diamonds).
+ * <p>
+ * Not run by the build: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.jenkinsci.deprecatedusage.SupertypeClosureBenchmark}
+ */
+public class SupertypeClosureBenchmark {
+    private static final int DEPTH = 40;
+    private static final int INTERFACES = 8;
+    private static final int LEAVES = 200;
+    private static final int CALLS_PER_LEAF = 50;
+    private static final int ITERATIONS = 20;
+
+    public static void main(String[] args) throws Exception {
+        File plugin = File.createTempFile("bench", ".hpi");
+        plugin.deleteOnExit();
+        writePlugin(plugin);
+
+        DeprecatedApi deprecatedApi = new DeprecatedApi();
+        deprecatedApi.getMethods().add(DeprecatedApi.getMethodKey("hudson/model/Describable", "getDescriptor",
+                "()Lhudson/model/Descriptor;"));
+        deprecatedApi.getClasses().add("hudson/bench/Extension0");
+        SearchCriteria searchCriteria = new OptionsBasedSearchCriteria().combineWith(new DeprecatedApiSearchCriteria(deprecatedApi));
+
+        long best = Long.MAX_VALUE;
+        DeprecatedUsage deprecatedUsage = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            deprecatedUsage = new DeprecatedUsage(plugin.getName(), "1.0", searchCriteria, false);
+            deprecatedUsage.analyze(plugin);
+            long duration = System.nanoTime() - start;
+            best = Math.min(best, duration);
+            System.out.println("Iteration " + i + ": " + duration / 1000000 + " ms");
+        }
+        System.out.println("Best: " + best / 1000000 + " ms for " + deprecatedUsage.getClassCount() + " classes, "
+                + deprecatedUsage.getMethods().size() + " methods and " + deprecatedUsage.getClasses().size()
+                + " classes found");
+    }
+
+    private static void writePlugin(File plugin) throws IOException {
+        ByteArrayOutputStream jarBytes = new ByteArrayOutputStream();
+        try (JarOutputStream jar = new JarOutputStream(jarBytes)) {
+            addClass(jar, "hudson/model/Describable", Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, "java/lang/Object",
+                    new String[0], true);
+            addClass(jar, "hudson/model/Descriptor", Opcodes.ACC_ABSTRACT, "java/lang/Object", new String[0], false);
+            for (int i = 0; i < INTERFACES; i++) {
+                String[] interfaces = i == 0 ? new String[] {"hudson/model/Describable"}
+                        : new String[] {"hudson/model/Describable", "hudson/bench/Extension" + (i - 1)};
+                addClass(jar, "hudson/bench/Extension" + i, Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT,
+                        "java/lang/Object", interfaces, false);
+            }
+            for (int i = 0; i < DEPTH; i++) {
+                String superName = i == 0 ? "hudson/model/Descriptor" : "hudson/bench/Base" + (i - 1);
+                addClass(jar, "hudson/bench/Base" + i, Opcodes.ACC_ABSTRACT, superName,
+                        new String[] {"hudson/bench/Extension" + (i % INTERFACES), "hudson/model/Describable"}, false);
+            }
+            for (int i = 0; i < LEAVES; i++) {
+                addClass(jar, "hudson/bench/Leaf" + i, 0, "hudson/bench/Base" + (DEPTH - 1), new String[0], false);
+                addCaller(jar, "hudson/bench/Caller" + i, "hudson/bench/Leaf" + i);
+            }
+        }
+
+        try (ZipOutputStream war = new ZipOutputStream(new FileOutputStream(plugin))) {
+            war.putNextEntry(new ZipEntry("WEB-INF/lib/" + plugin.getName().replace(".hpi", ".jar")));
+            war.write(jarBytes.toByteArray());
+            war.closeEntry();
+        }
+    }
+
+    private static void addClass(JarOutputStream jar, String name, int access, String superName, String[] interfaces,
+                                 boolean withGetDescriptor) throws IOException {
+        ClassWriter classWriter = new ClassWriter(0);
+        classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | access, name, null, superName, interfaces);
+        if (withGetDescriptor) {
+            classWriter.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "getDescriptor",
+                    "()Lhudson/model/Descriptor;", null, null).visitEnd();
+        }
+        classWriter.visitEnd();
+        putClass(jar, name, classWriter.toByteArray());
+    }
+
+    private static void addCaller(JarOutputStream jar, String name, String leaf) throws IOException {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        MethodVisitor method = classWriter.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run",
+                "(L" + leaf + ";)V", null, null);
+        method.visitCode();
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, leaf, "getDescriptor", "()Lhudson/model/Descriptor;", false);
+        method.visitInsn(Opcodes.POP);
+        for (int i = 0; i < CALLS_PER_LEAF; i++) {
+            method.visitVarInsn(Opcodes.ALOAD, 0);
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, leaf, "configure" + i, "()V", false);
+            method.visitVarInsn(Opcodes.ALOAD, 0);
+            method.visitFieldInsn(Opcodes.GETFIELD, leaf, "field" + i, "Ljava/lang/String;");
+            method.visitInsn(Opcodes.POP);
+        }
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        classWriter.visitEnd();
+        putClass(jar, name, classWriter.toByteArray());
+    }
+
+    private static void putClass(JarOutputStream jar, String name, byte[] bytes) throws IOException {
+        jar.putNextEntry(new JarEntry(name + ".class"));
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+}
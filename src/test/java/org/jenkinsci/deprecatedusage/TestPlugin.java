@@ -0,0 +1,108 @@
+package org.jenkinsci.deprecatedusage;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Plugin file generated for the tests, with classes whose methods only make the given calls. The bytecode is not
+ * meant to be run, only scanned.
+ */
+final class TestPlugin {
+    private final Map<String, byte[]> classes = new LinkedHashMap<>();
+    private ClassWriter classWriter;
+    private String className;
+    private MethodVisitor methodVisitor;
+
+    /**
+     * Starts a new class of the plugin
+     */
+    TestPlugin addClass(String className, String superName, String... interfaces) {
+        endClass();
+        this.className = className;
+        classWriter = new ClassWriter(0);
+        classWriter.visit(Opcodes.V11, Opcodes.ACC_PUBLIC, className, null, superName, interfaces);
+        return this;
+    }
+
+    /**
+     * Starts a new method of the current class
+     */
+    TestPlugin addMethod(String name, String desc) {
+        endMethod();
+        methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, name, desc, null, null);
+        methodVisitor.visitCode();
+        return this;
+    }
+
+    TestPlugin callMethod(String owner, String name, String desc) {
+        methodVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, owner, name, desc, false);
+        return this;
+    }
+
+    TestPlugin readField(String owner, String name, String desc) {
+        methodVisitor.visitFieldInsn(Opcodes.GETSTATIC, owner, name, desc);
+        return this;
+    }
+
+    /**
+     * Method reference to the method, as compiled for a lambda
+     */
+    TestPlugin referenceMethod(String owner, String name, String desc) {
+        Handle metafactory = new Handle(Opcodes.H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+                        + "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)"
+                        + "Ljava/lang/invoke/CallSite;", false);
+        methodVisitor.visitInvokeDynamicInsn("run", "()Ljava/lang/Runnable;", metafactory, Type.getType("()V"),
+                new Handle(Opcodes.H_INVOKEVIRTUAL, owner, name, desc, false), Type.getType("()V"));
+        return this;
+    }
+
+    TestPlugin loadConstant(String constant) {
+        methodVisitor.visitLdcInsn(constant);
+        return this;
+    }
+
+    /**
+     * Writes the classes in WEB-INF/classes of the file
+     */
+    File writeTo(File file) throws IOException {
+        endClass();
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                zip.putNextEntry(new ZipEntry("WEB-INF/classes/" + entry.getKey() + ".class"));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private void endMethod() {
+        if (methodVisitor != null) {
+            methodVisitor.visitInsn(Opcodes.RETURN);
+            methodVisitor.visitMaxs(16, 16);
+            methodVisitor.visitEnd();
+            methodVisitor = null;
+        }
+    }
+
+    private void endClass() {
+        endMethod();
+        if (classWriter != null) {
+            classWriter.visitEnd();
+            classes.put(className, classWriter.toByteArray());
+            classWriter = null;
+        }
+    }
+}
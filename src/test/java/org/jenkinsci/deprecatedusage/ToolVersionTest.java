@@ -0,0 +1,15 @@
+package org.jenkinsci.deprecatedusage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ToolVersionTest {
+    @Test
+    public void identifiesTheClassesOfTheBuildDirectory() {
+        // no version in a build directory, the digest of its classes being used instead
+        assertNotNull(ToolVersion.get());
+        assertTrue(ToolVersion.get().matches("[0-9a-f]{64}"));
+    }
+}
@@ -0,0 +1,82 @@
+package org.jenkinsci.deprecatedusage;
+
+import org.jenkinsci.deprecatedusage.report.DeprecatedUnusedApiReport;
+import org.jenkinsci.deprecatedusage.report.DeprecatedUsageByApiReport;
+import org.jenkinsci.deprecatedusage.report.DeprecatedUsageByPluginReport;
+import org.jenkinsci.deprecatedusage.search.RecursiveSearchCriteria;
+import org.jenkinsci.deprecatedusage.search.SearchCriteria;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class UsageReportTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesTheSameReportsWhateverTheOrder() throws Exception {
+        SearchCriteria searchCriteria = new RecursiveSearchCriteria(new HashSet<>(Arrays.asList(
+                "org/example/Api#old()V", "org/example/Api#Old()V"))).compile();
+        List<DeprecatedUsage> usages = new ArrayList<>();
+        // the same plugin from two update centers, and plugins and methods only differing by the case
+        usages.add(scan("example", "1.9", searchCriteria, "old"));
+        usages.add(scan("example", "1.10", searchCriteria, "old"));
+        usages.add(scan("Example", "1.10", searchCriteria, "Old"));
+        usages.add(scan("other", "1.0", searchCriteria, "Old"));
+
+        File outputDir = writeReports(usages);
+        List<DeprecatedUsage> reversed = new ArrayList<>(usages);
+        Collections.reverse(reversed);
+        File reversedOutputDir = writeReports(reversed);
+
+        String[] fileNames = outputDir.list();
+        Arrays.sort(fileNames);
+        String[] reversedFileNames = reversedOutputDir.list();
+        Arrays.sort(reversedFileNames);
+        assertArrayEquals(fileNames, reversedFileNames);
+        assertEquals(6, fileNames.length);
+        for (String fileName : fileNames) {
+            assertEquals(fileName, new String(Files.readAllBytes(new File(outputDir, fileName).toPath())),
+                    new String(Files.readAllBytes(new File(reversedOutputDir, fileName).toPath())));
+        }
+    }
+
+    private DeprecatedUsage scan(String name, String version, SearchCriteria searchCriteria, String methodName)
+            throws Exception {
+        File pluginFile = new TestPlugin()
+                .addClass("org/example/Caller", "java/lang/Object")
+                .addMethod("call", "()V")
+                .callMethod("org/example/Api", methodName, "()V")
+                .writeTo(folder.newFile());
+        DeprecatedUsage usage = new DeprecatedUsage(name, version, searchCriteria, false);
+        usage.analyze(pluginFile);
+        return usage;
+    }
+
+    private File writeReports(List<DeprecatedUsage> usages) throws Exception {
+        File outputDir = folder.newFolder();
+        DeprecatedApi deprecatedApi = new DeprecatedApi();
+        List<Report> reports = new ArrayList<>();
+        reports.add(new DeprecatedUsageByPluginReport(deprecatedApi, outputDir, "usage-by-plugin"));
+        reports.add(new DeprecatedUnusedApiReport(deprecatedApi, outputDir, "deprecated-and-unused"));
+        reports.add(new DeprecatedUsageByApiReport(deprecatedApi, outputDir, "usage-by-api"));
+        for (Report report : reports) {
+            for (DeprecatedUsage usage : usages) {
+                report.add(usage);
+            }
+            report.finish();
+        }
+        return outputDir;
+    }
+}
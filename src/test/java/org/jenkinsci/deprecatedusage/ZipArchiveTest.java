@@ -0,0 +1,286 @@
+package org.jenkinsci.deprecatedusage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ZipArchiveTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTheSameEntriesAsZipFile() throws Exception {
+        Random random = new Random(42);
+        for (int archive = 0; archive < 20; archive++) {
+            Map<String, byte[]> contents = new LinkedHashMap<>();
+            int entryCount = random.nextInt(50);
+            for (int i = 0; i < entryCount; i++) {
+                // repeated bytes compress, random ones do not
+                byte[] content = new byte[random.nextInt(10000)];
+                if (random.nextBoolean()) {
+                    random.nextBytes(content);
+                } else {
+                    Arrays.fill(content, (byte) i);
+                }
+                contents.put("dir" + i % 3 + "/entrée-" + i + ".class", content);
+            }
+            File file = folder.newFile();
+            Files.write(file.toPath(), zip(contents, random.nextBoolean() ? "comment of the archive" : null,
+                    random));
+
+            ZipArchive zipArchive = ZipArchive.map(file);
+            assertEquals(file.length(), zipArchive.size());
+            try (ZipFile zipFile = new ZipFile(file)) {
+                List<ZipArchive.Entry> entries = zipArchive.getEntries();
+                Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+                for (ZipArchive.Entry entry : entries) {
+                    ZipEntry zipEntry = zipEntries.nextElement();
+                    assertEquals(zipEntry.getName(), entry.getName());
+                    assertEquals(zipEntry.getSize(), entry.getSize());
+                    try (InputStream input = zipFile.getInputStream(zipEntry)) {
+                        assertArrayEquals(input.readAllBytes(), zipArchive.read(entry));
+                    }
+                    assertArrayEquals(contents.get(entry.getName()), zipArchive.read(entry));
+                }
+                assertEquals(zipFile.size(), entries.size());
+            }
+        }
+    }
+
+    @Test
+    public void readsStoredNestedJarsInPlace() throws Exception {
+        Map<String, byte[]> jarContents = new LinkedHashMap<>();
+        jarContents.put("a/A.class", "class A".getBytes(StandardCharsets.UTF_8));
+        jarContents.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0".getBytes(StandardCharsets.UTF_8));
+        jarContents.put("a/B.class", "class B".getBytes(StandardCharsets.UTF_8));
+        byte[] jar = zip(jarContents, null, null);
+
+        Map<String, byte[]> warContents = new LinkedHashMap<>();
+        warContents.put("WEB-INF/classes/C.class", "class C".getBytes(StandardCharsets.UTF_8));
+        warContents.put("WEB-INF/lib/lib.jar", jar);
+        ByteArrayOutputStream war = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(war)) {
+            for (Map.Entry<String, byte[]> entry : warContents.entrySet()) {
+                putStored(zip, entry.getKey(), entry.getValue());
+            }
+        }
+
+        ZipArchive warArchive = ZipArchive.of(ByteBuffer.wrap(war.toByteArray()));
+        ZipArchive.Entry jarEntry = warArchive.getEntries().get(1);
+        assertEquals("WEB-INF/lib/lib.jar", jarEntry.getName());
+        assertArrayEquals(jar, warArchive.read(jarEntry));
+        assertEquals(jar.length, warArchive.rawData(jarEntry).remaining());
+
+        ZipArchive jarArchive = warArchive.openNested(jarEntry);
+        assertEquals(jar.length, jarArchive.size());
+        List<String> names = new ArrayList<>();
+        for (ZipArchive.Entry entry : jarArchive.getEntries()) {
+            names.add(entry.getName());
+            assertArrayEquals(jarContents.get(entry.getName()), jarArchive.read(entry));
+        }
+        assertEquals(new ArrayList<>(jarContents.keySet()), names);
+    }
+
+    @Test
+    public void rejectsTruncatedArchives() throws Exception {
+        byte[] content = new byte[1000];
+        new Random(42).nextBytes(content);
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("WEB-INF/classes/A.class", content);
+        byte[] bytes = zip(contents, null, null);
+
+        // without the end of central directory
+        try {
+            ZipArchive.of(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 10)));
+            fail("Truncated archive read");
+        } catch (ZipException e) {
+            assertEquals("End of central directory not found", e.getMessage());
+        }
+        File file = folder.newFile();
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        try (WarReader warReader = new WarReader(file, false)) {
+            fail("Truncated archive read by the ZipFile fallback");
+        } catch (ZipException e) {
+            // expected
+        }
+
+        // with the end of central directory, but an entry cut in the middle
+        ZipArchive archive = ZipArchive.of(ByteBuffer.wrap(cutFirstEntry(bytes, 500)));
+        try {
+            archive.read(archive.getEntries().get(0));
+            fail("Truncated entry read");
+        } catch (ZipException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void fallsBackToZipFileForZip64() throws Exception {
+        // more than 65535 entries are recorded in a ZIP64 end of central directory
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        for (int i = 0; i < 0x10000; i++) {
+            contents.put("WEB-INF/classes/C" + i + ".class", new byte[0]);
+        }
+        byte[] bytes = zip(contents, null, null);
+        try {
+            ZipArchive.of(ByteBuffer.wrap(bytes));
+            fail("ZIP64 archive read");
+        } catch (ZipException e) {
+            assertEquals("ZIP64 archives are not supported", e.getMessage());
+        }
+
+        File file = folder.newFile("plugin.hpi");
+        Files.write(file.toPath(), bytes);
+        try (WarReader warReader = new WarReader(file, false)) {
+            assertNull(warReader.getParts());
+            int count = 0;
+            for (String fileName = warReader.nextClass(); fileName != null; fileName = warReader.nextClass()) {
+                assertEquals("WEB-INF/classes/C" + count + ".class", fileName);
+                count++;
+            }
+            assertEquals(contents.size(), count);
+        }
+    }
+
+    @Test
+    public void streamsNestedZip64Jars() throws Exception {
+        Map<String, byte[]> jarContents = new LinkedHashMap<>();
+        for (int i = 0; i < 0x10000; i++) {
+            jarContents.put("C" + i + ".class", new byte[] {(byte) i});
+        }
+        File file = folder.newFile("plugin.hpi");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+            putStored(zip, "WEB-INF/lib/lib.jar", zip(jarContents, null, null));
+        }
+
+        try (WarReader warReader = new WarReader(file, false)) {
+            List<WarReader.Part> parts = warReader.getParts();
+            assertNotNull(parts);
+            assertEquals(1, parts.size());
+            List<String> names = new ArrayList<>();
+            parts.get(0).open().forEachClass((fileName, content) -> {
+                try {
+                    assertArrayEquals(jarContents.get(fileName), content.read());
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                names.add(fileName);
+            });
+            assertEquals(new ArrayList<>(jarContents.keySet()), names);
+        }
+    }
+
+    @Test
+    public void rejectsEncryptedArchives() throws Exception {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("WEB-INF/classes/A.class", "class A".getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = encrypted(zip(contents, null, null));
+        try {
+            ZipArchive.of(ByteBuffer.wrap(bytes));
+            fail("Encrypted archive read");
+        } catch (ZipException e) {
+            assertEquals("Encrypted archives are not supported", e.getMessage());
+        }
+
+        // neither supported by the ZipFile fallback
+        File file = folder.newFile("plugin.hpi");
+        Files.write(file.toPath(), bytes);
+        try (WarReader warReader = new WarReader(file, false)) {
+            warReader.nextClass();
+            warReader.readClass();
+            fail("Encrypted archive read by the ZipFile fallback");
+        } catch (ZipException e) {
+            // expected
+        }
+    }
+
+    private static byte[] zip(Map<String, byte[]> contents, String comment, Random storedOrDeflated)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            if (comment != null) {
+                zip.setComment(comment);
+            }
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                if (storedOrDeflated != null && storedOrDeflated.nextBoolean()) {
+                    putStored(zip, entry.getKey(), entry.getValue());
+                } else {
+                    zip.putNextEntry(new ZipEntry(entry.getKey()));
+                    zip.write(entry.getValue());
+                    zip.closeEntry();
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void putStored(ZipOutputStream zip, String name, byte[] content) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    /**
+     * Removes bytes from the data of the first entry, keeping the offsets of the central directory consistent
+     */
+    private static byte[] cutFirstEntry(byte[] bytes, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int dataOffset = 30 + (buffer.getShort(26) & 0xFFFF) + (buffer.getShort(28) & 0xFFFF);
+        byte[] cut = new byte[bytes.length - length];
+        System.arraycopy(bytes, 0, cut, 0, dataOffset);
+        System.arraycopy(bytes, dataOffset + length, cut, dataOffset, cut.length - dataOffset);
+        ByteBuffer cutBuffer = ByteBuffer.wrap(cut).order(ByteOrder.LITTLE_ENDIAN);
+        int end = cut.length - 22;
+        cutBuffer.putInt(end + 16, cutBuffer.getInt(end + 16) - length);
+        return cut;
+    }
+
+    /**
+     * Sets the encryption flag of every local and central header
+     */
+    private static byte[] encrypted(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.clone()).order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; offset < bytes.length - 4; offset++) {
+            int signature = buffer.getInt(offset);
+            if (signature == 0x04034b50) {
+                buffer.putShort(offset + 6, (short) (buffer.getShort(offset + 6) | 1));
+            } else if (signature == 0x02014b50) {
+                buffer.putShort(offset + 8, (short) (buffer.getShort(offset + 8) | 1));
+            }
+        }
+        return buffer.array();
+    }
+}
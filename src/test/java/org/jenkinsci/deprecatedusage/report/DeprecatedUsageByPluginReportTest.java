@@ -0,0 +1,62 @@
+package org.jenkinsci.deprecatedusage.report;
+
+import org.jenkinsci.deprecatedusage.DeprecatedApi;
+import org.jenkinsci.deprecatedusage.DeprecatedUsage;
+import org.jenkinsci.deprecatedusage.search.RecursiveSearchCriteria;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeprecatedUsageByPluginReportTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsTheHighestVersionWhateverTheOrder() throws Exception {
+        List<List<String>> versionPairs = Arrays.asList(
+                Arrays.asList("1.9", "1.10"),
+                Arrays.asList("2.0-beta", "2.0"),
+                Arrays.asList("1.0", "1.0.0"));
+        for (List<String> versions : versionPairs) {
+            String first = getReportedPlugin(versions.get(0), versions.get(1));
+            assertEquals(first, getReportedPlugin(versions.get(1), versions.get(0)));
+            assertEquals("example:" + versions.get(1), first);
+        }
+    }
+
+    @Test
+    public void comparesVersionsAsMaven() {
+        assertTrue(DeprecatedUsageByPluginReport.compareVersions("1.9", "1.10") < 0);
+        assertTrue(DeprecatedUsageByPluginReport.compareVersions("2.0-beta", "2.0") < 0);
+        assertTrue(DeprecatedUsageByPluginReport.compareVersions("2.0", "2.0") == 0);
+        assertTrue(DeprecatedUsageByPluginReport.compareVersions("1.0.0", "1.0") > 0);
+    }
+
+    /**
+     * Returns the plugin reported when the same plugin is added with the versions of two update centers, in that order
+     */
+    private String getReportedPlugin(String version, String otherVersion) throws Exception {
+        File outputDir = folder.newFolder();
+        DeprecatedUsageByPluginReport report = new DeprecatedUsageByPluginReport(new DeprecatedApi(), outputDir,
+                "usage-by-plugin");
+        for (String addedVersion : Arrays.asList(version, otherVersion)) {
+            report.add(new DeprecatedUsage("example", addedVersion,
+                    new RecursiveSearchCriteria(Collections.emptySet()).compile(), false));
+        }
+        report.generateJsonReport();
+        JSONObject json = new JSONObject(new String(
+                Files.readAllBytes(new File(outputDir, "usage-by-plugin.json").toPath()), StandardCharsets.UTF_8));
+        return json.getJSONObject("example").getString("plugin");
+    }
+}
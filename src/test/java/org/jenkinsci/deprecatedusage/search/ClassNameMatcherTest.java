@@ -0,0 +1,169 @@
+package org.jenkinsci.deprecatedusage.search;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClassNameMatcherTest {
+    // chars encoded on 1, 2 and 3 bytes in modified UTF-8, U+0000 on 2, and a surrogate pair on 6
+    private static final String[] PARTS = {"a", "b", "/", "$", "é", "\u0000", "ࠀ", "中", "😀"};
+
+    @Test
+    public void matchesExactNames() {
+        ClassNameMatcher matcher = ClassNameMatcher.compile(Arrays.asList("hudson/model/Run", "hudson/Util"));
+        assertTrue(matcher.matches("hudson/model/Run"));
+        assertTrue(matcher.matches("hudson/Util"));
+        assertFalse(matcher.matches("hudson/model/Ru"));
+        assertFalse(matcher.matches("hudson/model/Run$1"));
+        assertFalse(matcher.matches("hudson/model"));
+        assertFalse(matcher.matches(""));
+    }
+
+    @Test
+    public void matchesPrefixes() {
+        ClassNameMatcher matcher = ClassNameMatcher.compile(Arrays.asList("hudson/util/*", "hudson/model/Run*"));
+        assertTrue(matcher.matches("hudson/util/Secret"));
+        assertTrue(matcher.matches("hudson/util/"));
+        assertTrue(matcher.matches("hudson/model/Run"));
+        assertTrue(matcher.matches("hudson/model/RunMap"));
+        assertFalse(matcher.matches("hudson/utils/Secret"));
+        assertFalse(matcher.matches("hudson/model/Ru"));
+        assertFalse(matcher.matches("jenkins/hudson/util/Secret"));
+    }
+
+    @Test
+    public void matchesSuffixes() {
+        ClassNameMatcher matcher = ClassNameMatcher.compile(Arrays.asList("*/Secret", "*$1"));
+        assertTrue(matcher.matches("hudson/util/Secret"));
+        assertTrue(matcher.matches("/Secret"));
+        assertTrue(matcher.matches("hudson/model/Run$1"));
+        assertFalse(matcher.matches("hudson/util/SecretBytes"));
+        assertFalse(matcher.matches("Secret"));
+        assertFalse(matcher.matches("hudson/model/Run$10"));
+    }
+
+    @Test
+    public void matchesContainedWords() {
+        // overlapping words, so that the automaton follows its failure links
+        ClassNameMatcher matcher = ClassNameMatcher.compile(Arrays.asList("*Secret*", "*crets*", "*abab*"));
+        assertTrue(matcher.matches("hudson/util/Secret"));
+        assertTrue(matcher.matches("SecretBytes"));
+        assertTrue(matcher.matches("Secrets"));
+        assertTrue(matcher.matches("Secrecrets"));
+        assertTrue(matcher.matches("aababab"));
+        assertFalse(matcher.matches("Secre"));
+        assertFalse(matcher.matches("Secrecret"));
+        assertFalse(matcher.matches("abaab"));
+
+        assertTrue(ClassNameMatcher.compile(Collections.singletonList("*")).matches(""));
+        assertTrue(ClassNameMatcher.compile(Collections.singletonList("**")).matches("anything"));
+        assertFalse(ClassNameMatcher.compile(Collections.emptyList()).matches(""));
+    }
+
+    @Test
+    public void recognizesClassNames() {
+        for (String name : Arrays.asList("hudson/model/Run", "Run", "hudson/model/Run$1", "a/é/中/Run😀", "package-info")) {
+            assertTrue(name, isClassName(name));
+        }
+        for (String name : Arrays.asList("", "/Run", "hudson/", "hudson//Run", "hudson.model.Run", "Lhudson/model/Run;",
+                "[Lhudson/model/Run;", "()V", "<init>", "hudson/model/Run<TT;>", "Unexpected Exception", "a\tb")) {
+            assertFalse(name, isClassName(name));
+        }
+    }
+
+    private static boolean isClassName(String name) {
+        // surrounded by other bytes, as in a constant pool
+        byte[] bytes = ClassNameMatcher.toModifiedUtf8("/" + name + ".");
+        return ClassNameMatcher.isClassName(bytes, 1, bytes.length - 1);
+    }
+
+    @Test
+    public void encodesInModifiedUtf8() throws IOException {
+        for (String s : PARTS) {
+            // DataOutputStream.writeUTF writes the length, then the modified UTF-8 bytes
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeUTF(s);
+            byte[] expected = Arrays.copyOfRange(bytes.toByteArray(), 2, bytes.size());
+            assertArrayEquals(s, expected, ClassNameMatcher.toModifiedUtf8(s));
+        }
+    }
+
+    @Test
+    public void agreesWithStringMatching() throws IOException {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            List<String> patterns = new ArrayList<>();
+            int patternCount = random.nextInt(6);
+            for (int i = 0; i < patternCount; i++) {
+                String word = randomString(random, 4);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        patterns.add(word);
+                        break;
+                    case 1:
+                        patterns.add(word + "*");
+                        break;
+                    case 2:
+                        patterns.add("*" + word);
+                        break;
+                    default:
+                        patterns.add("*" + word + "*");
+                        break;
+                }
+            }
+            ClassNameMatcher matcher = ClassNameMatcher.compile(patterns);
+            for (int i = 0; i < 200; i++) {
+                String className = randomString(random, 8);
+                boolean expected = matchesAny(patterns, className);
+                assertEquals(patterns + " " + className, expected, matcher.matches(className));
+
+                // as in a constant pool, between other bytes
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(bytes);
+                data.writeUTF(randomString(random, 3));
+                int start = bytes.size() + 2;
+                data.writeUTF(className);
+                int end = bytes.size();
+                data.writeUTF(randomString(random, 3));
+                assertEquals(patterns + " " + className, expected, matcher.matches(bytes.toByteArray(), start, end));
+            }
+        }
+    }
+
+    private static boolean matchesAny(List<String> patterns, String className) {
+        for (String pattern : patterns) {
+            boolean startsWithStar = pattern.startsWith("*");
+            boolean endsWithStar = pattern.endsWith("*");
+            String word = pattern.substring(startsWithStar ? 1 : 0, Math.max(startsWithStar ? 1 : 0,
+                    pattern.length() - (endsWithStar ? 1 : 0)));
+            if (startsWithStar && endsWithStar ? className.contains(word)
+                    : endsWithStar ? className.startsWith(word)
+                    : startsWithStar ? className.endsWith(word)
+                    : className.equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String randomString(Random random, int maxParts) {
+        StringBuilder sb = new StringBuilder();
+        int parts = random.nextInt(maxParts + 1);
+        for (int i = 0; i < parts; i++) {
+            sb.append(PARTS[random.nextInt(PARTS.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package org.jenkinsci.deprecatedusage.search;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Compares the compiled {@link ClassNameMatcher} with testing each pattern in turn, for 10k patterns of an
+ * additional classes file, mostly {@code foo/bar/*} ones.
+ * <p>
+ * Not run by the build: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.jenkinsci.deprecatedusage.search.ClassPatternBenchmark}
+ */
+public class ClassPatternBenchmark {
+    private static final int PATTERNS = 10000;
+    private static final int CLASS_NAMES = 20000;
+    private static final int ITERATIONS = 5;
+    private static final String[] WORDS = {"jenkins", "hudson", "model", "plugins", "util", "tasks", "security",
+            "scm", "slaves", "cli", "views", "triggers", "kohsuke", "stapler", "apache", "commons", "io", "lang"};
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < PATTERNS; i++) {
+            String path = randomPath(random, 2 + random.nextInt(3)) + i;
+            int kind = random.nextInt(10);
+            if (kind < 7) {
+                patterns.add(path + "/*");
+            } else if (kind < 8) {
+                patterns.add("*" + path);
+            } else if (kind < 9) {
+                patterns.add("*" + path + "*");
+            } else {
+                patterns.add(path);
+            }
+        }
+        List<String> classNames = new ArrayList<>();
+        for (int i = 0; i < CLASS_NAMES; i++) {
+            classNames.add(randomPath(random, 3 + random.nextInt(4)) + random.nextInt(PATTERNS * 2) + "/Class" + i);
+        }
+
+        long start = System.nanoTime();
+        ClassNameMatcher matcher = ClassNameMatcher.compile(patterns);
+        System.out.println("Compiled in " + (System.nanoTime() - start) / 1000000 + " ms");
+        Predicate<String> linear = linearChecker(patterns);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            System.out.println("Iteration " + i + ": linear " + measure(linear, classNames) + ", compiled "
+                    + measure(matcher::matches, classNames));
+        }
+    }
+
+    private static String randomPath(Random random, int length) {
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            path.append(WORDS[random.nextInt(WORDS.length)]).append('/');
+        }
+        return path.toString();
+    }
+
+    private static String measure(Predicate<String> checker, List<String> classNames) {
+        long start = System.nanoTime();
+        int matches = 0;
+        for (String className : classNames) {
+            if (checker.test(className)) {
+                matches++;
+            }
+        }
+        return (System.nanoTime() - start) / 1000000 + " ms (" + matches + " matches)";
+    }
+
+    /**
+     * The checker as it was before the patterns were compiled
+     */
+    private static Predicate<String> linearChecker(List<String> patterns) {
+        Set<String> exactMatch = new HashSet<>();
+        List<String> startsWith = new ArrayList<>();
+        List<String> endsWith = new ArrayList<>();
+        List<String> contains = new ArrayList<>();
+        for (String pattern : patterns) {
+            if (pattern.endsWith("*")) {
+                if (pattern.startsWith("*")) {
+                    contains.add(pattern.substring(1, pattern.length() - 1));
+                } else {
+                    startsWith.add(pattern.substring(0, pattern.length() - 1));
+                }
+            } else if (pattern.startsWith("*")) {
+                endsWith.add(pattern.substring(1));
+            } else {
+                exactMatch.add(pattern);
+            }
+        }
+        return className -> exactMatch.contains(className)
+                || startsWith.stream().anyMatch(className::startsWith)
+                || endsWith.stream().anyMatch(className::endsWith)
+                || contains.stream().anyMatch(className::contains);
+    }
+}
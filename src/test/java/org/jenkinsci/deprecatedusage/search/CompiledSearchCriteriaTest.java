@@ -0,0 +1,138 @@
+package org.jenkinsci.deprecatedusage.search;
+
+import org.jenkinsci.deprecatedusage.DeprecatedApi;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledSearchCriteriaTest {
+    private static final List<String> CLASS_NAMES = Arrays.asList(
+            "hudson/model/Run", "hudson/model/RunMap", "hudson/model/Ru", "hudson/model/Run$1",
+            "hudson/util/Secret", "hudson/util/", "hudson/Util", "hudson/util/SecretBytes",
+            "jenkins/model/Jenkins", "jenkins/security/ApiTokenProperty", "org/kohsuke/stapler/StaplerRequest",
+            "org/example/Api", "org/example/OtherException", "org/example/Exception", "org/example/ExceptionHandler",
+            "org/example/secret/Store", "org/example/SecretStore", "java/lang/Object", "java/util/List",
+            "javax/servlet/ServletException", "com/example/jenkinsfile/Parser", "", "*");
+    private static final List<String> MEMBER_NAMES = Arrays.asList("getLog", "getParent", "XSTREAM", "old", "");
+
+    @Test
+    public void compiledOptionsGiveTheVerdictsOfTheOptions() {
+        List<String> classes = Arrays.asList("hudson/model/Run", "hudson/util/*", "*Exception", "*Secret*");
+        Map<String, Set<String>> methods = new HashMap<>();
+        methods.put("hudson/model/Run", new HashSet<>(Arrays.asList("getLog", "getParent")));
+        methods.put("org/example/*", Collections.singleton("old"));
+        Map<String, Set<String>> fields = new HashMap<>();
+        fields.put("hudson/model/Run", Collections.singleton("XSTREAM"));
+        fields.put("*Api", Collections.singleton("old"));
+
+        for (boolean onlyIncludeSpecified : new boolean[] {false, true}) {
+            for (boolean includeJavaCoreClasses : new boolean[] {false, true}) {
+                for (boolean onlyIncludeJenkinsClasses : new boolean[] {false, true}) {
+                    List<SearchCriteria> criteria = Arrays.asList(
+                            new OptionsBasedSearchCriteria(classes, methods, fields, onlyIncludeSpecified,
+                                    includeJavaCoreClasses, onlyIncludeJenkinsClasses),
+                            new OptionsBasedSearchCriteria(null, methods, null, onlyIncludeSpecified,
+                                    includeJavaCoreClasses, onlyIncludeJenkinsClasses),
+                            new OptionsBasedSearchCriteria(Collections.singletonList("*"), null, fields,
+                                    onlyIncludeSpecified, includeJavaCoreClasses, onlyIncludeJenkinsClasses),
+                            new OptionsBasedSearchCriteria(null, null, null, onlyIncludeSpecified,
+                                    includeJavaCoreClasses, onlyIncludeJenkinsClasses));
+                    for (SearchCriteria searchCriteria : criteria) {
+                        assertSameVerdicts(searchCriteria);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void compiledOptionsMatchTheWildcards() {
+        List<String> classes = Arrays.asList("hudson/model/Run", "hudson/util/*", "*Exception", "*Secret*");
+        SearchCriteria compiled = new OptionsBasedSearchCriteria(classes, null, null, true, false, false).compile();
+        for (String className : CLASS_NAMES) {
+            boolean expected = className.equals("hudson/model/Run") || className.startsWith("hudson/util/")
+                    || className.endsWith("Exception") || className.contains("Secret");
+            assertEquals(className, expected, compiled.isLookingForClass(className));
+            assertEquals(className, expected, compiled.shouldAnalyzeClass(className));
+        }
+    }
+
+    @Test
+    public void compiledCombinationsGiveTheVerdictsOfTheCombinations() {
+        Map<String, Set<String>> methods = Collections.singletonMap("hudson/model/Run",
+                Collections.singleton("getLog"));
+        SearchCriteria options = new OptionsBasedSearchCriteria(Arrays.asList("*Exception", "hudson/util/*"),
+                methods, null, true, false, false);
+        SearchCriteria otherOptions = new OptionsBasedSearchCriteria(Collections.singletonList("*Secret*"), null,
+                Collections.singletonMap("org/example/Api", Collections.singleton("old")), false, true, true);
+        DeprecatedApi deprecatedApi = new DeprecatedApi();
+        deprecatedApi.addClasses(Arrays.asList("jenkins/model/Jenkins", "org/example/Api"));
+        SearchCriteria deprecated = new DeprecatedApiSearchCriteria(deprecatedApi);
+        SearchCriteria recursive = new RecursiveSearchCriteria(new HashSet<>(Arrays.asList(
+                DeprecatedApi.getMethodKey("hudson/model/RunMap", "getParent", "()Lhudson/model/Job;"),
+                DeprecatedApi.getMethodKey("org/example/Api", "old", "()V"))));
+
+        assertSameVerdicts(options.combineWith(deprecated));
+        assertSameVerdicts(options.combineWith(recursive));
+        assertSameVerdicts(options.combineWith(otherOptions));
+        assertSameVerdicts(deprecated.combineWith(recursive));
+        assertSameVerdicts(options.combineWith(deprecated).combineWith(otherOptions.combineWith(recursive)));
+        // a member compiled on its own, as the recursive levels combine the criteria of the previous ones
+        assertSameVerdicts(options.compile().combineWith(recursive));
+        assertSameVerdicts(recursive.combineWith(otherOptions.compile()).combineWith(deprecated));
+    }
+
+    /**
+     * Checks that the compiled criteria answer as their source for every input, twice to go through the cache
+     */
+    private static void assertSameVerdicts(SearchCriteria source) {
+        SearchCriteria compiled = source.compile();
+        assertSame(compiled, compiled.compile());
+        assertEquals(source.getFingerprint(), compiled.getFingerprint());
+        assertEquals(new HashSet<>(source.getClassPatterns()), new HashSet<>(compiled.getClassPatterns()));
+
+        List<String> desc = Arrays.asList("()V", "()Ljava/lang/String;", "()Lhudson/model/Job;");
+        for (int pass = 0; pass < 2; pass++) {
+            for (String className : CLASS_NAMES) {
+                assertEquals(className, source.isLookingForClass(className), compiled.isLookingForClass(className));
+                assertEquals(className, source.shouldAnalyzeClass(className), compiled.shouldAnalyzeClass(className));
+                for (String name : MEMBER_NAMES) {
+                    String fieldKey = DeprecatedApi.getFieldKey(className, name, "I");
+                    assertEquals(fieldKey, source.isLookingForField(fieldKey, className, name),
+                            compiled.isLookingForField(fieldKey, className, name));
+                    assertEquals(fieldKey, source.mayLookForField(className, name),
+                            compiled.mayLookForField(className, name));
+                    for (String methodDesc : desc) {
+                        String methodKey = DeprecatedApi.getMethodKey(className, name, methodDesc);
+                        assertEquals(methodKey, source.isLookingForMethod(methodKey, className, name),
+                                compiled.isLookingForMethod(methodKey, className, name));
+                        assertEquals(methodKey, source.mayLookForMethod(className, name, methodDesc),
+                                compiled.mayLookForMethod(className, name, methodDesc));
+                    }
+                }
+            }
+        }
+        List<String> lookedFor = new ArrayList<>();
+        for (String className : CLASS_NAMES) {
+            if (source.isLookingForClass(className)) {
+                lookedFor.add(className);
+            }
+        }
+        // the patterns given to the constant pool matcher find at least the classes looked for
+        ClassNameMatcher matcher = ClassNameMatcher.of(compiled);
+        for (String className : lookedFor) {
+            assertTrue(className, matcher.matches(className));
+        }
+    }
+}
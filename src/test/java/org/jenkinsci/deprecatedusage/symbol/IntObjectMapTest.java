@@ -0,0 +1,53 @@
+package org.jenkinsci.deprecatedusage.symbol;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IntObjectMapTest {
+    @Test
+    public void behavesLikeHashMap() {
+        Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            IntObjectMap<String> map = new IntObjectMap<>();
+            Map<Integer, String> expected = new HashMap<>();
+            int bound = random.nextBoolean() ? 100 : Integer.MAX_VALUE;
+            int operations = random.nextInt(2000);
+            for (int i = 0; i < operations; i++) {
+                int key = random.nextInt(bound);
+                String value = "value" + random.nextInt(10);
+                if (random.nextBoolean()) {
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                } else {
+                    assertEquals(expected.computeIfAbsent(key, k -> value),
+                            map.computeIfAbsent(key, k -> value));
+                }
+                int other = random.nextInt(bound);
+                assertEquals(expected.get(other), map.get(other));
+                assertEquals(expected.containsKey(other), map.containsKey(other));
+            }
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected.isEmpty(), map.isEmpty());
+            Map<Integer, String> iterated = new HashMap<>();
+            map.forEach((key, value) -> assertNull(iterated.put(key, value)));
+            assertEquals(expected, iterated);
+            assertEquals(expected.size(), map.keySet().size());
+            expected.keySet().forEach(key -> assertTrue(map.keySet().contains(key)));
+        }
+    }
+
+    @Test
+    public void doesNotContainNegativeKeys() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        map.put(0, "zero");
+        assertNull(map.get(-1));
+        assertFalse(map.containsKey(-1));
+    }
+}
@@ -0,0 +1,69 @@
+package org.jenkinsci.deprecatedusage.symbol;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntSetTest {
+    @Test
+    public void behavesLikeHashSet() {
+        Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            IntSet set = new IntSet(random.nextInt(10));
+            Set<Integer> expected = new HashSet<>();
+            // small bounds make collisions and duplicates frequent, large ones spread the values
+            int bound = random.nextBoolean() ? 100 : Integer.MAX_VALUE;
+            int operations = random.nextInt(2000);
+            for (int i = 0; i < operations; i++) {
+                int value = random.nextInt(bound);
+                assertEquals(expected.add(value), set.add(value));
+                int other = random.nextInt(bound);
+                assertEquals(expected.contains(other), set.contains(other));
+            }
+            assertEquals(expected.size(), set.size());
+            assertEquals(expected.isEmpty(), set.isEmpty());
+            assertEquals(expected, toSet(set.toArray()));
+            Set<Integer> iterated = new HashSet<>();
+            set.forEach(value -> assertTrue(iterated.add(value)));
+            assertEquals(expected, iterated);
+            assertEquals(expected.isEmpty() ? -1 : (int) new TreeSet<>(expected).first(), set.min());
+
+            IntSet copy = new IntSet(set);
+            copy.add(bound);
+            assertEquals(expected.size(), set.size());
+            IntSet union = new IntSet();
+            union.addAll(set);
+            union.addAll(copy);
+            expected.add(bound);
+            assertEquals(expected, toSet(union.toArray()));
+        }
+    }
+
+    @Test
+    public void doesNotContainNegativeValues() {
+        IntSet set = new IntSet();
+        set.add(0);
+        assertFalse(set.contains(-1));
+        assertFalse(set.contains(Integer.MIN_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeValues() {
+        new IntSet().add(-1);
+    }
+
+    private static Set<Integer> toSet(int[] values) {
+        Set<Integer> set = new HashSet<>();
+        Arrays.stream(values).forEach(set::add);
+        assertEquals("duplicate values", values.length, set.size());
+        return set;
+    }
+}
@@ -0,0 +1,73 @@
+package org.jenkinsci.deprecatedusage.symbol;
+
+import org.jenkinsci.deprecatedusage.DeprecatedApi;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeyFilterTest {
+    private static final String[] PARTS = {"a", "Z", "/", "$", "<init>", "é", "\u0000", "中", "😀", "(", ")V", ";"};
+
+    @Test
+    public void hasNoFalseNegative() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            List<String[]> methods = new ArrayList<>();
+            List<String[]> fields = new ArrayList<>();
+            List<String> keys = new ArrayList<>();
+            int keyCount = random.nextInt(5000);
+            for (int i = 0; i < keyCount; i++) {
+                String className = randomString(random);
+                String name = randomString(random);
+                if (random.nextBoolean()) {
+                    String desc = randomString(random);
+                    methods.add(new String[] {className, name, desc});
+                    keys.add(DeprecatedApi.getMethodKey(className, name, desc));
+                } else {
+                    fields.add(new String[] {className, name});
+                    keys.add(DeprecatedApi.getFieldKey(className, name, "I"));
+                }
+            }
+            KeyFilter filter = new KeyFilter(keys);
+            for (String[] method : methods) {
+                assertTrue(String.join("", method), filter.mightContainMethodKey(method[0], method[1], method[2]));
+            }
+            for (String[] field : fields) {
+                assertTrue(String.join("", field), filter.mightContainFieldKey(field[0], field[1]));
+            }
+        }
+    }
+
+    @Test
+    public void filtersMostKeysNotAdded() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            keys.add(DeprecatedApi.getMethodKey("hudson/model/C" + i, "m", "()V"));
+        }
+        KeyFilter filter = new KeyFilter(keys);
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContainMethodKey("jenkins/model/C" + i, "m", "()V")) {
+                falsePositives++;
+            }
+        }
+        // 16 bits per key and 4 bits set in a word give less than 1% of false positives
+        assertTrue("false positives: " + falsePositives, falsePositives < 200);
+        assertFalse(new KeyFilter(Collections.emptyList()).mightContainFieldKey("hudson/model/C", "f"));
+    }
+
+    private static String randomString(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int parts = random.nextInt(6);
+        for (int i = 0; i < parts; i++) {
+            sb.append(PARTS[random.nextInt(PARTS.length)]);
+        }
+        return sb.toString();
+    }
+}
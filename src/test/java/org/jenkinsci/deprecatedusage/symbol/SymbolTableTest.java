@@ -0,0 +1,124 @@
+package org.jenkinsci.deprecatedusage.symbol;
+
+import org.jenkinsci.deprecatedusage.DeprecatedApi;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class SymbolTableTest {
+    private static final String[] CLASS_NAMES = {"hudson/model/Run", "hudson/model/Run$1", "jenkins/model/Jenkins",
+            "a", "", "org/acme/Été", "org/acme/😀"};
+    private static final String[] NAMES = {"getLog", "<init>", "x", "", "naïve", "ADMINISTER"};
+    private static final String[] DESCS = {"()V", "(Ljava/lang/String;)I", "", "(I)Lhudson/model/Run;"};
+
+    @Test
+    public void behavesLikeHashMap() {
+        Random random = new Random(42);
+        SymbolTable table = new SymbolTable();
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            String className = randomClassName(random);
+            String name = NAMES[random.nextInt(NAMES.length)];
+            String desc = DESCS[random.nextInt(DESCS.length)];
+            String symbol;
+            int id;
+            switch (random.nextInt(3)) {
+                case 0:
+                    symbol = className;
+                    assertEquals(expected.getOrDefault(symbol, -1).intValue(), table.find(className));
+                    id = table.intern(className);
+                    break;
+                case 1:
+                    symbol = DeprecatedApi.getMethodKey(className, name, desc);
+                    assertEquals(expected.getOrDefault(symbol, -1).intValue(),
+                            table.findMethodKey(className, name, desc));
+                    id = table.internMethodKey(className, name, desc);
+                    break;
+                default:
+                    symbol = DeprecatedApi.getFieldKey(className, name, desc);
+                    assertEquals(expected.getOrDefault(symbol, -1).intValue(), table.findFieldKey(className, name));
+                    id = table.internFieldKey(className, name);
+                    break;
+            }
+            // ids are allocated in sequence
+            assertEquals(expected.computeIfAbsent(symbol, s -> expected.size()).intValue(), id);
+            assertEquals(symbol, table.symbol(id));
+            // a key and the plain String are the same symbol
+            assertEquals(id, table.intern(symbol));
+            assertEquals(id, table.find(symbol));
+        }
+        assertEquals(expected.size(), table.size());
+
+        IntSet ids = new IntSet();
+        ids.add(expected.get("a"));
+        assertEquals(List.of("a"), table.symbols(ids));
+    }
+
+    @Test
+    public void hashesKeysFromTheirParts() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            String className = randomClassName(random);
+            String name = NAMES[random.nextInt(NAMES.length)];
+            String desc = DESCS[random.nextInt(DESCS.length)];
+            assertEquals(DeprecatedApi.getMethodKey(className, name, desc).hashCode(),
+                    SymbolTable.keyHash(className, name, desc));
+            assertEquals(DeprecatedApi.getFieldKey(className, name, desc).hashCode(),
+                    SymbolTable.keyHash(className, name, ""));
+        }
+    }
+
+    @Test
+    public void internsConcurrentlyOnce() throws Exception {
+        SymbolTable table = new SymbolTable();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<int[]>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                int seed = thread;
+                Callable<int[]> task = () -> {
+                    // each thread interns the same symbols, in another order
+                    List<String> symbols = new ArrayList<>();
+                    for (int i = 0; i < 10000; i++) {
+                        symbols.add("org/acme/C" + i);
+                    }
+                    Collections.shuffle(symbols, new Random(seed));
+                    int[] ids = new int[symbols.size()];
+                    for (String symbol : symbols) {
+                        ids[Integer.parseInt(symbol.substring("org/acme/C".length()))] = table.intern(symbol);
+                    }
+                    return ids;
+                };
+                futures.add(executor.submit(task));
+            }
+            int[] first = futures.get(0).get();
+            for (Future<int[]> future : futures) {
+                int[] ids = future.get();
+                for (int i = 0; i < ids.length; i++) {
+                    assertEquals(first[i], ids[i]);
+                    assertEquals("org/acme/C" + i, table.symbol(ids[i]));
+                }
+            }
+            assertEquals(10000, table.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String randomClassName(Random random) {
+        String className = CLASS_NAMES[random.nextInt(CLASS_NAMES.length)];
+        // many distinct classes, so that the segments grow
+        return random.nextBoolean() ? className + random.nextInt(2000) : className;
+    }
+}